@@ -0,0 +1,91 @@
+package tp2.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import tp2.shared.TableOperations;
+
+/**
+ * Génération d'opérations pour les benchmarks, selon une distribution des opérandes :
+ * - uniforme : opérandes tirés uniformément jusqu'aux bornes ;
+ * - asymetrique : 90 % de petits opérandes et 10 % jusqu'aux bornes, comme un
+ *   fichier dont quelques opérations dominent le coût ;
+ * - constante : tous les opérandes égaux à la moitié des bornes.
+ * Les bornes restent compatibles avec les noyaux de référence (tp2.serveur.Operations).
+ * Le tirage est déterministe (graine fixe) pour que les mesures soient comparables.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+final class DistributionOperandes {
+
+	static final int FIB_MAX = 24;        // Borne des opérandes de fib
+	static final int PRIME_MAX = 2000;    // Borne des opérandes de prime
+
+	private final String distribution;    // Nom de la distribution
+	private final Random aleatoire = new Random(42);
+
+	/**
+	 * @param distribution uniforme, asymetrique ou constante
+	 */
+	DistributionOperandes(String distribution) {
+		if (!"uniforme".equals(distribution) && !"asymetrique".equals(distribution) && !"constante".equals(distribution))
+			throw new IllegalArgumentException("distribution inconnue : " + distribution);
+
+		this.distribution = distribution;
+	}
+
+	/**
+	 * @param borne borne de l'opération
+	 * @return prochain opérande
+	 */
+	int operande(int borne) {
+		if ("constante".equals(distribution))
+			return borne / 2;
+
+		if ("asymetrique".equals(distribution) && aleatoire.nextInt(10) != 0)
+			return aleatoire.nextInt(Math.max(1, borne / 10) + 1);
+
+		return aleatoire.nextInt(borne + 1);
+	}
+
+	/**
+	 * @param nbrOperations nombre d'opérations
+	 * @return opérations, moitié fib et moitié prime
+	 */
+	TableOperations table(int nbrOperations) {
+		TableOperations operations = new TableOperations();
+
+		for (int i = 0; i < nbrOperations; i++) {
+			if (i % 2 == 0) {
+				operations.ajouter("fib", operande(FIB_MAX));
+			} else {
+				operations.ajouter("prime", operande(PRIME_MAX));
+			}
+		}
+
+		return operations;
+	}
+
+	/**
+	 * @param nbrOperations nombre d'opérations
+	 * @return paquet sous forme de table de hachage, moitié fib et moitié prime
+	 */
+	HashMap<String, ArrayList<Integer>> paquet(int nbrOperations) {
+		HashMap<String, ArrayList<Integer>> operations = new HashMap<String, ArrayList<Integer>>();
+		operations.put("fib", new ArrayList<Integer>());
+		operations.put("prime", new ArrayList<Integer>());
+
+		for (int i = 0; i < nbrOperations; i++) {
+			if (i % 2 == 0) {
+				operations.get("fib").add(operande(FIB_MAX));
+			} else {
+				operations.get("prime").add(operande(PRIME_MAX));
+			}
+		}
+
+		return operations;
+	}
+
+}
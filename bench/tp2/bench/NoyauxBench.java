@@ -0,0 +1,97 @@
+package tp2.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tp2.serveur.Operations;
+import tp2.shared.CribleFacteurs;
+import tp2.shared.OperationsRapides;
+
+/**
+ * Noyaux de calcul du serveur : implémentations de référence (Operations,
+ * volontairement non optimales) et noyaux rapides (table de Pisano, crible).
+ * Chaque appel calcule un lot d'opérandes tirés selon la distribution.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoyauxBench {
+
+	@Param({ "uniforme", "asymetrique", "constante" })
+	public String distribution;
+
+	@Param({ "64" })
+	public int nbrOperandes;
+
+	private int[] operandesFib;
+	private int[] operandesPrime;
+	private CribleFacteurs crible;
+
+	@Setup
+	public void preparer() {
+		DistributionOperandes generateur = new DistributionOperandes(distribution);
+		operandesFib = new int[nbrOperandes];
+		operandesPrime = new int[nbrOperandes];
+
+		for (int i = 0; i < nbrOperandes; i++) {
+			operandesFib[i] = generateur.operande(DistributionOperandes.FIB_MAX);
+			operandesPrime[i] = generateur.operande(DistributionOperandes.PRIME_MAX);
+		}
+
+		crible = new CribleFacteurs(DistributionOperandes.PRIME_MAX + 1, DistributionOperandes.PRIME_MAX + 1);
+	}
+
+	@Benchmark
+	public int fibReference() {
+		int somme = 0;
+		for (int x : operandesFib) {
+			somme = (somme + Operations.fib(x) % 5000) % 5000;
+		}
+		return somme;
+	}
+
+	@Benchmark
+	public int fibRapide() {
+		int somme = 0;
+		for (int x : operandesFib) {
+			somme = (somme + OperationsRapides.fib(x)) % 5000;
+		}
+		return somme;
+	}
+
+	@Benchmark
+	public int primeReference() {
+		int somme = 0;
+		for (int x : operandesPrime) {
+			somme = (somme + Operations.prime(x) % 5000) % 5000;
+		}
+		return somme;
+	}
+
+	@Benchmark
+	public int primeCrible() {
+		int somme = 0;
+		for (int x : operandesPrime) {
+			somme = (somme + crible.prime(x) % 5000) % 5000;
+		}
+		return somme;
+	}
+
+}
@@ -0,0 +1,106 @@
+package tp2.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tp2.shared.ModeleCoutAnalytique;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
+import tp2.shared.TableOperations;
+
+/**
+ * Découpage des paquets par le réservoir d'opérations (qui remplace
+ * getOperations/resetOperations des répartiteurs) :
+ * - vider : tout le réservoir est pris puis terminé, paquet par paquet ;
+ * - prendreRendre : un paquet est pris puis rendu (refus du serveur) ;
+ * - prendreCout : un paquet est pris selon un budget de coût puis rendu.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservoirBench {
+
+	@Param({ "uniforme", "asymetrique" })
+	public String distribution;
+
+	@Param({ "8", "64", "512" })
+	public int taillePaquet;
+
+	@Param({ "100000" })
+	public int nbrOperations;
+
+	@Param({ "4" })
+	public int nbrTravailleurs;
+
+	private TableOperations operations;
+	private ReservoirOperations reservoir;
+	private ReservoirOperations reservoirCout;
+
+	@Setup(Level.Trial)
+	public void preparer() {
+		operations = new DistributionOperandes(distribution).table(nbrOperations);
+		reservoir = new ReservoirOperations(operations, nbrTravailleurs);
+		reservoirCout = new ReservoirOperations(operations, nbrTravailleurs, new ModeleCoutAnalytique());
+	}
+
+	/**
+	 * Réservoir plein recréé avant chaque appel de vider (hors mesure).
+	 */
+	@State(Scope.Thread)
+	public static class ReservoirPlein {
+		private ReservoirOperations reservoir;
+
+		@Setup(Level.Invocation)
+		public void remplir(ReservoirBench bench) {
+			// Les tranches partagent les segments : créer le réservoir ne copie aucun opérande
+			reservoir = new ReservoirOperations(bench.operations, bench.nbrTravailleurs);
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int vider(ReservoirPlein plein) {
+		int nbrPaquets = 0;
+		PaquetOperations paquet;
+
+		while ((paquet = plein.reservoir.prendre(nbrPaquets % nbrTravailleurs, taillePaquet)) != null) {
+			plein.reservoir.terminer(paquet);
+			nbrPaquets++;
+		}
+
+		return nbrPaquets;
+	}
+
+	@Benchmark
+	public int prendreRendre() {
+		PaquetOperations paquet = reservoir.prendre(0, taillePaquet);
+		reservoir.rendre(paquet);
+		return paquet.taille();
+	}
+
+	@Benchmark
+	public int prendreCout() {
+		PaquetOperations paquet = reservoirCout.prendre(0, taillePaquet, reservoirCout.getCoutDisponible() / nbrTravailleurs);
+		reservoirCout.rendre(paquet);
+		return paquet.taille();
+	}
+
+}
@@ -0,0 +1,98 @@
+package tp2.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tp2.shared.PaquetCompact;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
+
+/**
+ * Sérialisation d'un paquet telle que faite par RMI (ObjectOutputStream) :
+ * table de hachage de listes d'Integer (calculOperations) contre format compact
+ * (calculOperationsCompact), ainsi que la construction du format compact
+ * depuis chacune des deux représentations.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialisationBench {
+
+	@Param({ "uniforme", "asymetrique" })
+	public String distribution;
+
+	@Param({ "8", "64", "512", "4096" })
+	public int taillePaquet;
+
+	private HashMap<String, ArrayList<Integer>> table;
+	private PaquetOperations paquet;
+	private PaquetCompact compact;
+	private final ByteArrayOutputStream tampon = new ByteArrayOutputStream();
+
+	@Setup
+	public void preparer() {
+		DistributionOperandes generateur = new DistributionOperandes(distribution);
+		table = generateur.paquet(taillePaquet);
+		paquet = new ReservoirOperations(generateur.table(taillePaquet), 1).prendre(0, taillePaquet);
+		compact = PaquetCompact.depuis(table);
+	}
+
+	@Benchmark
+	public int serialiserTable() throws IOException {
+		return serialiser(table);
+	}
+
+	@Benchmark
+	public int serialiserCompact() throws IOException {
+		return serialiser(compact.getCodes(), compact.getOperandes());
+	}
+
+	@Benchmark
+	public PaquetCompact compacterTable() {
+		return PaquetCompact.depuis(table);
+	}
+
+	@Benchmark
+	public PaquetCompact compacterTranches() {
+		return paquet.versCompact();
+	}
+
+	/**
+	 * Sérialise les arguments d'un appel distant, comme le fait RMI.
+	 * @param arguments arguments de l'appel
+	 * @return nombre d'octets écrits
+	 * @throws IOException jamais levée sur un tampon en mémoire
+	 */
+	private int serialiser(Object... arguments) throws IOException {
+		tampon.reset();
+		ObjectOutputStream sortie = new ObjectOutputStream(tampon);
+		for (Object argument : arguments) {
+			sortie.writeObject(argument);
+		}
+		sortie.flush();
+		return tampon.size();
+	}
+
+}
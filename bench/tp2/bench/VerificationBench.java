@@ -0,0 +1,101 @@
+package tp2.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tp2.repartiteurNonSecur.Paquet;
+import tp2.repartiteurNonSecur.VotesOperandes;
+
+/**
+ * Vérification du répartiteur non sécurisé : un paquet reçoit le résultat de
+ * chaque serveur puis le quorum est recherché, sur la somme du paquet
+ * (resultatValide) ou opérande par opérande (resultatValideDetail, option --detail).
+ * Un serveur sur nbrServeurs renvoie un résultat faux.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerificationBench {
+
+	@Param({ "uniforme" })
+	public String distribution;
+
+	@Param({ "8", "64", "512" })
+	public int taillePaquet;
+
+	@Param({ "3", "5", "9" })
+	public int nbrServeurs;
+
+	private HashMap<String, ArrayList<Integer>> operations;
+	private HashMap<String, ArrayList<Integer>> resultats;
+	private HashMap<String, ArrayList<Integer>> resultatsFaux;
+	private int somme;
+
+	@Setup
+	public void preparer() {
+		operations = new DistributionOperandes(distribution).paquet(taillePaquet);
+		resultats = new HashMap<String, ArrayList<Integer>>();
+		resultatsFaux = new HashMap<String, ArrayList<Integer>>();
+
+		for (String s : operations.keySet()) {
+			ArrayList<Integer> liste = new ArrayList<Integer>();
+			ArrayList<Integer> listeFausse = new ArrayList<Integer>();
+			for (Integer operande : operations.get(s)) {
+				liste.add(operande % 5000);
+				listeFausse.add((operande + 1) % 5000);
+				somme = (somme + operande) % 5000;
+			}
+			resultats.put(s, liste);
+			resultatsFaux.put(s, listeFausse);
+		}
+	}
+
+	@Benchmark
+	public int resultatValide() {
+		Paquet paquet = new Paquet(operations);
+		int resultat = -1;
+
+		for (int i = 0; i < nbrServeurs && resultat == -1; i++) {
+			paquet.setResultat("s" + i, i == 0 ? somme + 1 : somme);
+			resultat = paquet.resultatValide(nbrServeurs);
+		}
+
+		return resultat;
+	}
+
+	@Benchmark
+	public int resultatValideDetail() {
+		Paquet paquet = new Paquet(operations, new VotesOperandes(operations));
+		HashMap<String, Boolean> accords = new HashMap<String, Boolean>();
+		int resultat = -1;
+
+		for (int i = 0; i < nbrServeurs && !paquet.estVerifie(); i++) {
+			String nom = "s" + i;
+			paquet.setServeurEnCours(nom);
+			paquet.setResultatDetail(nom, i == 0 ? somme + 1 : somme, i == 0 ? resultatsFaux : resultats);
+			resultat = paquet.resultatValideDetail(nbrServeurs, null, accords);
+		}
+
+		return resultat;
+	}
+
+}
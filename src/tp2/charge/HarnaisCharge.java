@@ -0,0 +1,290 @@
+package tp2.charge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import tp2.repartiteur.Repartiteur;
+import tp2.repartiteurNonSecur.RepartiteurNonSecurise;
+import tp2.serveur.OptionsServeur;
+import tp2.serveur.Serveur;
+import tp2.shared.ServeurInterface;
+
+/**
+ * Harnais de charge de bout en bout dans une seule JVM : un registre RMI local
+ * et N serveurs sur la boucle locale (Q_OP_MAX, seuil d'erreur et latence
+ * configurables par serveur), puis un répartiteur sécurisé ou non sécurisé
+ * lancé sur une charge générée (ou un fichier d'opérations existant).
+ *
+ * Les appels passent par RMI comme en déploiement réel. Chaque serveur est
+ * enveloppé dans un ServeurMesure, d'où le rapport de fin : débit en
+ * opérations par seconde, latence p50/p99 des paquets acceptés (durée de
+ * l'appel côté serveur) et taux de refus, au total et par serveur.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class HarnaisCharge {
+
+	/**
+	 * Lancement du harnais : ./charge securise|nonsecurise [options] [-- options du répartiteur]
+	 * @param args arguments de la ligne de commande (voir OptionsCharge)
+	 */
+	public static void main(String[] args) {
+		OptionsCharge options;
+		try {
+			options = OptionsCharge.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Erreur: " + e.getMessage());
+			System.out.println("Usage: ./charge securise|nonsecurise [--serveurs=N] [--q=Q[,Q...]] [--erreur=P[,P...]] [--latence=MS[,MS...]] "
+					+ "[--operations=N] [--distribution=uniforme|asymetrique|constante] [--fib-max=N] [--prime-max=N] [--graine=N] "
+					+ "[--fichier=F] [--port=N] [--silencieux] [options des serveurs] [-- options du répartiteur]");
+			return;
+		}
+
+		try {
+			new HarnaisCharge().executer(options);
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Démarrage des serveurs, exécution du répartiteur puis rapport.
+	 * @param options options du harnais
+	 * @exception IOException si les fichiers temporaires ne peuvent pas être écrits ou le registre créé
+	 */
+	private void executer(OptionsCharge options) throws IOException {
+		Registry registre = LocateRegistry.createRegistry(options.getPort());
+		List<ServeurMesure> serveurs = new ArrayList<ServeurMesure>();
+
+		File config = File.createTempFile("charge-config", ".txt");
+		File operations = options.getFichier() == null ? generer(options) : new File(options.getFichier());
+		config.deleteOnExit();
+
+		try {
+			PrintWriter ecriture = new PrintWriter(config);
+			try {
+				for (int i = 0; i < options.getNbrServeurs(); i++) {
+					String nom = "charge" + i;
+					ServeurMesure serveur = new ServeurMesure(nom, creerServeur(nom, i, options));
+					registre.rebind(nom, (ServeurInterface) UnicastRemoteObject.exportObject(serveur, 0));
+					serveurs.add(serveur);
+					ecriture.println(nom + " 127.0.0.1 " + options.getPort());
+				}
+			} finally {
+				ecriture.close();
+			}
+
+			List<String> arguments = new ArrayList<String>();
+			arguments.add(operations.getPath());
+			arguments.add(config.getPath());
+			arguments.addAll(options.getOptionsRepartiteur());
+			String[] argumentsRepartiteur = arguments.toArray(new String[arguments.size()]);
+
+			PrintStream sortie = System.out;
+			if (options.isSilencieux()) {
+				System.setOut(new PrintStream(new FiltreSortie(sortie), true));
+			}
+
+			long debut = System.nanoTime();
+			try {
+				if (options.isSecurise()) {
+					Repartiteur.main(argumentsRepartiteur);
+				} else {
+					RepartiteurNonSecurise.main(argumentsRepartiteur);
+				}
+			} finally {
+				System.setOut(sortie);
+			}
+			long duree = System.nanoTime() - debut;
+
+			rapport(options, serveurs, duree);
+		} finally {
+			for (ServeurMesure serveur : serveurs) {
+				UnicastRemoteObject.unexportObject(serveur, true);
+			}
+			UnicastRemoteObject.unexportObject(registre, true);
+		}
+	}
+
+	/**
+	 * Création d'un serveur, avec les options communes et sa latence.
+	 * @param nom nom du serveur
+	 * @param indice indice du serveur
+	 * @param options options du harnais
+	 * @return serveur
+	 */
+	private ServeurInterface creerServeur(String nom, int indice, OptionsCharge options) {
+		List<String> optionsServeur = new ArrayList<String>(options.getOptionsServeur());
+		optionsServeur.add("--latence=" + options.getLatence(indice));
+		OptionsServeur optionsParsees = OptionsServeur.parse(optionsServeur.toArray(new String[optionsServeur.size()]), 0);
+
+		return new Serveur(nom, options.getErreur(indice), options.getQ(indice), optionsParsees);
+	}
+
+	/**
+	 * Génération d'un fichier d'opérations, moitié fib et moitié prime.
+	 * @param options options du harnais (nombre d'opérations, distribution, bornes, graine)
+	 * @return fichier temporaire, supprimé à la fin
+	 * @exception IOException si le fichier ne peut pas être écrit
+	 */
+	private File generer(OptionsCharge options) throws IOException {
+		File fichier = File.createTempFile("charge-operations", ".txt");
+		fichier.deleteOnExit();
+		Random aleatoire = new Random(options.getGraine());
+
+		PrintWriter ecriture = new PrintWriter(fichier);
+		try {
+			for (int i = 0; i < options.getNbrOperations(); i++) {
+				if (i % 2 == 0) {
+					ecriture.println("fib " + operande(aleatoire, options.getDistribution(), options.getFibMax()));
+				} else {
+					ecriture.println("prime " + operande(aleatoire, options.getDistribution(), options.getPrimeMax()));
+				}
+			}
+		} finally {
+			ecriture.close();
+		}
+
+		return fichier;
+	}
+
+	/**
+	 * Tirage d'un opérande :
+	 * - uniforme : uniformément jusqu'à la borne ;
+	 * - asymetrique : 90 % jusqu'au dixième de la borne, 10 % jusqu'à la borne ;
+	 * - constante : la moitié de la borne.
+	 * @param aleatoire générateur
+	 * @param distribution distribution des opérandes
+	 * @param borne borne des opérandes
+	 * @return opérande
+	 */
+	private static int operande(Random aleatoire, String distribution, int borne) {
+		if (distribution.equals("constante"))
+			return borne / 2;
+
+		if (distribution.equals("asymetrique") && aleatoire.nextInt(10) != 0)
+			return aleatoire.nextInt(borne / 10 + 1);
+
+		return aleatoire.nextInt(borne + 1);
+	}
+
+	/**
+	 * Rapport de fin : débit, latences et refus, au total puis par serveur.
+	 * @param options options du harnais
+	 * @param serveurs serveurs mesurés
+	 * @param duree durée d'exécution du répartiteur, en nanosecondes
+	 */
+	private void rapport(OptionsCharge options, List<ServeurMesure> serveurs, long duree) {
+		long nbrOperations = 0;
+		long nbrRefus = 0;
+		List<long[]> latencesServeurs = new ArrayList<long[]>();
+		int nbrPaquets = 0;
+
+		for (ServeurMesure serveur : serveurs) {
+			long[] latences = serveur.getLatences();
+			latencesServeurs.add(latences);
+			nbrPaquets += latences.length;
+			nbrOperations += serveur.getNbrOperations();
+			nbrRefus += serveur.getNbrRefus();
+		}
+
+		long[] latences = new long[nbrPaquets];
+		int indice = 0;
+		for (long[] latencesServeur : latencesServeurs) {
+			System.arraycopy(latencesServeur, 0, latences, indice, latencesServeur.length);
+			indice += latencesServeur.length;
+		}
+		Arrays.sort(latences);
+
+		System.out.println();
+		System.out.println("Charge : " + options.getNbrServeurs() + " serveurs, répartiteur "
+				+ (options.isSecurise() ? "sécurisé" : "non sécurisé"));
+		System.out.println("Durée : " + duree / 1000000 + " ms");
+		System.out.println("Débit : " + (long) (nbrOperations * 1e9 / Math.max(1, duree)) + " opérations/s ("
+				+ nbrOperations + " opérations calculées, vérifications comprises)");
+		System.out.println("Paquets : " + nbrPaquets + " acceptés, " + nbrRefus + " refusés (taux de refus "
+				+ pourcentage(nbrRefus, nbrPaquets + nbrRefus) + ")");
+		System.out.println("Latence des paquets : p50 " + milli(centile(latences, 50)) + ", p99 " + milli(centile(latences, 99)));
+
+		for (int i = 0; i < serveurs.size(); i++) {
+			ServeurMesure serveur = serveurs.get(i);
+			long[] latencesServeur = latencesServeurs.get(i);
+			System.out.println("  " + serveur.getNom() + " (Q=" + options.getQ(i) + ", erreur=" + options.getErreur(i)
+					+ "%, latence=" + options.getLatence(i) + " ms) : " + latencesServeur.length + " paquets, "
+					+ serveur.getNbrOperations() + " opérations, refus " + pourcentage(serveur.getNbrRefus(), latencesServeur.length + serveur.getNbrRefus())
+					+ ", p50 " + milli(centile(latencesServeur, 50)) + ", p99 " + milli(centile(latencesServeur, 99)));
+		}
+	}
+
+	/**
+	 * @param valeurs valeurs triées
+	 * @param centile centile recherché (0 à 100)
+	 * @return valeur du centile (méthode du rang le plus proche), 0 sans valeur
+	 */
+	private static long centile(long[] valeurs, int centile) {
+		if (valeurs.length == 0)
+			return 0;
+
+		int rang = (int) Math.ceil(centile / 100.0 * valeurs.length);
+		return valeurs[Math.max(0, rang - 1)];
+	}
+
+	/**
+	 * @param nanos durée en nanosecondes
+	 * @return durée en millisecondes, avec deux décimales
+	 */
+	private static String milli(long nanos) {
+		return String.format("%.2f ms", nanos / 1e6);
+	}
+
+	/**
+	 * @param partie nombre d'éléments comptés
+	 * @param total nombre total d'éléments
+	 * @return pourcentage, avec une décimale
+	 */
+	private static String pourcentage(long partie, long total) {
+		return String.format("%.1f %%", total == 0 ? 0 : 100.0 * partie / total);
+	}
+
+	/**
+	 * Sortie réduite (option --silencieux) : seules les lignes du résultat final,
+	 * du temps de calcul et des erreurs sont transmises.
+	 */
+	private static class FiltreSortie extends OutputStream {
+		private final PrintStream sortie;
+		private final ByteArrayOutputStream ligne = new ByteArrayOutputStream();
+
+		FiltreSortie(PrintStream sortie) {
+			this.sortie = sortie;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			if (b != '\n') {
+				ligne.write(b);
+				return;
+			}
+
+			String texte = ligne.toString();
+			if (texte.startsWith("Resultat :") || texte.startsWith("Temps") || texte.startsWith("Erreur")) {
+				sortie.println(texte);
+			}
+			ligne.reset();
+		}
+	}
+
+}
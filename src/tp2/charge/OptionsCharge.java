@@ -0,0 +1,265 @@
+package tp2.charge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options du harnais de charge, de la forme --nom=valeur (ou --nom pour les
+ * booléens). Les options du répartiteur suivent un séparateur "--", les
+ * autres options --nom=valeur sont transmises aux serveurs (voir OptionsServeur).
+ *
+ * Options reconnues :
+ * - --serveurs=N : nombre de serveurs (3 par défaut)
+ * - --q=Q[,Q...] : Q_OP_MAX de chaque serveur, la liste est répétée si elle est plus courte (5 par défaut)
+ * - --erreur=P[,P...] : seuil d'erreur de chaque serveur, en pourcentage (0 par défaut)
+ * - --latence=MS[,MS...] : latence simulée de chaque serveur (0 par défaut)
+ * - --operations=N : nombre d'opérations générées (10000 par défaut)
+ * - --distribution=uniforme|asymetrique|constante : distribution des opérandes générés (uniforme par défaut)
+ * - --fib-max=N, --prime-max=N : bornes des opérandes générés (20 et 1000 par défaut)
+ * - --graine=N : graine du générateur, pour des charges reproductibles (42 par défaut)
+ * - --fichier=F : fichier d'opérations existant (texte ou binaire) au lieu d'une charge générée
+ * - --port=N : port du registre RMI local, entre 5000 et 5050 (5040 par défaut)
+ * - --silencieux : n'affiche que le résultat et le rapport, pas le détail de chaque paquet
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class OptionsCharge {
+
+	private boolean securise;                  // Répartiteur sécurisé ou non sécurisé
+	private int nbrServeurs = 3;               // Nombre de serveurs
+	private int[] q = { 5 };                   // Q_OP_MAX des serveurs
+	private int[] erreur = { 0 };              // Seuil d'erreur des serveurs
+	private int[] latence = { 0 };             // Latence simulée des serveurs
+	private int nbrOperations = 10000;         // Nombre d'opérations générées
+	private String distribution = "uniforme";  // Distribution des opérandes générés
+	private int fibMax = 20;                   // Borne des opérandes de fib
+	private int primeMax = 1000;               // Borne des opérandes de prime
+	private long graine = 42;                  // Graine du générateur
+	private String fichier = null;             // Fichier d'opérations existant (null : charge générée)
+	private int port = 5040;                   // Port du registre RMI local
+	private boolean silencieux = false;        // Affichage réduit pendant le calcul
+	private List<String> optionsServeur = new ArrayList<String>();     // Options transmises aux serveurs
+	private List<String> optionsRepartiteur = new ArrayList<String>(); // Options transmises au répartiteur
+
+	/**
+	 * Analyse la ligne de commande du harnais.
+	 * @param args securise|nonsecurise, options du harnais et des serveurs, puis -- et options du répartiteur
+	 * @return options du harnais
+	 * @exception IllegalArgumentException si une option est inconnue ou mal formée
+	 */
+	public static OptionsCharge parse(String[] args) {
+		OptionsCharge options = new OptionsCharge();
+
+		if (args.length == 0 || (!args[0].equals("securise") && !args[0].equals("nonsecurise"))) {
+			throw new IllegalArgumentException("premier argument attendu : securise ou nonsecurise");
+		}
+		options.securise = args[0].equals("securise");
+
+		int i = 1;
+		for (; i < args.length && !args[i].equals("--"); i++) {
+			String[] temp = args[i].split("=", 2);
+
+			if (!temp[0].startsWith("--")) {
+				throw new IllegalArgumentException("option mal formée '" + args[i] + "' (attendu --nom=valeur)");
+			}
+
+			String nom = temp[0].substring(2);
+
+			if (nom.equals("silencieux") && temp.length == 1) {
+				options.silencieux = true;
+				continue;
+			}
+			if (temp.length != 2) {
+				throw new IllegalArgumentException("option mal formée '" + args[i] + "' (attendu --nom=valeur)");
+			}
+
+			String valeur = temp[1];
+
+			if (nom.equals("serveurs")) {
+				options.nbrServeurs = parseEntier(nom, valeur, 1);
+			} else if (nom.equals("q")) {
+				options.q = parseListe(nom, valeur, 1);
+			} else if (nom.equals("erreur")) {
+				options.erreur = parseListe(nom, valeur, 0);
+			} else if (nom.equals("latence")) {
+				options.latence = parseListe(nom, valeur, 0);
+			} else if (nom.equals("operations")) {
+				options.nbrOperations = parseEntier(nom, valeur, 1);
+			} else if (nom.equals("distribution")) {
+				if (!valeur.equals("uniforme") && !valeur.equals("asymetrique") && !valeur.equals("constante")) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+							+ " (uniforme, asymetrique ou constante)");
+				}
+				options.distribution = valeur;
+			} else if (nom.equals("fib-max")) {
+				options.fibMax = parseEntier(nom, valeur, 0);
+			} else if (nom.equals("prime-max")) {
+				options.primeMax = parseEntier(nom, valeur, 0);
+			} else if (nom.equals("graine")) {
+				options.graine = parseEntier(nom, valeur, 0);
+			} else if (nom.equals("fichier")) {
+				options.fichier = valeur;
+			} else if (nom.equals("port")) {
+				options.port = parseEntier(nom, valeur, 5000);
+				if (options.port > 5050) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (entre 5000 et 5050)");
+				}
+			} else {
+				options.optionsServeur.add(args[i]);
+			}
+		}
+
+		for (i++; i < args.length; i++) {
+			options.optionsRepartiteur.add(args[i]);
+		}
+
+		return options;
+	}
+
+	/**
+	 * Lecture d'un entier minoré.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option
+	 * @param minimum valeur minimale
+	 * @return entier lu
+	 */
+	private static int parseEntier(String nom, String valeur, int minimum) {
+		int entier;
+		try {
+			entier = Integer.parseInt(valeur);
+		} catch (NumberFormatException e) {
+			entier = minimum - 1;
+		}
+		if (entier < minimum) {
+			throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+					+ " (entier supérieur ou égal à " + minimum + " attendu)");
+		}
+		return entier;
+	}
+
+	/**
+	 * Lecture d'une liste d'entiers séparés par des virgules.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option
+	 * @param minimum valeur minimale de chaque entier
+	 * @return entiers lus
+	 */
+	private static int[] parseListe(String nom, String valeur, int minimum) {
+		String[] elements = valeur.split(",");
+		int[] liste = new int[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			liste[i] = parseEntier(nom, elements[i], minimum);
+		}
+		return liste;
+	}
+
+	/**
+	 * @return true pour le répartiteur sécurisé, false pour le répartiteur non sécurisé
+	 */
+	public boolean isSecurise() {
+		return securise;
+	}
+
+	/**
+	 * @return nombre de serveurs
+	 */
+	public int getNbrServeurs() {
+		return nbrServeurs;
+	}
+
+	/**
+	 * @param serveur indice du serveur
+	 * @return Q_OP_MAX du serveur
+	 */
+	public int getQ(int serveur) {
+		return q[serveur % q.length];
+	}
+
+	/**
+	 * @param serveur indice du serveur
+	 * @return seuil d'erreur du serveur
+	 */
+	public int getErreur(int serveur) {
+		return erreur[serveur % erreur.length];
+	}
+
+	/**
+	 * @param serveur indice du serveur
+	 * @return latence simulée du serveur, en millisecondes
+	 */
+	public int getLatence(int serveur) {
+		return latence[serveur % latence.length];
+	}
+
+	/**
+	 * @return nombre d'opérations générées
+	 */
+	public int getNbrOperations() {
+		return nbrOperations;
+	}
+
+	/**
+	 * @return distribution des opérandes générés
+	 */
+	public String getDistribution() {
+		return distribution;
+	}
+
+	/**
+	 * @return borne des opérandes de fib
+	 */
+	public int getFibMax() {
+		return fibMax;
+	}
+
+	/**
+	 * @return borne des opérandes de prime
+	 */
+	public int getPrimeMax() {
+		return primeMax;
+	}
+
+	/**
+	 * @return graine du générateur
+	 */
+	public long getGraine() {
+		return graine;
+	}
+
+	/**
+	 * @return fichier d'opérations existant, null pour une charge générée
+	 */
+	public String getFichier() {
+		return fichier;
+	}
+
+	/**
+	 * @return port du registre RMI local
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return true pour n'afficher que le résultat et le rapport
+	 */
+	public boolean isSilencieux() {
+		return silencieux;
+	}
+
+	/**
+	 * @return options transmises aux serveurs
+	 */
+	public List<String> getOptionsServeur() {
+		return optionsServeur;
+	}
+
+	/**
+	 * @return options transmises au répartiteur
+	 */
+	public List<String> getOptionsRepartiteur() {
+		return optionsRepartiteur;
+	}
+
+}
@@ -0,0 +1,136 @@
+package tp2.charge;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import tp2.shared.ServeurInterface;
+
+/**
+ * Serveur instrumenté du harnais de charge : délègue chaque appel au serveur
+ * et mesure la durée de calcul de chaque paquet, le nombre d'opérations
+ * calculées et le nombre de refus. C'est cet objet qui est exporté et
+ * enregistré dans le registre RMI à la place du serveur.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ServeurMesure implements ServeurInterface {
+
+	private final String nom;                           // Nom du serveur
+	private final ServeurInterface serveur;             // Serveur mesuré
+	private final LongAdder nbrOperations = new LongAdder(); // Opérations des paquets acceptés
+	private final LongAdder nbrRefus = new LongAdder(); // Paquets refusés
+	private long[] latences = new long[1024];           // Durée de chaque paquet accepté, en nanosecondes
+	private int nbrPaquets = 0;                         // Nombre de paquets acceptés
+
+	/**
+	 * Constructeur du serveur instrumenté.
+	 * @param nom nom du serveur
+	 * @param serveur serveur mesuré
+	 */
+	public ServeurMesure(String nom, ServeurInterface serveur) {
+		this.nom = nom;
+		this.serveur = serveur;
+	}
+
+	public int calculOperations(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
+		long debut = System.nanoTime();
+		int resultat = serveur.calculOperations(operations);
+		enregistrer(debut, taille(operations), resultat != -1);
+		return resultat;
+	}
+
+	public HashMap<String, ArrayList<Integer>> calculOperationsDetail(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
+		long debut = System.nanoTime();
+		HashMap<String, ArrayList<Integer>> resultats = serveur.calculOperationsDetail(operations);
+		enregistrer(debut, taille(operations), resultats != null);
+		return resultats;
+	}
+
+	public int calculOperationsCompact(byte[] codes, int[] operandes) throws RemoteException {
+		long debut = System.nanoTime();
+		int resultat = serveur.calculOperationsCompact(codes, operandes);
+		enregistrer(debut, operandes.length, resultat != -1);
+		return resultat;
+	}
+
+	public int[] calculOperationsCompactDetail(byte[] codes, int[] operandes) throws RemoteException {
+		long debut = System.nanoTime();
+		int[] resultats = serveur.calculOperationsCompactDetail(codes, operandes);
+		enregistrer(debut, operandes.length, resultats != null);
+		return resultats;
+	}
+
+	public int capacite() throws RemoteException {
+		return serveur.capacite();
+	}
+
+	/**
+	 * @return nom du serveur
+	 */
+	public String getNom() {
+		return nom;
+	}
+
+	/**
+	 * @return nombre d'opérations des paquets acceptés
+	 */
+	public long getNbrOperations() {
+		return nbrOperations.sum();
+	}
+
+	/**
+	 * @return nombre de paquets refusés
+	 */
+	public long getNbrRefus() {
+		return nbrRefus.sum();
+	}
+
+	/**
+	 * @return durée de chaque paquet accepté, en nanosecondes, triée
+	 */
+	public synchronized long[] getLatences() {
+		long[] copie = Arrays.copyOf(latences, nbrPaquets);
+		Arrays.sort(copie);
+		return copie;
+	}
+
+	/**
+	 * Enregistrement d'un appel.
+	 * @param debut début de l'appel (System.nanoTime)
+	 * @param taille nombre d'opérations du paquet
+	 * @param accepte true si le paquet a été calculé, false s'il a été refusé
+	 */
+	private void enregistrer(long debut, int taille, boolean accepte) {
+		long duree = System.nanoTime() - debut;
+
+		if (!accepte) {
+			nbrRefus.increment();
+			return;
+		}
+
+		nbrOperations.add(taille);
+		synchronized (this) {
+			if (nbrPaquets == latences.length) {
+				latences = Arrays.copyOf(latences, 2 * nbrPaquets);
+			}
+			latences[nbrPaquets++] = duree;
+		}
+	}
+
+	/**
+	 * @param operations paquet d'opérations
+	 * @return nombre d'opérations du paquet
+	 */
+	private static int taille(HashMap<String, ArrayList<Integer>> operations) {
+		int taille = 0;
+		for (String s : operations.keySet()) {
+			taille += operations.get(s).size();
+		}
+		return taille;
+	}
+
+}
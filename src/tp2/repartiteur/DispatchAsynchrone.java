@@ -0,0 +1,228 @@
+package tp2.repartiteur;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import tp2.shared.ConnexionServeur;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
+import tp2.shared.ServeurInterface;
+import tp2.shared.TaillePaquet;
+import tp2.shared.TraceurPaquets;
+
+/**
+ * Répartition asynchrone en pipeline : au lieu d'un thread par serveur qui
+ * attend chaque réponse avant d'envoyer le paquet suivant, chaque serveur a
+ * jusqu'à "profondeur" paquets en cours. Les réponses sont traitées par des
+ * callbacks de CompletableFuture qui relancent immédiatement un nouveau paquet,
+ * de sorte que le serveur n'attend pas l'aller-retour réseau entre deux paquets.
+ *
+ * Les appels RMI restant bloquants, chaque paquet en cours occupe un thread
+ * de l'exécuteur le temps de l'appel ; aucun thread n'est dédié à un serveur.
+ * Avec --threads=virtuels, ce sont des threads virtuels (voir FabriqueThreads).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class DispatchAsynchrone {
+
+	private Repartiteur rpt;                          // Répartiteur recevant les résultats
+	private TraceurPaquets traceur;                   // Trace du cycle de vie des paquets (null si pas de trace)
+	private ReservoirOperations reservoir;            // Réservoir des opérations à distribuer
+	private List<PipelineServeur> pipelines = new ArrayList<PipelineServeur>(); // Un pipeline par serveur
+	private int profondeur;                           // Nombre maximal de paquets en cours par serveur
+	private int nbrPaquetsEnCours = 0;                // Nombre total de paquets en cours
+	private ExecutorService executeur;                // Exécuteur des appels RMI bloquants
+	private CompletableFuture<Void> termine = new CompletableFuture<Void>(); // Complété quand plus aucun paquet n'est en cours
+
+	/**
+	 * Constructeur de la répartition asynchrone.
+	 * @param rpt répartiteur
+	 * @param listeNomServeur noms des serveurs
+	 * @param listeServeurInterface stubs des serveurs
+	 * @param profondeur nombre maximal de paquets en cours par serveur
+	 */
+	public DispatchAsynchrone(Repartiteur rpt, List<String> listeNomServeur, List<ServeurInterface> listeServeurInterface, int profondeur) {
+		this.rpt = rpt;
+		this.reservoir = rpt.getReservoir();
+		this.traceur = rpt.getTraceur();
+		this.profondeur = profondeur;
+
+		// Taille initiale des paquets : les opérations sont réparties sur tous les emplacements du pipeline
+		int nbrOperationsInitial = Math.max(1, rpt.getNbrOperationsInitial() / Math.max(1, listeNomServeur.size() * profondeur));
+
+		for (int i = 0; i < listeNomServeur.size(); i++) {
+			ConnexionServeur connexion = new ConnexionServeur(listeServeurInterface.get(i), rpt.getOptions().isCompact(), rpt.getMetriquesServeur(i));
+			TaillePaquet taillePaquet = new TaillePaquet(reservoir, i, nbrOperationsInitial, listeNomServeur.size() * profondeur);
+			pipelines.add(new PipelineServeur(listeNomServeur.get(i), i, connexion, taillePaquet));
+		}
+
+		this.executeur = rpt.getFabriqueThreads().creerExecuteur("dispatch-asynchrone");
+	}
+
+	/**
+	 * Remplit le pipeline de chaque serveur puis attend que toutes les opérations soient calculées
+	 * (ou que tous les serveurs soient déconnectés). En lecture en flux, les pipelines peuvent
+	 * se vider avant la fin de la lecture : ils sont relancés dès que des opérations sont ajoutées.
+	 */
+	public void executer() {
+		// Les paquets ne dépassent pas la capacité annoncée par chaque serveur
+		for (PipelineServeur pipeline : pipelines) {
+			try {
+				pipeline.taillePaquet.setCapacite(pipeline.connexion.capacite());
+			} catch (RemoteException e) {
+				System.out.println("Connexion perdue avec le serveur " + pipeline.nom);
+				rpt.serveurEnErreur();
+				pipeline.connecte = false;
+			}
+		}
+
+		while (true) {
+			synchronized (this) {
+				termine = new CompletableFuture<Void>();
+				relancerTous();
+				verifierFin();
+			}
+
+			termine.join();
+
+			if (!auMoinsUnConnecte() || !reservoir.attendreTravail())
+				break;
+		}
+
+		executeur.shutdown();
+	}
+
+	/**
+	 * Envoie des paquets au serveur tant que son pipeline n'est pas plein
+	 * et qu'il reste des opérations à distribuer.
+	 * @param pipeline pipeline du serveur
+	 */
+	private synchronized void remplir(final PipelineServeur pipeline) {
+		while (pipeline.connecte && pipeline.enCours < profondeur) {
+			final PaquetOperations operations = pipeline.taillePaquet.prendre();
+
+			if (operations == null)
+				return;
+
+			pipeline.enCours++;
+			nbrPaquetsEnCours++;
+			if (traceur != null) {
+				traceur.decoupe(pipeline.indice, operations);
+			}
+			final long debutEnvoi = System.nanoTime();
+
+			CompletableFuture.supplyAsync(() -> {
+				try {
+					return pipeline.connexion.calculPaquet(operations, rpt.getMultiplicites());
+				} catch (RemoteException e) {
+					throw new CompletionException(e);
+				}
+			}, executeur).whenComplete((resultat, erreur) -> reception(pipeline, operations, resultat, erreur, debutEnvoi));
+		}
+	}
+
+	/**
+	 * Callback de fin d'un appel distant. Enregistre le résultat ou remet les
+	 * opérations dans le réservoir, ajuste la taille des paquets
+	 * puis relance le pipeline.
+	 * @param pipeline pipeline du serveur
+	 * @param operations paquet envoyé
+	 * @param resultat résultat du serveur (-1 si refusé), null en cas d'erreur
+	 * @param erreur exception levée par l'appel, null si l'appel a abouti
+	 * @param debutEnvoi instant de l'envoi du paquet (System.nanoTime)
+	 */
+	private synchronized void reception(PipelineServeur pipeline, PaquetOperations operations, Integer resultat, Throwable erreur, long debutEnvoi) {
+		long dureeNanos = System.nanoTime() - debutEnvoi;
+		pipeline.enCours--;
+		nbrPaquetsEnCours--;
+
+		if (traceur != null) {
+			if (erreur != null) {
+				traceur.redistribue(pipeline.indice, operations.getNumero(), operations.taille());
+			} else {
+				traceur.calcul(pipeline.indice, operations.getNumero(), operations.taille(), debutEnvoi, resultat != -1);
+			}
+		}
+
+		if (erreur != null) {
+			// Seule la première erreur compte le serveur comme déconnecté
+			System.out.println("Connexion perdue avec le serveur " + pipeline.nom);
+			reservoir.rendre(operations);
+			if (pipeline.connecte) {
+				rpt.serveurEnErreur();
+			}
+			pipeline.connecte = false;
+			System.out.println("Redistribution du calcul...");
+			relancerTous();
+		} else if (resultat != -1) {
+			rpt.setResultat(resultat);
+			rpt.journaliser(operations, resultat);
+			reservoir.terminer(operations);
+			System.out.println("Resultat intermediaire du serveur " + pipeline.nom + " : " + resultat);
+			// Même augmentation de la taille des paquets que RunServeurImpl
+			pipeline.taillePaquet.accepte(operations, dureeNanos);
+			remplir(pipeline);
+		} else {
+			reservoir.rendre(operations);
+			pipeline.taillePaquet.refuse();
+			relancerTous();
+		}
+
+		verifierFin();
+	}
+
+	/**
+	 * Relance tous les pipelines, après que des opérations ont été remises dans le réservoir.
+	 */
+	private synchronized void relancerTous() {
+		for (PipelineServeur pipeline : pipelines) {
+			remplir(pipeline);
+		}
+	}
+
+	/**
+	 * @return true si au moins un serveur est encore connecté
+	 */
+	private synchronized boolean auMoinsUnConnecte() {
+		for (PipelineServeur pipeline : pipelines) {
+			if (pipeline.connecte)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Réveille executer lorsqu'il n'y a plus de paquet en cours : soit toutes les
+	 * opérations disponibles ont été calculées, soit plus aucun serveur n'est connecté.
+	 */
+	private synchronized void verifierFin() {
+		if (nbrPaquetsEnCours == 0) {
+			termine.complete(null);
+		}
+	}
+
+	/**
+	 * État du pipeline d'un serveur. Modifié uniquement sous le verrou de DispatchAsynchrone.
+	 */
+	private static class PipelineServeur {
+		private final String nom;                  // Nom du serveur
+		private final int indice;                  // Indice du serveur (piste de la trace)
+		private final ConnexionServeur connexion;  // Connexion vers le serveur
+		private final TaillePaquet taillePaquet;   // Taille des prochains paquets
+		private int enCours = 0;                   // Nombre de paquets en cours
+		private boolean connecte = true;           // false après une RemoteException
+
+		PipelineServeur(String nom, int indice, ConnexionServeur connexion, TaillePaquet taillePaquet) {
+			this.nom = nom;
+			this.indice = indice;
+			this.connexion = connexion;
+			this.taillePaquet = taillePaquet;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package tp2.repartiteur;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serveur membre du calcul : adresse de son registre, indice de son thread
+ * et disjoncteur de ses reconnexions (options --reessais et --surveillance).
+ *
+ * Après une perte de connexion, le circuit est ouvert : aucun paquet n'est
+ * envoyé au serveur avant un délai qui double à chaque échec (de 500 ms à
+ * 30 s). Le délai écoulé, un seul essai est fait (recherche dans le registre
+ * puis interrogation de la capacité) ; s'il réussit le circuit est refermé,
+ * sinon il est rouvert avec le délai suivant. Au-delà de nbrEssaisMax échecs
+ * consécutifs, le thread du serveur s'arrête ; la surveillance des membres
+ * peut le relancer plus tard, une fois le dernier délai écoulé.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class MembreServeur {
+
+	private static final long DELAI_INITIAL = TimeUnit.MILLISECONDS.toNanos(500); // Délai avant le premier essai
+	private static final long DELAI_MAX = TimeUnit.SECONDS.toNanos(30);           // Délai maximal entre deux essais
+
+	private final String nom;          // Nom du service dans le registre
+	private final String adresse;      // Adresse du registre
+	private final int port;            // Port du registre
+	private final int indice;          // Indice du serveur (file du réservoir, piste de la trace)
+	private final int nbrEssaisMax;    // Nombre d'essais de reconnexion avant l'arrêt du thread
+	private volatile boolean actif;    // true tant qu'un thread calcule pour ce serveur
+	private volatile int nbrThreads;   // Nombre de threads lancés pour ce serveur
+	private int nbrEchecs = 0;         // Échecs consécutifs (0 : circuit fermé)
+	private long delai = DELAI_INITIAL; // Délai avant le prochain essai après un échec
+	private long prochainEssai = 0;    // Instant du prochain essai permis (System.nanoTime)
+
+	/**
+	 * Constructeur d'un membre.
+	 * @param nom nom du service dans le registre
+	 * @param adresse adresse du registre
+	 * @param port port du registre
+	 * @param indice indice du serveur
+	 * @param nbrEssaisMax nombre d'essais de reconnexion avant l'arrêt du thread (0 : aucun)
+	 */
+	public MembreServeur(String nom, String adresse, int port, int indice, int nbrEssaisMax) {
+		this.nom = nom;
+		this.adresse = adresse;
+		this.port = port;
+		this.indice = indice;
+		this.nbrEssaisMax = nbrEssaisMax;
+	}
+
+	/**
+	 * Connexion établie : le circuit est refermé.
+	 */
+	public synchronized void succes() {
+		nbrEchecs = 0;
+		delai = DELAI_INITIAL;
+	}
+
+	/**
+	 * Échec de connexion : le circuit est ouvert jusqu'au prochain essai.
+	 * @return true si un nouvel essai est permis après getAttenteNanos, false si les essais sont épuisés
+	 */
+	public synchronized boolean echec() {
+		nbrEchecs++;
+		prochainEssai = System.nanoTime() + delai;
+		delai = Math.min(delai * 2, DELAI_MAX);
+		return nbrEchecs <= nbrEssaisMax;
+	}
+
+	/**
+	 * @return true si le circuit est fermé ou si le délai avant le prochain essai est écoulé
+	 */
+	public synchronized boolean essaiPermis() {
+		return nbrEchecs == 0 || System.nanoTime() - prochainEssai >= 0;
+	}
+
+	/**
+	 * @return temps restant avant le prochain essai, en nanosecondes
+	 */
+	public synchronized long getAttenteNanos() {
+		return nbrEchecs == 0 ? 0 : Math.max(0, prochainEssai - System.nanoTime());
+	}
+
+	/**
+	 * @param nom nom du service
+	 * @param adresse adresse du registre
+	 * @param port port du registre
+	 * @return true si ce membre désigne ce service
+	 */
+	public boolean designe(String nom, String adresse, int port) {
+		return this.nom.equals(nom) && this.adresse.equals(adresse) && this.port == port;
+	}
+
+	public boolean isActif() {
+		return actif;
+	}
+
+	/**
+	 * @param actif true au lancement d'un thread pour ce serveur, false à son arrêt
+	 */
+	public void setActif(boolean actif) {
+		this.actif = actif;
+		if (actif)
+			nbrThreads++;
+	}
+
+	public int getNbrThreads() {
+		return nbrThreads;
+	}
+
+	public String getNom() {
+		return nom;
+	}
+
+	public String getAdresse() {
+		return adresse;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public int getIndice() {
+		return indice;
+	}
+
+}
@@ -5,17 +5,31 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.rmi.AccessException;
 import java.rmi.NotBoundException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import tp2.shared.FabriqueThreads;
+import tp2.shared.FichierOperationsBinaire;
+import tp2.shared.JournalProgression;
+import tp2.shared.ExportMetriques;
+import tp2.shared.LecteurOperations;
+import tp2.shared.MetriquesRepartiteur;
+import tp2.shared.MetriquesServeurDistant;
+import tp2.shared.OptionsRepartiteur;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
 import tp2.shared.ServeurInterface;
+import tp2.shared.TableMultiplicites;
+import tp2.shared.TableOperations;
+import tp2.shared.TraceurPaquets;
 
 /**
  * Classe principale du répartiteur en mode sécurisé
@@ -26,16 +40,29 @@ public class Repartiteur {
 	private List<ServeurInterface> listeServeurInterface;               // Liste des serveurs que le répartiteur va utilisé
 	private List<String> listeNomServeur = new ArrayList<String>();     // Liste des noms des serveurs.
 	private List<Thread> listeServeurThread = new ArrayList<Thread>();  // Liste des Thread utilisés
-	private static HashMap<String, ArrayList<Integer>> listeOperations; // Liste des opérations à traiter 
-	private static int nbrOperations = 0;                               // Compteur d'opérations en cours. 
+	private static TableOperations listeOperations;                     // Liste des opérations à traiter 
+	private static String cheminFichierOperations;						// Fichier d'opérations (lu pendant le calcul en lecture en flux)
 	private static int nbrOperationsInitial = 0;						// Initialisé pendant l'appel de parseListeOperations 
-	private int resultatFinal = 0;										// Résultat final
-	private int nbrServeurConnecte = 0;									// Nombre de serveur disponible pour effectuer le calcul
+	private static TableMultiplicites multiplicites;					// Multiplicité des opérandes regroupés (null si pas de déduplication)
+	private OptionsRepartiteur options;									// Options facultatives du répartiteur
+	private ReservoirOperations reservoir;								// Réservoir des opérations à distribuer (sans verrou global)
+	private JournalProgression journal;									// Journal des paquets calculés (null si pas de journal)
+	private AtomicInteger resultatFinal = new AtomicInteger(0);			// Résultat final
+	private List<MembreServeur> listeMembres = new ArrayList<MembreServeur>(); // Adresse et disjoncteur de chaque serveur
+	private SurveillanceMembres surveillance;							// Ajout des serveurs en cours de calcul (null sans --surveillance)
+	private Phaser finServeurs = new Phaser(1) {						// Barrière de fin : un participant par thread serveur, plus le thread principal
+		protected boolean onAdvance(int phase, int nbrParticipants) {
+			return true;                                                // Une seule phase : plus aucun thread ne peut s'inscrire ensuite
+		}
+	};
+	private FabriqueThreads fabriqueThreads;							// Création des threads (classiques ou virtuels)
 	private int nbrServeurInitial = 0;									// Nombre de serveur initialement disponible lors du lancement du répartiteur
-	private int nbrServeurErreur = 0;									// Nombre de serveur en erreur (déconnecté)
-	private int nbrServeurOccupe = 0;									// Nombre de serveur occupé (à faire un calcul)
+	private AtomicInteger nbrServeurErreur = new AtomicInteger(0);		// Nombre de serveur en erreur (déconnecté)
 	private long tempsDebut = 0;										// Temps début du calcul
 	private long tempsFin = 0;											// Temps de fin de calcul.
+	private MetriquesRepartiteur metriques = new MetriquesRepartiteur("securise"); // Métriques publiées en JMX (et Prometheus avec --metriques)
+	private List<MetriquesServeurDistant> listeMetriquesServeur = new ArrayList<MetriquesServeurDistant>(); // Métriques de chaque serveur
+	private TraceurPaquets traceur;                                      // Trace du cycle de vie des paquets (null si pas de trace)
 	
 	/**
 	 * Constructeur du répartiteur. Va parser le fichier de configuration et
@@ -44,6 +71,18 @@ public class Repartiteur {
 	 *  
 	 *  */
 	public Repartiteur(String config_file_path) {
+		this(config_file_path, new OptionsRepartiteur());
+	}
+	
+	/**
+	 * Constructeur du répartiteur avec options facultatives.
+	 *  @param config_file_path fichier de configuration
+	 *  @param options options facultatives du répartiteur
+	 *  */
+	public Repartiteur(String config_file_path, OptionsRepartiteur options) {
+		
+		this.options = options;
+		this.fabriqueThreads = new FabriqueThreads(options.isThreadsVirtuels());
 		
 		if (System.getSecurityManager() == null) {
 			System.setSecurityManager(new SecurityManager());
@@ -52,6 +91,10 @@ public class Repartiteur {
 		//Initialisation de la liste des serveurs distants
 		this.listeServeurInterface = new ArrayList<ServeurInterface>();
 		
+		if (options.getTrace() != null) {
+			this.traceur = new TraceurPaquets(options.getTailleTrace());
+		}
+		
 		//Initialisation du compteur pour savoir le nombre de serveur chargé.
 		int i = 1;
 		
@@ -104,12 +147,25 @@ public class Repartiteur {
 		
 		//Après avoir chargé tous les stubs des serveurs, on crée un thread pour chaque serveur disponible.
 		for (int j = 0; j < i-1; j++){	
+			listeMetriquesServeur.add(metriques.ajouterServeur(listeNomServeur.get(j)));
+			
+			// Avec la surveillance, un serveur pas encore enregistré recevra son thread plus tard
+			if(options.getPeriodeSurveillance() > 0 && listeServeurInterface.get(j) == null){
+				continue;
+			}
+			
 			//On crée une instance de RunServeurImpl pour chaque serveur. 
 			//C'est cette classe qui aura la responsabilité de gérer la 
 			//reception des résultats du serveur auquel elle est rattachée.
-			this.listeServeurThread.add(new Thread(new RunServeurImpl(listeNomServeur.get(j), listeServeurInterface.get(j), this)));
+			listeMembres.get(j).setActif(true);
+			finServeurs.register();
+			this.listeServeurThread.add(fabriqueThreads.creer(listeNomServeur.get(j), new RunServeurImpl(listeNomServeur.get(j), j, listeServeurInterface.get(j), this)));
 			nbrServeurInitial++;
 		}
+		
+		if(options.getPeriodeSurveillance() > 0){
+			surveillance = new SurveillanceMembres(this, config_file_path);
+		}
 	}
 	
 	/**
@@ -119,30 +175,63 @@ public class Repartiteur {
 	private void run() {
 		
 		tempsDebut = System.nanoTime();  //Démarrage du timer de début de calcul
-		for (Thread thread : this.listeServeurThread){
-			thread.start();
-			nbrServeurConnecte++;
+		
+		// Les opérations sont réparties dans un réservoir avec une file par serveur
+		if(options.getCapaciteFlux() > 0)
+		{
+			// Lecture en flux : le réservoir est rempli au fil de la lecture du fichier
+			reservoir = new ReservoirOperations(listeNomServeur.size(), options.creerModeleCout(), options.getCapaciteFlux());
+			new LecteurOperations(cheminFichierOperations, reservoir, journal).demarrer();
+		}
+		else
+		{
+			reservoir = new ReservoirOperations(listeOperations, listeNomServeur.size(), options.creerModeleCout());
 		}
+		metriques.setReservoir(reservoir);
+		metriques.publier(options.getPortMetriques());
 		
-		// Tant qu'il existe un serveur connecté (voir condition dans les threads) 
-		// c'est qu'il y a toujours des calculs à faire et donc on bloque le thread principal.
-		while(nbrServeurConnecte !=0){
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				
-				e.printStackTrace();
+		// En mode pipeline, les serveurs sont alimentés de manière asynchrone 
+		// sans thread dédié, et on attend simplement la fin de la répartition.
+		if(options.getProfondeurPipeline() > 0){
+			new DispatchAsynchrone(this, listeNomServeur, listeServeurInterface, options.getProfondeurPipeline()).executer();
+		} else {
+			for (Thread thread : this.listeServeurThread){
+				thread.start();
+			}
+			if(surveillance != null){
+				surveillance.demarrer(options.getPeriodeSurveillance());
+			}
+			
+			// Tant qu'il existe un serveur connecté (voir condition dans les threads) 
+			// c'est qu'il y a toujours des calculs à faire et donc on bloque le thread principal,
+			// réveillé dès que le dernier thread se déconnecte.
+			finServeurs.arriveAndAwaitAdvance();
+			
+			if(surveillance != null){
+				surveillance.arreter();
 			}
 		}
 		
 		tempsFin = System.nanoTime();   //Fin du calcul
+		ExportMetriques.arreter();
+		ecrireTrace();
+		
+		if(journal != null)
+		{
+			journal.fermer();
+			System.out.println("Journal : " + journal.getNbrPaquets() + " paquets enregistrés");
+		}
 		
 		// Si tous les serveurs ont été déconnecté (serveur en erreur) lors la phase de 
 		// calcul, il est alors impossible qu'on soit parvenu au résultat
 		// final.
-		if(nbrServeurInitial != nbrServeurErreur)
+		if(reservoir.isAjoutsEchoues())
 		{
-			System.out.println("Resultat : " + resultatFinal);
+			System.out.println("Erreur: lecture du fichier d'opérations interrompue, pas de résultat");
+		}
+		else if(nbrServeurInitial != nbrServeurErreur.get())
+		{
+			System.out.println("Resultat : " + resultatFinal.get());
 			System.out.println("Temps necessaire au calcul : " + (tempsFin - tempsDebut));
 		}
 		else
@@ -177,6 +266,66 @@ public class Repartiteur {
 		return stub;
 	}
 	
+	/**
+	 * Recherche d'un serveur dans son registre, sans message d'erreur (surveillance et reconnexions).
+	 * 
+	 * @param hostname addresse du rmiregistry
+	 * @param port port de connexion du rmiregistry
+	 * @param nomServeur nom du service enregistré dans le rmiregistry
+	 * @return stub de type ServeurInterface, null si le serveur est injoignable ou pas enregistré
+	 */
+	static ServeurInterface rechercherServeur(String hostname, int port, String nomServeur) {
+		try {
+			Remote stub = LocateRegistry.getRegistry(hostname, port).lookup(nomServeur);
+			return stub instanceof ServeurInterface ? (ServeurInterface) stub : null;
+		} catch (NotBoundException e) {
+			return null;
+		} catch (RemoteException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Ajout d'un serveur au calcul en cours (voir SurveillanceMembres). Sans effet si
+	 * le serveur a déjà un thread, si son disjoncteur est ouvert ou s'il n'est pas
+	 * enregistré. Un serveur déjà connu reprend son indice.
+	 * 
+	 * @param nom nom du service enregistré dans le rmiregistry
+	 * @param adresse addresse du rmiregistry
+	 * @param port port de connexion du rmiregistry
+	 */
+	synchronized void rejoindre(String nom, String adresse, int port) {
+		MembreServeur membre = null;
+		for (MembreServeur m : listeMembres) {
+			if (m.designe(nom, adresse, port))
+				membre = m;
+		}
+		
+		if (membre != null && (membre.isActif() || !membre.essaiPermis()))
+			return;
+		
+		ServeurInterface stub = rechercherServeur(adresse, port, nom);
+		
+		// Le calcul est terminé dès que la barrière est franchie : plus aucun thread n'est ajouté
+		if (stub == null || finServeurs.register() < 0)
+			return;
+		
+		if (membre == null) {
+			membre = new MembreServeur(nom, adresse, port, listeMembres.size(), options.getNbrReessais());
+			listeMembres.add(membre);
+			listeNomServeur.add(nom);
+			listeServeurInterface.add(stub);
+			listeMetriquesServeur.add(metriques.ajouterServeur(nom));
+		} else {
+			listeServeurInterface.set(membre.getIndice(), stub);
+		}
+		System.out.println("Serveur " + nom + (membre.getNbrThreads() > 0 ? " réintégré au calcul" : " ajouté au calcul"));
+		
+		membre.setActif(true);
+		nbrServeurInitial++;
+		fabriqueThreads.creer(nom, new RunServeurImpl(nom, membre.getIndice(), stub, this)).start();
+	}
+	
 	/**
 	 * Parse du fichier de données à calculer. On récupère toutes les opérations 
 	 * dans une stucture type table de hachage avec caractéristiques suivantes.
@@ -186,37 +335,61 @@ public class Repartiteur {
 	 * De cette manière on pourrait imaginer pouvoir stocker n'importe quel type de calcul
 	 * simple de la forme Opérateur/Opérandes.
 	 * 
+	 * Avec la déduplication, seule la première occurrence de chaque couple
+	 * (opération, opérande) est conservée, les suivantes incrémentent sa multiplicité.
+	 * 
 	 * @param cheminFichierOperations chemin du fichier de configuration.
-	 * @return Table de hachage contenant toutes les opérations à effectuer
+	 * @param dedup regroupement des opérandes identiques
+	 * @return Table contenant toutes les opérations à effectuer
 	 * 
 	 */
-	private static HashMap<String, ArrayList<Integer>> parseListeOperations(String cheminFichierOperations){
+	private static TableOperations parseListeOperations(String cheminFichierOperations, boolean dedup){
+		
+		TableOperations list = new TableOperations();
+		int nbrLignes = 0;
 		
-		HashMap<String, ArrayList<Integer>> list = new HashMap<String, ArrayList<Integer>>();
+		if(dedup){
+			multiplicites = new TableMultiplicites();
+		}
 			
 		try {
-			BufferedReader buff = new BufferedReader( new FileReader(cheminFichierOperations));
+			// Fichier binaire (voir FichierOperationsBinaire) : les opérandes sont copiés en bloc, sans lecture de texte
+			if(FichierOperationsBinaire.estBinaire(cheminFichierOperations)){
+				FichierOperationsBinaire fichier = new FichierOperationsBinaire(cheminFichierOperations);
+				list = fichier.lire(multiplicites);
+				nbrLignes = (int) fichier.getNbrOperandes();
+				nbrOperationsInitial = list.getTaille();
+			} else {
+				BufferedReader buff = new BufferedReader( new FileReader(cheminFichierOperations));
 			
-			try {
-				String line;
-				String[] temp;
+				try {
+					String line;
+					String[] temp;
 				
-				while((line=buff.readLine()) != null){
-					temp = line.split(" ");
-					if(!list.containsKey(temp[0])){
-						list.put(temp[0], new ArrayList<Integer>());
+					while((line=buff.readLine()) != null){
+						temp = line.split(" ");
+						int operande = Integer.parseInt(temp[1]);
+						nbrLignes++;
+					
+						//Opérande déjà présent : seule sa multiplicité augmente
+						if(dedup && !multiplicites.ajouter(temp[0], operande)){
+							continue;
+						}
+						list.ajouter(temp[0], operande);
+						nbrOperationsInitial++;
 					}
-					list.get(temp[0]).add(Integer.parseInt(temp[1]));
-					nbrOperations++;
-					nbrOperationsInitial++;
+				} finally {
+					buff.close();
 				}
-			} finally {
-				buff.close();
 			}
 		} catch (IOException e) {
 			System.out.println("Erreur: " + e.getMessage());
 		} 
 		
+		if(dedup){
+			System.out.println("Déduplication : " + nbrOperationsInitial + " opérations distinctes sur " + nbrLignes);
+		}
+		
 		return list;
 	}
 	
@@ -234,6 +407,7 @@ public class Repartiteur {
 				if(isPortFormat(temp[2])){
 					listeServeurInterface.add(this.loadServerStub(temp[1],Integer.parseInt(temp[2]),temp[0]));
 					listeNomServeur.add(temp[0]);
+					listeMembres.add(new MembreServeur(temp[0], temp[1], Integer.parseInt(temp[2]), listeMembres.size(), options.getNbrReessais()));
 				} else {
 					return -3;
 				}
@@ -251,7 +425,7 @@ public class Repartiteur {
 	 * @param s chaine à analyser
 	 * @return boolean 
 	 */
-	private static boolean isServeurFormat(String s){
+	static boolean isServeurFormat(String s){
 		Pattern p = Pattern .compile("^[a-zA-Z0-9]*$");
 	    Matcher m = p.matcher(s);
 	
@@ -263,7 +437,7 @@ public class Repartiteur {
 	 * @param s chaine à analyser
 	 * @return boolean 
 	 */
-	private static boolean isAdresseFormat(String s){
+	static boolean isAdresseFormat(String s){
 		Pattern p = Pattern .compile("^^([0-9]{1,3}\\.){3}[0-9]{1,3}$");
 	    Matcher m = p.matcher(s);
 	
@@ -275,7 +449,7 @@ public class Repartiteur {
 	 * @param s chaine à analyser
 	 * @return boolean 
 	 */
-	private static boolean isPortFormat(String s){
+	static boolean isPortFormat(String s){
 	
 		int port = Integer.valueOf(s);
 		
@@ -288,7 +462,7 @@ public class Repartiteur {
 	/**
 	 * Méthode principal. Vérifie le nombre d'argument, initialise le répartiteur, récupère la liste d'opération et 
 	 * lance la méthode run.
-	 * @param args donnees_a_calculer + fichier de configuration du répartiteur.
+	 * @param args donnees_a_calculer + fichier de configuration du répartiteur + options facultatives (voir OptionsRepartiteur).
 	 */
 	public static void main(String[] args) {
 		
@@ -297,10 +471,32 @@ public class Repartiteur {
 		} else if (args.length == 1){
 			System.out.println("Veuillez rentrer un fichier de configuration");
 		} else {
+			OptionsRepartiteur options;
+			try {
+				options = OptionsRepartiteur.parse(args, 2);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Erreur: " + e.getMessage());
+				return;
+			}
+			
 			//Initialisation du répartiteur. On donne le fichier de configuration en paramètre.
-			Repartiteur repartiteur = new Repartiteur(args[1]);
+			Repartiteur repartiteur = new Repartiteur(args[1], options);
+			
+			cheminFichierOperations = args[0];
+			if(options.getCapaciteFlux() > 0)
+			{
+				// Nombre d'opérations inconnu avant la fin de la lecture : la taille initiale des paquets part d'un bloc
+				nbrOperationsInitial = LecteurOperations.TAILLE_BLOC;
+			}
+			else
+			{
+				listeOperations = parseListeOperations(args[0], options.isDedup());
+			}
 			
-			listeOperations = parseListeOperations(args[0]);
+			if(options.getJournal() != null && !repartiteur.ouvrirJournal(args[0]))
+			{
+				return;
+			}
 		
 			repartiteur.run();
 		}
@@ -308,110 +504,150 @@ public class Repartiteur {
 	}
 	
 	/**
-	 * 
-	 * @return int nombre d'Operation
+	 * Ouverture du journal de progression. En reprise, le résultat des paquets relus est
+	 * ajouté au résultat final et leurs opérations ne sont pas redistribuées.
+	 * @param cheminFichierOperations chemin du fichier d'opérations
+	 * @return false si le journal n'a pas pu être ouvert
 	 */
-	public synchronized int getNbrOperations() {
-		return nbrOperations;
+	private boolean ouvrirJournal(String cheminFichierOperations) {
+		try {
+			journal = new JournalProgression(options.getJournal(), 
+					JournalProgression.empreinte(cheminFichierOperations, options.isDedup()), options.isReprise());
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+			return false;
+		}
+		
+		if(options.isReprise())
+		{
+			setResultat(journal.getResultatRejoue());
+			// En lecture en flux, les opérations relues sont écartées bloc par bloc (voir LecteurOperations)
+			if(listeOperations != null)
+			{
+				nbrOperationsInitial -= journal.retirerTerminees(listeOperations);
+			}
+			System.out.println("Reprise : " + journal.getNbrPaquetsRejoues() + " paquets (" 
+					+ journal.getNbrOperationsRejouees() + " opérations) déjà calculés");
+		}
+		
+		return true;
 	}
 	
 	/**
-	 * getter sur nbrOperationsInitial. 
-	 * @return int nombre d'Operation
+	 * Ajoute un paquet calculé au journal de progression (sans effet sans journal).
+	 * @param operations paquet calculé
+	 * @param resultat résultat du paquet
 	 */
-	public synchronized int getNbrOperationsInitial() {
-		return nbrOperationsInitial;
+	public void journaliser(PaquetOperations operations, int resultat) {
+		if(journal != null)
+		{
+			journal.enregistrer(operations, resultat);
+		}
 	}
 	
 	/**
-	 * Décrémente la valeur de nbrServeurConnecte car un thread a été déconnecté. 
+	 * @return options facultatives du répartiteur
 	 */
-	public synchronized void deconnectThread() {
-		nbrServeurConnecte--;
+	public OptionsRepartiteur getOptions() {
+		return options;
 	}
 	
 	/**
-	 * Ajoute un résultat intermédiaire au résultat final. Méthode appelée depuis un thread
-	 * @param resultat
+	 * Écriture de la trace des paquets en fin de calcul (sans effet sans trace).
 	 */
-	public synchronized void setResultat(int resultat) {
-		nbrServeurOccupe--;
-		resultatFinal = (resultatFinal + resultat) % 5000;
+	private void ecrireTrace() {
+		if (traceur == null)
+			return;
+		
+		try {
+			traceur.ecrire(options.getTrace(), listeNomServeur);
+			System.out.println("Trace : " + traceur.getNbrEvenements() + " événements écrits dans " + options.getTrace()
+					+ (traceur.getNbrPerdus() > 0 ? " (" + traceur.getNbrPerdus() + " plus anciens écrasés, voir --trace-taille)" : ""));
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		}
 	}
 	
 	/**
-	 * Méthode visant à transéferer des opérations à faire calculer à un serveur
-	 * dans une structure similaire à la listeOperations du répartiteur.
-	 * 
-	 * @param i nombre d'opération a obtenir.
-	 * @return liste HashMap<String, ArrayList<Integer>> contenant les opérations obtenus depuis listeOperations.
+	 * Trace du cycle de vie des paquets.
+	 * @return traceur, null si la trace est désactivée
 	 */
-	public synchronized HashMap<String, ArrayList<Integer>> getOperations(int i){
-		
-		HashMap<String, ArrayList<Integer>> listeOp = new HashMap<String, ArrayList<Integer>>();
-		int compteur = 0;
-		boolean outLoop = false;
-		
-		//On parcours à priori toutes les clés
-		for(String currentKey : listeOperations.keySet()) {
-			//Utilisation d'un iterator pour pouvoir enlever des éléments en même temps qu'on parcout la liste.
-			Iterator<Integer> transferElement = listeOperations.get(currentKey).iterator();
-			
-			//On boucle tant qu'il existe un élément suivant dans la liste des opérandes liés à une opération 
-			while(transferElement.hasNext()){
-				if(compteur < i ){ 
-					if(!listeOp.containsKey(currentKey)){                      
-						listeOp.put(currentKey, new ArrayList<Integer>());
-					}
-					listeOp.get(currentKey).add((Integer) transferElement.next());
-					transferElement.remove();
-					
-					compteur++;
-					nbrOperations--;
-				} else {  //Si on le bon nombre d'opération dans listeOperations, alors on sort de la boucle.   
-					outLoop = true;
-					break;
-				}
-			}
-			if(outLoop){
-				break; //Arrive seulement si est passé dans le else précédent.
-			}
-		}
-		nbrServeurOccupe++;
-		return listeOp;
+	public TraceurPaquets getTraceur() {
+		return traceur;
 	}
 	
 	/**
-	 * Méthode visant à remettre des opérations dans la listeOperations général du répartiteur.
-	 * Peut arriver lorsqu'un serveur distant s'est déconnecté. dans ce cas ces opérations
-	 * doivent être redistribuées.
-	 * 
-	 * @param operations liste des opérations à remettre dans listeOperations
-	 * @param erreur si un serveur s'est déconnecté.
+	 * @return création des threads (classiques ou virtuels, voir --threads)
 	 */
-	public synchronized void resetOperations(HashMap<String, ArrayList<Integer>> operations, boolean erreur) 
-	{
-		for(String s : operations.keySet()){
-			for(Integer i : operations.get(s)){
-				listeOperations.get(s).add(i);
-				nbrOperations++;
-			}
-		}
-		
-		nbrServeurOccupe--;
-		
-		if(erreur)
-		{
-			nbrServeurErreur++;
-		}
+	public FabriqueThreads getFabriqueThreads() {
+		return fabriqueThreads;
+	}
+	
+	/**
+	 * Métriques d'un serveur, mises à jour par sa connexion (voir ConnexionServeur).
+	 * @param indice indice du serveur dans le fichier de configuration
+	 * @return métriques du serveur
+	 */
+	public synchronized MetriquesServeurDistant getMetriquesServeur(int indice) {
+		return listeMetriquesServeur.get(indice);
+	}
+	
+	/**
+	 * Table des multiplicités, en lecture seule une fois le fichier analysé.
+	 * @return multiplicités des opérandes, null si la déduplication est désactivée
+	 */
+	public TableMultiplicites getMultiplicites() {
+		return multiplicites;
+	}
+	
+	/**
+	 * Réservoir des opérations partagé par les threads, créé au lancement du répartiteur.
+	 * @return réservoir des opérations
+	 */
+	public ReservoirOperations getReservoir() {
+		return reservoir;
+	}
+	
+	/**
+	 * getter sur nbrOperationsInitial. 
+	 * @return int nombre d'Operation
+	 */
+	public synchronized int getNbrOperationsInitial() {
+		return nbrOperationsInitial;
+	}
+	
+	/**
+	 * Décompte un thread déconnecté. Le dernier réveille le thread principal. 
+	 * @param indice indice du serveur du thread, qui pourra être relancé par la surveillance
+	 */
+	public void deconnectThread(int indice) {
+		getMembre(indice).setActif(false);
+		finServeurs.arriveAndDeregister();
+	}
+	
+	/**
+	 * Serveur membre du calcul : adresse du registre et disjoncteur des reconnexions.
+	 * @param indice indice du serveur
+	 * @return membre
+	 */
+	public synchronized MembreServeur getMembre(int indice) {
+		return listeMembres.get(indice);
+	}
+	
+	/**
+	 * Ajoute un résultat intermédiaire au résultat final. Méthode appelée depuis un thread,
+	 * sans verrou (mise à jour atomique).
+	 * @param resultat
+	 */
+	public void setResultat(final int resultat) {
+		resultatFinal.accumulateAndGet(resultat, (total, r) -> (total + r) % 5000);
 	}
 	
 	/**
-	 * getter sur nbrServeurOccupe depuis les threads.
-	 * @return nbrServeurOccupe
+	 * Compte un serveur en erreur (déconnecté). Ses opérations ont été rendues au réservoir.
 	 */
-	public synchronized int getNbrServeurOccupe() {
-		return nbrServeurOccupe;
+	public void serveurEnErreur() {
+		nbrServeurErreur.incrementAndGet();
 	}
 	
 	/**
@@ -1,10 +1,13 @@
 package tp2.repartiteur;
 
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.HashMap;
 
+import tp2.shared.ConnexionServeur;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
 import tp2.shared.ServeurInterface;
+import tp2.shared.TaillePaquet;
+import tp2.shared.TraceurPaquets;
 
 /**
  * Classe runnable/ Thread utilisé pour chaque serveur. 
@@ -13,21 +16,28 @@ import tp2.shared.ServeurInterface;
  */
 public class RunServeurImpl implements Runnable {
 	private ServeurInterface serveurInterface;                          //Serveur sur lequel on récupère les données.
-	private HashMap<String, ArrayList<Integer>> listeOperationThread;   //Liste des opérations que le serveur distant est en train d'effectuer
-	private int nbrOperations;                                          //Nombre d'opération à effectuer
+	private PaquetOperations listeOperationThread;                      //Liste des opérations que le serveur distant est en train d'effectuer
+	private TaillePaquet taillePaquet;                                  //Taille des paquets envoyés au serveur
 	private Repartiteur rpt;                                            //Répartiteur sur lequel tourne le thread
 	private String nom;                                                 //Nom donnée au thread. Typiquement le répartiteur lui donne le même que le serveur auquel il est rattaché	
+	private ConnexionServeur connexion;                                 //Connexion choisissant le format d'envoi des paquets
+	private int indice;                                                 //Indice du thread, désigne sa file dans le réservoir d'opérations
+	private MembreServeur membre;                                       //Adresse du serveur et disjoncteur de ses reconnexions
 	/**
 	 * Constructeur du Thread
 	 * 
 	 * @param nomThread nom donnée au thread.  
+	 * @param indice indice du thread (file du réservoir d'opérations).
 	 * @param serveur Serveur rattaché.
 	 * @param rpt Référence du répartiteur qui a lancé le thread.
 	 */
-	public RunServeurImpl(String nomThread, ServeurInterface serveur, Repartiteur rpt) {
+	public RunServeurImpl(String nomThread, int indice, ServeurInterface serveur, Repartiteur rpt) {
 		this.nom = nomThread;
+		this.indice = indice;
 		this.serveurInterface = serveur;
 		this.rpt = rpt;
+		this.connexion = new ConnexionServeur(serveur, rpt.getOptions().isCompact(), rpt.getMetriquesServeur(indice));
+		this.membre = rpt.getMembre(indice);
 	}
 
 	/**
@@ -35,64 +45,149 @@ public class RunServeurImpl implements Runnable {
 	 */
 	public void run() {
 		
-		// Nombre de bloc initialement donné à calculer au serveur. 
-		nbrOperations = rpt.getNbrOperationsInitial()/rpt.getNbrServeurInitial();
+		ReservoirOperations reservoir = rpt.getReservoir();
+		TraceurPaquets traceur = rpt.getTraceur();
+		boolean reprise;
 		
-		try {
+		// Nombre de bloc initialement donné à calculer au serveur (ou part du coût total avec un modèle de coût). 
+		taillePaquet = new TaillePaquet(reservoir, indice, rpt.getNbrOperationsInitial()/rpt.getNbrServeurInitial(), rpt.getNbrServeurInitial());
+		
+		do {
+			reprise = false;
+			try {
+				
+				calculer(reservoir, traceur);
+				
+			} catch (RemoteException e) {                         //Si on perd la connexion, on remet les 
+				// e.printStackTrace();                           //opérations dans le réservoir du répartiteur
+				System.out.println("Connexion perdue");
+				if(traceur != null && listeOperationThread != null)
+				{
+					traceur.redistribue(indice, listeOperationThread.getNumero(), listeOperationThread.taille());
+				}
+				reservoir.rendre(listeOperationThread);
+				listeOperationThread = null;
+				System.out.println("Redistribution du calcul...");// Et on redistribue les calculs.
+				
+				// Le serveur n'est perdu qu'une fois les essais de reconnexion épuisés (--reessais)
+				reprise = reconnecter(reservoir);
+				if(!reprise)
+				{
+					rpt.serveurEnErreur();
+				}
+			} 
+		} while(reprise);
+		
+		System.out.println("Fin du thread");
+		rpt.deconnectThread(indice);                          // Enfin on décrémente le nombre de serveur connecté.
+	}
+	
+	/**
+	 * Envoie des paquets au serveur tant qu'il reste des opérations non terminées.
+	 * 
+	 * @param reservoir réservoir des opérations
+	 * @param traceur trace du cycle de vie des paquets, null si désactivée
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private void calculer(ReservoirOperations reservoir, TraceurPaquets traceur) throws RemoteException {
+		
+		// Les paquets ne dépassent pas la capacité annoncée par le serveur
+		taillePaquet.setCapacite(connexion.capacite());
+		membre.succes();
+		
+		// Tant qu'il reste des opérations non terminées. Si elles sont toutes en cours 
+		// de calcul sur d'autres serveurs, le thread est mis en attente jusqu'à ce que 
+		// des opérations soient rendues (refus, déconnexion) ou que tout soit terminé.
+		while(reservoir.attendreTravail()){
 			
-			do //Tant qu'il y a des serveurs occupés.
-			{
-				// Et tant qu'il y a des opérations à traiter
-				while(rpt.getNbrOperations() > 0){  
+				int resultatCalcul = -1;
 				
-						int resultatCalcul = -1;
-						
-						listeOperationThread = rpt.getOperations(nbrOperations);
-						
-						//Envoie la liste d'opération a calculer au serveur grace à la méthode accessible a distance.
-						resultatCalcul = serveurInterface.calculOperations(listeOperationThread);
-						
-						//Si on a accepté le calcul
-						if(resultatCalcul != -1)
-						{
-							//Alors on enregistre le résultat auprès du répartiteur.
-							rpt.setResultat(resultatCalcul);
-							System.out.println("Resultat intermediaire du serveur " + nom + " : " + resultatCalcul);
-							
-							//On gère le cas particulier ou le nbrOperations vaut 1
-							if(nbrOperations == 1)
-							{
-								nbrOperations++;
-							}
-							// Dans les autres cas on augmente la valeur 
-							// de nbrOperations de nbrOperations/2 pour simuler 
-							// le fait qu'on donne plus de calcul a faire à un serveur disponible.
-							else
-							{
-								nbrOperations = nbrOperations + nbrOperations/2;
-							}
-						}
-						//Sinon on doit remettre les opérations dans la liste d'opération du répartiteur.
-						else 
-						{
-							rpt.resetOperations(listeOperationThread, false);
-							listeOperationThread = null;
-							nbrOperations = nbrOperations/2; // On divise par 2 car on s'est vu refusé un calcul par 
-						}									 // manque de disponibilité.
+				listeOperationThread = taillePaquet.prendre();
+				
+				//Un autre thread a pris les dernières opérations disponibles
+				if(listeOperationThread == null)
+				{
+					continue;
+				}
+				
+				if(traceur != null)
+				{
+					traceur.decoupe(indice, listeOperationThread);
 				}
+				
+				//Envoie la liste d'opération a calculer au serveur grace à la méthode accessible a distance.
+				long debutEnvoi = System.nanoTime();
+				resultatCalcul = envoyerPaquet(listeOperationThread);
+				
+				if(traceur != null)
+				{
+					traceur.calcul(indice, listeOperationThread.getNumero(), listeOperationThread.taille(), debutEnvoi, resultatCalcul != -1);
+				}
+				
+				//Si on a accepté le calcul
+				if(resultatCalcul != -1)
+				{
+					//Alors on enregistre le résultat auprès du répartiteur.
+					rpt.setResultat(resultatCalcul);
+					rpt.journaliser(listeOperationThread, resultatCalcul);
+					reservoir.terminer(listeOperationThread);
+					System.out.println("Resultat intermediaire du serveur " + nom + " : " + resultatCalcul);
+					
+					// On augmente la taille des paquets pour simuler 
+					// le fait qu'on donne plus de calcul a faire à un serveur disponible.
+					taillePaquet.accepte(listeOperationThread, System.nanoTime() - debutEnvoi);
+				}
+				//Sinon on doit remettre les opérations dans le réservoir du répartiteur.
+				else 
+				{
+					reservoir.rendre(listeOperationThread);
+					// On divise par 2 car on s'est vu refusé un calcul par manque de disponibilité.
+					taillePaquet.refuse();
+				}
+				listeOperationThread = null;
+		}
+	}
+	
+	/**
+	 * Nouveaux essais de connexion après une perte de connexion, avec un délai qui
+	 * double à chaque échec (voir MembreServeur). Le serveur est recherché à nouveau
+	 * dans son registre : il a pu redémarrer avec un nouveau stub.
+	 * 
+	 * @param reservoir réservoir des opérations
+	 * @return true si le serveur est de nouveau joignable, false si les essais sont épuisés ou le calcul terminé
+	 */
+	private boolean reconnecter(ReservoirOperations reservoir) {
+		while(membre.echec())
+		{
+			System.out.println("Nouvel essai de connexion au serveur " + nom + " dans " + membre.getAttenteNanos() / 1000000 + " ms");
+			// Réveillé dès que le calcul est terminé par les autres serveurs
+			if(reservoir.attendreFin(membre.getAttenteNanos()))
+			{
+				return false;
 			}
-			while(rpt.getNbrServeurOccupe() > 0);
 			
-		} catch (RemoteException e) {                         //Si on perd la connexion, on remet les 
-			// e.printStackTrace();                           //opérations dans la liste globale du répartiteur
-			System.out.println("Connexion perdue");
-			rpt.resetOperations(listeOperationThread, true);
-			listeOperationThread = null;
-			System.out.println("Redistribution du calcul...");// Et on redistribue les calculs.
-		} 
-		
-		System.out.println("Fin du thread");
-		rpt.deconnectThread();                                // Enfin on décrémente le nombre de serveur connecté.
+			ServeurInterface serveur = Repartiteur.rechercherServeur(membre.getAdresse(), membre.getPort(), nom);
+			if(serveur != null)
+			{
+				// La capacité interrogée par calculer confirme la connexion, sinon nouvel échec
+				this.serveurInterface = serveur;
+				this.connexion = new ConnexionServeur(serveur, rpt.getOptions().isCompact(), rpt.getMetriquesServeur(indice));
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Envoie un paquet d'opérations au serveur rattaché (voir ConnexionServeur pour
+	 * le choix du format et la déduplication).
+	 * 
+	 * @param operations paquet d'opérations à calculer
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private int envoyerPaquet(PaquetOperations operations) throws RemoteException {
+		return connexion.calculPaquet(operations, rpt.getMultiplicites());
 	}
 
 }
@@ -0,0 +1,133 @@
+package tp2.repartiteur;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Surveillance des serveurs membres du calcul (option --surveillance=S).
+ *
+ * Toutes les S secondes, le fichier de configuration est relu et les registres
+ * qu'il cite sont interrogés (Registry.list) : un serveur ajouté au fichier,
+ * enregistré après le lancement du répartiteur, ou enregistré sous un nouveau
+ * nom dans un registre connu, reçoit un thread et participe au calcul en cours.
+ * Un serveur dont le thread s'est arrêté après des pertes de connexion est
+ * relancé dès que son disjoncteur le permet (voir MembreServeur).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class SurveillanceMembres implements Runnable {
+
+	private final Repartiteur rpt;           // Répartiteur auquel les serveurs sont ajoutés
+	private final String cheminConfig;       // Fichier de configuration relu à chaque passage
+	private ScheduledExecutorService executeur; // Exécution périodique de la surveillance
+
+	/**
+	 * Constructeur de la surveillance.
+	 * @param rpt répartiteur
+	 * @param cheminConfig fichier de configuration
+	 */
+	public SurveillanceMembres(Repartiteur rpt, String cheminConfig) {
+		this.rpt = rpt;
+		this.cheminConfig = cheminConfig;
+	}
+
+	/**
+	 * Démarrage de la surveillance sur un thread démon.
+	 * @param periode période de la surveillance, en secondes
+	 */
+	public void demarrer(int periode) {
+		executeur = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "surveillance-membres");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executeur.scheduleWithFixedDelay(this, periode, periode, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Arrêt de la surveillance, en fin de calcul.
+	 */
+	public void arreter() {
+		if (executeur != null) {
+			executeur.shutdownNow();
+		}
+	}
+
+	/**
+	 * Passage de la surveillance : fichier de configuration puis registres.
+	 */
+	public void run() {
+		// Une exception non rattrapée arrêterait les passages suivants
+		try {
+			Set<String> registres = new LinkedHashSet<String>();
+
+			for (String[] entree : lireConfiguration()) {
+				int port = Integer.parseInt(entree[2]);
+				registres.add(entree[1] + " " + entree[2]);
+				rpt.rejoindre(entree[0], entree[1], port);
+			}
+
+			for (String registre : registres) {
+				String[] temp = registre.split(" ");
+				String[] noms;
+				try {
+					noms = LocateRegistry.getRegistry(temp[0], Integer.parseInt(temp[1])).list();
+				} catch (RemoteException e) {
+					// Registre injoignable : les serveurs qu'il héberge le sont aussi
+					continue;
+				}
+				for (String nom : noms) {
+					if (Repartiteur.isServeurFormat(nom)) {
+						rpt.rejoindre(nom, temp[0], Integer.parseInt(temp[1]));
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			System.out.println("Erreur: surveillance des serveurs (" + e + ")");
+		}
+	}
+
+	/**
+	 * Lecture du fichier de configuration. Les lignes mal formées sont ignorées :
+	 * le fichier peut être en cours de modification.
+	 * @return entrées nom, adresse et port du fichier
+	 */
+	private List<String[]> lireConfiguration() {
+		List<String[]> entrees = new ArrayList<String[]>();
+
+		try {
+			BufferedReader buff = new BufferedReader(new FileReader(cheminConfig));
+			try {
+				String line;
+				while ((line = buff.readLine()) != null) {
+					String[] temp = line.split(" ");
+					if (temp.length >= 3 && Repartiteur.isServeurFormat(temp[0]) && Repartiteur.isAdresseFormat(temp[1])
+							&& temp[2].matches("^[0-9]{1,5}$") && Repartiteur.isPortFormat(temp[2])) {
+						entrees.add(temp);
+					}
+				}
+			} finally {
+				buff.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Erreur: le fichier de config n'a pas pu être relu");
+		}
+
+		return entrees;
+	}
+
+}
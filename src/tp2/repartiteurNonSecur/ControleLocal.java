@@ -0,0 +1,159 @@
+package tp2.repartiteurNonSecur;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tp2.shared.CribleFacteurs;
+import tp2.shared.OperationsRapides;
+
+/**
+ * Contrôle local des résultats en mode non sécurisé.
+ *
+ * Au lieu de faire recalculer chaque paquet par d'autres serveurs, le
+ * répartiteur recalcule lui même un échantillon des opérandes avec les noyaux
+ * rapides (OperationsRapides, CribleFacteurs) et compare avec le résultat
+ * renvoyé par le serveur pour chaque opérande. Un serveur pris en défaut
+ * devient suspect : tous les opérandes de ses paquets suivants sont contrôlés,
+ * et le paquet en défaut passe par la vérification par quorum.
+ *
+ * Les noyaux rapides donnent le même résultat que ceux de référence tant que
+ * fib ne déborde pas (opérande inférieur ou égal à FIB_MAX_CONTROLE) : au-delà,
+ * le résultat d'un serveur honnête ne peut pas être reproduit et l'opérande
+ * n'est pas contrôlé. Un paquet sans aucun opérande contrôlable est signalé
+ * NON_CONTROLABLE, pour être vérifié par quorum.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ControleLocal {
+
+	public static final int CORRECT = 0;           // Tous les opérandes contrôlés sont corrects
+	public static final int ERRONE = 1;            // Au moins un opérande contrôlé est faux
+	public static final int NON_CONTROLABLE = 2;   // Aucun opérande du paquet ne peut être recalculé localement
+
+	public static final int FIB_MAX_CONTROLE = 46; // Plus grand opérande de fib calculé sans débordement par les noyaux de référence
+
+	private final int tauxControle;                // Pourcentage des opérandes recalculés localement
+	private final CribleFacteurs crible = new CribleFacteurs(1 << 16, 1 << 24); // Crible agrandi à la demande
+	private final Set<String> serveursSuspects = ConcurrentHashMap.newKeySet(); // Serveurs pris en défaut
+	private final AtomicInteger nbrOperandesControles = new AtomicInteger(0);   // Nombre d'opérandes recalculés
+	private final AtomicInteger nbrEchecs = new AtomicInteger(0);               // Nombre de paquets en défaut
+
+	/**
+	 * Constructeur du contrôle local.
+	 * @param tauxControle pourcentage des opérandes recalculés localement
+	 */
+	public ControleLocal(int tauxControle) {
+		this.tauxControle = tauxControle;
+	}
+
+	/**
+	 * Contrôle les résultats d'un paquet. Au moins un opérande contrôlable est contrôlé par paquet.
+	 * @param nomServeur serveur ayant calculé le paquet
+	 * @param operations paquet d'opérations
+	 * @param resultats résultat de chaque opérande, de même structure que operations
+	 * @return CORRECT, ERRONE ou NON_CONTROLABLE
+	 */
+	public int verifier(String nomServeur, HashMap<String, ArrayList<Integer>> operations, HashMap<String, ArrayList<Integer>> resultats) {
+		int taux = serveursSuspects.contains(nomServeur) ? 100 : tauxControle;
+		ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+		boolean controle = false;
+		int nbrControlables = 0;
+		String operationTiree = null;
+		int indiceTire = -1;
+
+		for (String s : operations.keySet()) {
+			ArrayList<Integer> operandes = operations.get(s);
+			ArrayList<Integer> resultatsOperation = resultats.get(s);
+
+			for (int i = 0; i < operandes.size(); i++) {
+				if (!controlable(s, operandes.get(i))) {
+					continue;
+				}
+
+				// Tirage uniforme d'un opérande contrôlable, au cas où aucun ne serait tiré au sort
+				nbrControlables++;
+				if (aleatoire.nextInt(nbrControlables) == 0) {
+					operationTiree = s;
+					indiceTire = i;
+				}
+
+				if (aleatoire.nextInt(100) < taux) {
+					controle = true;
+					if (!controler(nomServeur, s, operandes.get(i), resultatsOperation.get(i))) {
+						return ERRONE;
+					}
+				}
+			}
+		}
+
+		if (nbrControlables == 0) {
+			return NON_CONTROLABLE;
+		}
+
+		// Aucun opérande tiré au sort : on contrôle celui tiré uniformément
+		if (!controle && !controler(nomServeur, operationTiree, operations.get(operationTiree).get(indiceTire), resultats.get(operationTiree).get(indiceTire))) {
+			return ERRONE;
+		}
+
+		return CORRECT;
+	}
+
+	/**
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @return true si les noyaux rapides reproduisent le résultat des noyaux de référence
+	 */
+	private static boolean controlable(String operation, int operande) {
+		return "prime".equals(operation) || ("fib".equals(operation) && operande <= FIB_MAX_CONTROLE);
+	}
+
+	/**
+	 * @return nombre d'opérandes recalculés localement
+	 */
+	public int getNbrOperandesControles() {
+		return nbrOperandesControles.get();
+	}
+
+	/**
+	 * @return nombre de paquets en défaut
+	 */
+	public int getNbrEchecs() {
+		return nbrEchecs.get();
+	}
+
+	/**
+	 * Recalcule un opérande et le compare au résultat du serveur.
+	 * @param nomServeur serveur ayant calculé l'opérande
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @param resultat résultat du serveur
+	 * @return true si le résultat est correct (opérande contrôlable, voir controlable)
+	 */
+	private boolean controler(String nomServeur, String operation, int operande, Integer resultat) {
+		int attendu;
+
+		if ("fib".equals(operation)) {
+			attendu = OperationsRapides.fib(operande);
+		} else {
+			attendu = crible.prime(operande) % OperationsRapides.MODULO;
+		}
+
+		nbrOperandesControles.incrementAndGet();
+
+		if (resultat == null || resultat != attendu) {
+			nbrEchecs.incrementAndGet();
+			if (serveursSuspects.add(nomServeur)) {
+				System.out.println("Le serveur " + nomServeur + " est suspect : tous ses paquets seront contrôlés");
+			}
+			return false;
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,324 @@
+package tp2.repartiteurNonSecur;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ordonnanceur des vérifications du mode non sécurisé.
+ *
+ * Chaque serveur a sa file des paquets qu'il peut encore vérifier : un paquet
+ * calculé par un serveur est placé dans la file de tous les autres. Un serveur
+ * prend sa prochaine vérification en tête de sa file au lieu de parcourir tous
+ * les paquets ; un paquet déjà vérifié est simplement écarté, et un paquet dont
+ * la vérification est déjà en cours sur assez de serveurs est mis de côté, puis
+ * remis dans la file de ce serveur si les résultats ne suffisent pas à le valider.
+ * Le nombre de paquets non vérifiés est tenu par un compteur.
+ *
+ * En vérification adaptative, le paquet d'un serveur fiable (voir ReputationServeurs)
+ * n'est vérifié qu'avec une probabilité tauxEchantillon, relevée si besoin pour
+ * respecter la borne d'erreur : sinon son résultat est accepté directement. Le tirage est fait une seule fois par paquet, dès que
+ * son serveur d'origine est fiable (à l'ajout, ou plus tard quand un serveur
+ * prend le paquet et que personne ne l'a encore vérifié). Les paquets des
+ * autres serveurs passent par le quorum, qui met à jour la réputation de
+ * chaque serveur ayant participé.
+ *
+ * Quand les serveurs renvoient le résultat de chaque opérande (option --detail),
+ * le quorum est atteint opérande par opérande (voir VotesOperandes) : les
+ * opérandes validés sont comptés aussitôt et le paquet n'est remis en
+ * vérification que pour ses opérandes en litige. Si tous les serveurs ont
+ * calculé un opérande sans atteindre le quorum, ses résultats sont effacés
+ * et il est recalculé par tous les serveurs.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class OrdonnanceurVerification {
+
+	private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Paquet>> files = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Paquet>>(); // File des vérifications de chaque serveur
+	private final AtomicInteger nbrNonVerifies = new AtomicInteger(0); // Nombre de paquets pas encore vérifiés
+	private final AtomicInteger nbrAcceptesSansVerification = new AtomicInteger(0); // Paquets de serveurs fiables non vérifiés
+	private final ReputationServeurs reputation; // Réputation des serveurs (null : vérification complète)
+	private final int tauxEchantillon;           // Pourcentage des paquets de serveurs fiables qui sont vérifiés
+	private final RepartiteurNonSecurise rpt;    // Répartiteur recevant les résultats acceptés sans vérification
+	private final ReentrantLock verrouAttente = new ReentrantLock(); // Verrou des serveurs en attente (sans moniteur, qui bloquerait le porteur d'un thread virtuel)
+	private final Condition nouvelleTache = verrouAttente.newCondition(); // Signalée à chaque vérification terminée
+
+	/**
+	 * Constructeur de l'ordonnanceur, avec vérification complète de tous les paquets.
+	 * @param rpt répartiteur
+	 * @param listeNomServeur noms des serveurs
+	 */
+	public OrdonnanceurVerification(RepartiteurNonSecurise rpt, List<String> listeNomServeur) {
+		this(rpt, listeNomServeur, null, 100);
+	}
+
+	/**
+	 * Constructeur de l'ordonnanceur.
+	 * @param rpt répartiteur
+	 * @param listeNomServeur noms des serveurs
+	 * @param reputation réputation des serveurs, null pour vérifier tous les paquets
+	 * @param tauxEchantillon pourcentage des paquets de serveurs fiables qui sont vérifiés
+	 */
+	public OrdonnanceurVerification(RepartiteurNonSecurise rpt, List<String> listeNomServeur, ReputationServeurs reputation, int tauxEchantillon) {
+		this.rpt = rpt;
+		this.reputation = reputation;
+		this.tauxEchantillon = tauxEchantillon;
+
+		for (String nom : listeNomServeur) {
+			files.put(nom, new ConcurrentLinkedQueue<Paquet>());
+		}
+	}
+
+	/**
+	 * Ajoute un paquet calculé par un serveur, à vérifier par les autres.
+	 * @param listeOperation opérations du paquet
+	 * @param nomServeur serveur ayant calculé le paquet
+	 * @param resultat résultat de ce serveur
+	 * @param resultatsDetail résultat de chaque opérande, null si la vérification porte sur la somme du paquet
+	 * @param nbrServeurConnecte nombre de serveurs connectés
+	 * @param numero numéro du paquet dans la trace (-1 : non tracé)
+	 * @return résultat validé si un seul résultat suffit au quorum (ou si le paquet est accepté sans vérification), -1 sinon
+	 */
+	public int ajouter(HashMap<String, ArrayList<Integer>> listeOperation, String nomServeur, int resultat, HashMap<String, ArrayList<Integer>> resultatsDetail, int nbrServeurConnecte, int numero) {
+		Paquet pqt;
+		int resultatFinal;
+
+		// Avec un ou deux serveurs connectés, un seul résultat atteint le quorum
+		if (resultatsDetail != null) {
+			pqt = new Paquet(listeOperation, new VotesOperandes(listeOperation));
+			pqt.setResultatDetail(nomServeur, resultat, resultatsDetail);
+			resultatFinal = pqt.resultatValideDetail(nbrServeurConnecte, rpt.getMultiplicites(), new HashMap<String, Boolean>());
+		} else {
+			pqt = new Paquet(listeOperation);
+			pqt.setResultat(nomServeur, resultat);
+			resultatFinal = pqt.resultatValide(nbrServeurConnecte);
+		}
+		pqt.setNumero(numero);
+		if (pqt.estVerifie()) {
+			return resultatFinal;
+		}
+
+		nbrNonVerifies.incrementAndGet();
+
+		// Paquet d'un serveur fiable hors échantillon : le résultat est accepté sans vérification
+		if (horsEchantillon(pqt)) {
+			return pqt.accepterSansVerification();
+		}
+
+		for (String nom : files.keySet()) {
+			if (!nom.equals(nomServeur)) {
+				files.get(nom).add(pqt);
+			}
+		}
+
+		reveiller();
+		return -1;
+	}
+
+	/**
+	 * Prochaine vérification d'un serveur. Le serveur est inscrit comme
+	 * étant en train de calculer le paquet renvoyé (les opérations à calculer
+	 * sont données par Paquet.getListeOperationPour).
+	 * @param nomServeur nom du serveur
+	 * @param nbrServeurConnecte nombre de serveurs connectés
+	 * @return paquet à vérifier, null s'il n'y en a pas pour l'instant
+	 */
+	public Paquet prendreTache(String nomServeur, int nbrServeurConnecte) {
+		ConcurrentLinkedQueue<Paquet> file = files.get(nomServeur);
+		Paquet pqt;
+
+		while ((pqt = file.poll()) != null) {
+			synchronized (pqt) {
+				if (pqt.estVerifie() || pqt.serveurDejaTraite(nomServeur)) {
+					continue;
+				}
+
+				// Le serveur d'origine est peut être devenu fiable depuis l'ajout du paquet
+				if (horsEchantillon(pqt)) {
+					int resultat = pqt.accepterSansVerification();
+					rpt.setResultat(resultat);
+					if (rpt.getTraceur() != null) {
+						rpt.getTraceur().verifie(-1, pqt.getNumero());
+					}
+					System.out.println("Paquet de valeur " + resultat + " accepté sans vérification");
+					continue;
+				}
+
+				// Assez de serveurs calculent déjà ce paquet : il sera remis dans la file si besoin
+				if (pqt.verificationEnCours(nbrServeurConnecte)) {
+					pqt.setServeurDiffere(nomServeur);
+					continue;
+				}
+
+				pqt.setServeurEnCours(nomServeur);
+				return pqt;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Enregistre le résultat d'une vérification.
+	 * @param pqt paquet vérifié
+	 * @param nomServeur serveur ayant fait la vérification
+	 * @param resultat résultat du serveur
+	 * @param resultatsDetail résultat de chaque opérande, null si la vérification porte sur la somme du paquet
+	 * @param nbrServeurConnecte nombre de serveurs connectés
+	 * @return résultat validé si le paquet (ou une partie de ses opérandes) vient d'être vérifié, -1 sinon
+	 */
+	public int terminerTache(Paquet pqt, String nomServeur, int resultat, HashMap<String, ArrayList<Integer>> resultatsDetail, int nbrServeurConnecte) {
+		synchronized (pqt) {
+			if (resultatsDetail != null) {
+				pqt.setResultatDetail(nomServeur, resultat, resultatsDetail);
+			} else {
+				pqt.setResultat(nomServeur, resultat);
+			}
+			pqt.delServeurEnCours(nomServeur);
+			return fermer(pqt, nbrServeurConnecte);
+		}
+	}
+
+	/**
+	 * Abandon d'une vérification (serveur déconnecté).
+	 * @param pqt paquet en cours de vérification (ignoré si null)
+	 * @param nomServeur serveur déconnecté
+	 * @param nbrServeurConnecte nombre de serveurs connectés
+	 * @return résultat validé si le paquet (ou une partie de ses opérandes) vient d'être vérifié, -1 sinon
+	 */
+	public int abandonnerTache(Paquet pqt, String nomServeur, int nbrServeurConnecte) {
+		if (pqt == null)
+			return -1;
+
+		synchronized (pqt) {
+			pqt.delServeurEnCours(nomServeur);
+			return fermer(pqt, nbrServeurConnecte);
+		}
+	}
+
+	/**
+	 * Met le serveur en attente d'une nouvelle vérification, au plus quelques millisecondes
+	 * (les opérations rendues au réservoir ne réveillent pas les serveurs en attente ici).
+	 */
+	public void attendre() {
+		verrouAttente.lock();
+		try {
+			nouvelleTache.await(10, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			verrouAttente.unlock();
+		}
+	}
+
+	/**
+	 * @return nombre de paquets pas encore vérifiés
+	 */
+	public int getNbrNonVerifies() {
+		return nbrNonVerifies.get();
+	}
+
+	/**
+	 * @return nombre de paquets de serveurs fiables acceptés sans vérification
+	 */
+	public int getNbrAcceptesSansVerification() {
+		return nbrAcceptesSansVerification.get();
+	}
+
+	/**
+	 * Tirage de l'échantillon de vérification d'un paquet (vérification adaptative).
+	 * Le tirage n'est fait qu'une fois, lorsque le serveur d'origine est fiable et
+	 * que personne n'a encore vérifié le paquet. Appelé sous le verrou du paquet.
+	 * @param pqt paquet
+	 * @return true si le paquet est accepté sans vérification (le compteur est alors mis à jour)
+	 */
+	private boolean horsEchantillon(Paquet pqt) {
+		if (reputation == null || !pqt.estSansReplique() || !reputation.estFiable(pqt.getServeurOrigine())) {
+			return false;
+		}
+
+		if (!pqt.tirerEchantillon() || ThreadLocalRandom.current().nextDouble() < reputation.getProbabiliteVerification(pqt.getServeurOrigine(), tauxEchantillon)) {
+			return false;
+		}
+
+		nbrNonVerifies.decrementAndGet();
+		nbrAcceptesSansVerification.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Valide le paquet (ou les opérandes ayant atteint le quorum) quand plus aucun
+	 * serveur ne le calcule ; s'il n'est pas entièrement vérifié, le paquet est remis
+	 * dans la file des serveurs mis de côté. Appelé sous le verrou du paquet.
+	 * @param pqt paquet
+	 * @param nbrServeurConnecte nombre de serveurs connectés
+	 * @return résultat validé si le paquet (ou une partie de ses opérandes) vient d'être vérifié, -1 sinon
+	 */
+	private int fermer(Paquet pqt, int nbrServeurConnecte) {
+		int resultatFinal = -1;
+		boolean verifie = false;
+
+		if (!pqt.hasServeursEnCours() && !pqt.estVerifie()) {
+			// Accord de chaque serveur avec le résultat validé
+			Map<String, Boolean> accords = new HashMap<String, Boolean>();
+
+			if (pqt.estDetail()) {
+				resultatFinal = pqt.resultatValideDetail(nbrServeurConnecte, rpt.getMultiplicites(), accords);
+			} else {
+				resultatFinal = pqt.resultatValide(nbrServeurConnecte);
+				if (resultatFinal != -1) {
+					Map<String, Integer> resultats = pqt.getResultatParServeur();
+					for (String nom : resultats.keySet()) {
+						accords.put(nom, resultats.get(nom) == resultatFinal);
+					}
+				}
+			}
+
+			verifie = pqt.estVerifie();
+			if (reputation != null) {
+				for (String nom : accords.keySet()) {
+					reputation.noter(nom, accords.get(nom));
+				}
+			}
+		}
+
+		if (verifie) {
+			nbrNonVerifies.decrementAndGet();
+		} else if (pqt.relancerLitiges(nbrServeurConnecte)) {
+			// Tous les serveurs ont calculé les opérandes en litige sans atteindre le quorum : ils sont recalculés par tous
+			pqt.retirerServeursDifferes();
+			for (ConcurrentLinkedQueue<Paquet> file : files.values()) {
+				file.add(pqt);
+			}
+		} else if (!pqt.estVerifie()) {
+			for (String nom : pqt.retirerServeursDifferes()) {
+				files.get(nom).add(pqt);
+			}
+		}
+
+		reveiller();
+		return resultatFinal;
+	}
+
+	/**
+	 * Réveille les serveurs en attente.
+	 */
+	private void reveiller() {
+		verrouAttente.lock();
+		try {
+			nouvelleTache.signalAll();
+		} finally {
+			verrouAttente.unlock();
+		}
+	}
+
+}
@@ -5,6 +5,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import tp2.shared.TableMultiplicites;
+
 /**
  * 
  * @author Enzo Laurent & Victor Pongnian
@@ -19,10 +21,22 @@ public class Paquet {
 	private List<String> listeServeurTraite = new ArrayList<String>();
 	// Liste des serveurs en train de faire le calcul
 	private List<String> listeServeurEnCours = new ArrayList<String>();
+	// Liste des serveurs ayant mis ce paquet de côté car sa vérification était déjà en cours
+	private List<String> listeServeurDiffere = new ArrayList<String>();
 	// Liste des résultats fournis par les serveurs avec le nombre de serveur ayant donné le même résultat
 	private Map<Integer, Integer> listeResultat = new HashMap<Integer, Integer>();
+	// Le tirage de l'échantillon de vérification a été fait (vérification adaptative)
+	private boolean echantillonTire = false;
+	// Résultat fourni par chaque serveur ayant fait ce calcul
+	private Map<String, Integer> resultatParServeur = new HashMap<String, Integer>();
+	// Résultats de chaque opérande par serveur (null si la vérification porte sur la somme du paquet)
+	private VotesOperandes votes;
+	// Indices des opérandes envoyés à chaque serveur en train de faire le calcul (vérification opérande par opérande)
+	private Map<String, HashMap<String, ArrayList<Integer>>> indicesParServeur = new HashMap<String, HashMap<String, ArrayList<Integer>>>();
 	// Liste des opérations
 	private HashMap<String, ArrayList<Integer>> listeOperation;	
+	// Numéro du paquet dans la trace (-1 : non tracé)
+	private int numero = -1;
 	
 	/**
 	 * Constructeur de Paquet
@@ -33,6 +47,30 @@ public class Paquet {
 		this.listeOperation = listeOperation;
 	}
 	
+	/**
+	 * Constructeur de Paquet vérifié opérande par opérande
+	 * @param listeOperation
+	 * @param votes résultats de chaque opérande par serveur
+	 */
+	public Paquet(HashMap<String, ArrayList<Integer>> listeOperation, VotesOperandes votes){
+		this(listeOperation);
+		this.votes = votes;
+	}
+	
+	/**
+	 * @return numéro du paquet dans la trace, -1 si le paquet n'est pas tracé
+	 */
+	public int getNumero() {
+		return numero;
+	}
+	
+	/**
+	 * @param numero numéro du paquet dans la trace (voir TraceurPaquets)
+	 */
+	public void setNumero(int numero) {
+		this.numero = numero;
+	}
+	
 	/**
 	 * Retourne si le paquet est vérifié ou pas
 	 * @return
@@ -67,6 +105,54 @@ public class Paquet {
 		return resultatValide;
 	}
 	
+	/**
+	 * Vérifie opérande par opérande si les résultats sont valides
+	 * Les opérandes ayant atteint le quorum sont validés, estVerifie est mis à true quand ils le sont tous
+	 * @param nbrServeurTotal, nombre de serveur connectés
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @param accords reçoit l'accord de chaque serveur avec le quorum sur les opérandes validés
+	 * @return somme des résultats des opérandes validés par cet appel, -1 si aucun
+	 */
+	public synchronized int resultatValideDetail(int nbrServeurTotal, TableMultiplicites multiplicites, Map<String, Boolean> accords){
+		
+		int seuilValide = (int) Math.ceil((float) nbrServeurTotal / 2);
+		int resultatValide = votes.valider(seuilValide, multiplicites, accords);
+		
+		if(votes.estValide())
+		{
+			estVerifie = true;
+		}
+		
+		return resultatValide;
+	}
+	
+	/**
+	 * Remet en litige les opérandes non validés alors que tous les serveurs ont fait le calcul :
+	 * leurs résultats sont effacés et tous les serveurs peuvent de nouveau les calculer
+	 * @param nbrServeurTotal, nombre de serveur connectés
+	 * @return true si les opérandes ont été remis en litige
+	 */
+	public synchronized boolean relancerLitiges(int nbrServeurTotal) {
+		if(votes == null || estVerifie || listeServeurTraite.size() < nbrServeurTotal || hasServeursEnCours())
+		{
+			return false;
+		}
+		
+		votes.effacerLitiges();
+		listeServeurTraite.clear();
+		listeResultat.clear();
+		resultatParServeur.clear();
+		return true;
+	}
+	
+	/**
+	 * Retourne true si le paquet est vérifié opérande par opérande
+	 * @return
+	 */
+	public synchronized boolean estDetail() {
+		return votes != null;
+	}
+	
 	/**
 	 * Renvoie true si le nomServeur fourni en paramètre a déjà calculé ce paquet d'opération
 	 * Sinon false
@@ -100,6 +186,7 @@ public class Paquet {
 		
 		//On peut ajouter nomServeur dans listeServeurTraite car setResultat vient après l'appel de serveurDejaTraite
 		listeServeurTraite.add(nomServeur);
+		resultatParServeur.put(nomServeur, resultat);
 		
 		if(!listeResultat.containsKey(resultat)){
 			listeResultat.put(resultat, 0);
@@ -108,12 +195,79 @@ public class Paquet {
 		listeResultat.put(resultat, listeResultat.get(resultat) + 1);
 	}
 	
+	/**
+	 * Ajoute le résultat de chaque opérande calculé par le serveur (voir getListeOperationPour)
+	 * @param nomServeur
+	 * @param resultat somme des résultats du serveur
+	 * @param resultats résultat de chaque opérande, de même structure que la liste d'opérations envoyée
+	 */
+	public synchronized void setResultatDetail(String nomServeur, int resultat, HashMap<String, ArrayList<Integer>> resultats){
+		
+		setResultat(nomServeur, resultat);
+		
+		HashMap<String, ArrayList<Integer>> indices = indicesParServeur.remove(nomServeur);
+		if(indices == null)
+		{
+			// Serveur d'origine : il a calculé tout le paquet
+			indices = votes.indicesEnLitige();
+		}
+		votes.voter(nomServeur, indices, resultats);
+	}
+	
+	/**
+	 * Retourne le nom du serveur ayant en premier fait le calcul et créé le paquet
+	 * @return
+	 */
+	public synchronized String getServeurOrigine() {
+		return listeServeurTraite.get(0);
+	}
+	
+	/**
+	 * Retourne true si aucun autre serveur que celui d'origine n'a fait ou ne fait ce calcul
+	 * @return
+	 */
+	public synchronized boolean estSansReplique() {
+		return listeServeurTraite.size() == 1 && listeServeurEnCours.isEmpty();
+	}
+	
+	/**
+	 * Retourne true la première fois seulement : le tirage de l'échantillon n'est fait qu'une fois par paquet
+	 * @return
+	 */
+	public synchronized boolean tirerEchantillon() {
+		boolean premierTirage = !echantillonTire;
+		echantillonTire = true;
+		return premierTirage;
+	}
+	
+	/**
+	 * Accepte le résultat du serveur d'origine sans vérification, le paquet est alors considéré vérifié
+	 * @return résultat du serveur d'origine
+	 */
+	public synchronized int accepterSansVerification() {
+		estVerifie = true;
+		return resultatParServeur.get(getServeurOrigine());
+	}
+	
+	/**
+	 * Retourne le résultat fourni par chaque serveur ayant fait ce calcul
+	 * @return
+	 */
+	public synchronized Map<String, Integer> getResultatParServeur() {
+		return new HashMap<String, Integer>(resultatParServeur);
+	}
+	
 	/**
 	 * Ajoute un serveur à liste des serveurs en train de faire le calcul
 	 * @param nomServeur
 	 */
 	public synchronized void setServeurEnCours(String nomServeur) {
 		listeServeurEnCours.add(nomServeur);
+		if(votes != null)
+		{
+			// Le serveur ne calculera que les opérandes encore en litige
+			indicesParServeur.put(nomServeur, votes.indicesEnLitige());
+		}
 	}
 	
 	/**
@@ -122,6 +276,25 @@ public class Paquet {
 	 */
 	public synchronized void delServeurEnCours(String nomServeur) {
 		listeServeurEnCours.remove(nomServeur);
+		indicesParServeur.remove(nomServeur);
+	}
+	
+	/**
+	 * Ajoute un serveur à la liste des serveurs ayant mis ce paquet de côté
+	 * @param nomServeur
+	 */
+	public synchronized void setServeurDiffere(String nomServeur) {
+		listeServeurDiffere.add(nomServeur);
+	}
+	
+	/**
+	 * Retourne et vide la liste des serveurs ayant mis ce paquet de côté
+	 * @return
+	 */
+	public synchronized List<String> retirerServeursDifferes() {
+		List<String> serveurs = listeServeurDiffere;
+		listeServeurDiffere = new ArrayList<String>();
+		return serveurs;
 	}
 	
 	/**
@@ -149,6 +322,20 @@ public class Paquet {
 		return listeOperation;
 	}
 	
+	/**
+	 * Retourne la liste d'opération à calculer par un serveur en train de faire le calcul :
+	 * tout le paquet, ou seulement les opérandes en litige quand il est vérifié opérande par opérande
+	 * @param nomServeur
+	 * @return
+	 */
+	public synchronized HashMap<String, ArrayList<Integer>> getListeOperationPour(String nomServeur) {
+		if(votes == null)
+		{
+			return listeOperation;
+		}
+		return votes.sousPaquet(indicesParServeur.get(nomServeur));
+	}
+	
 	/**
 	 * Retourne true si il y a plus de 50% des serveurs qui ont déjà ou qui sont en train de faire le calcul ET si des serveurs sont en train de faire le calcul
 	 * Cela veut dire que ce paquet est potentiellement vérifiable, ca ne sert à rien qu'un serveur commence le calcul 
@@ -9,14 +9,24 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import tp2.shared.FabriqueThreads;
+import tp2.shared.FichierOperationsBinaire;
+import tp2.shared.ExportMetriques;
+import tp2.shared.LecteurOperations;
+import tp2.shared.MetriquesRepartiteur;
+import tp2.shared.MetriquesServeurDistant;
+import tp2.shared.OptionsRepartiteur;
+import tp2.shared.ReservoirOperations;
 import tp2.shared.ServeurInterface;
+import tp2.shared.TableMultiplicites;
+import tp2.shared.TableOperations;
+import tp2.shared.TraceurPaquets;
 
 /**
  * Classe principale du répartiteur en mode non sécurisé
@@ -27,17 +37,25 @@ public class RepartiteurNonSecurise {
 	private List<ServeurInterface> listeServeurInterface; 					// Liste des serveurs que le répartiteur va utilisé
 	private List<String> listeNomServeur = new ArrayList<String>(); 		// Liste des noms de serveurs
 	private List<Thread> listeServeurThread = new ArrayList<Thread>(); 		// Liste des Thread utilisés
-	private static HashMap<String, ArrayList<Integer>> listeOperations; 	// Liste initiale des opérations à traiter
-	private static int nbrOperations = 0;									// Compteur d'opérations à traiter en cours
+	private static TableOperations listeOperations; 						// Liste initiale des opérations à traiter
+	private static String cheminFichierOperations;						// Fichier d'opérations (lu pendant le calcul en lecture en flux)
 	private static int nbrOperationsInitial = 0;							// Compteur d'opération à traiter initial
-	private List<Paquet> listPaquet = new CopyOnWriteArrayList<Paquet>();	// Liste des paquets d'opérations à traiter et à vérifier, CopyOnWriteArrayList permet d'etre en ThreadSafe
-	private int resultatFinal = 0;  										// Résultat final
-	private int nbrServeurConnecte = 0;										// Nombre de serveur disponible pour effectuer le calcul
+	private static TableMultiplicites multiplicites;						// Multiplicité des opérandes regroupés (null si pas de déduplication)
+	private OptionsRepartiteur options;										// Options facultatives du répartiteur
+	private OrdonnanceurVerification ordonnanceur;							// Ordonnanceur des paquets d'opérations à vérifier
+	private ControleLocal controleLocal;									// Contrôle local des résultats (null si vérification par les serveurs)
+	private ReservoirOperations reservoir;									// Réservoir des opérations à traiter (sans verrou global)
+	private AtomicInteger resultatFinal = new AtomicInteger(0);				// Résultat final
+	private CountDownLatch finServeurs;										// Serveurs connectés, barrière de fin décomptée à la déconnexion de chaque thread
+	private FabriqueThreads fabriqueThreads;								// Création des threads (classiques ou virtuels)
 	private int nbrServeurInitial = 0;										// Nombre de serveur initialement disponible lors du lancement du répartiteur
-	private int nbrServeurErreur = 0;										// Nombre de serveur en erreur (déconnecté)
-	private int nbrServeurOccupe = 0;										// Nombre de serveur occupé (à faire un calcul)
+	private AtomicInteger nbrServeurErreur = new AtomicInteger(0);			// Nombre de serveur en erreur (déconnecté)
+	private AtomicInteger nbrServeurOccupe = new AtomicInteger(0);			// Nombre de serveur occupé (à faire un calcul)
 	private long tempsDebut = 0;											// Temps début du calcul
 	private long tempsFin = 0;												// Temps de fin de calcul.
+	private MetriquesRepartiteur metriques = new MetriquesRepartiteur("nonsecurise"); // Métriques publiées en JMX (et Prometheus avec --metriques)
+	private List<MetriquesServeurDistant> listeMetriquesServeur = new ArrayList<MetriquesServeurDistant>(); // Métriques de chaque serveur
+	private TraceurPaquets traceur;                                      // Trace du cycle de vie des paquets (null si pas de trace)
 	
 	/**
 	 * Constructeur du répartiteur. Va parser le fichier de configuration et
@@ -46,8 +64,20 @@ public class RepartiteurNonSecurise {
 	 *  
 	 *  */
 	public RepartiteurNonSecurise(String config_file_path) {
+		this(config_file_path, new OptionsRepartiteur());
+	}
+	
+	/**
+	 * Constructeur du répartiteur avec options facultatives.
+	 *  @param config_file_path fichier de configuration
+	 *  @param options options facultatives du répartiteur
+	 *  */
+	public RepartiteurNonSecurise(String config_file_path, OptionsRepartiteur options) {
 		super(); 
 		
+		this.options = options;
+		this.fabriqueThreads = new FabriqueThreads(options.isThreadsVirtuels());
+		
 		if (System.getSecurityManager() == null) {
 			System.setSecurityManager(new SecurityManager());
 		}
@@ -55,6 +85,10 @@ public class RepartiteurNonSecurise {
 		//Initialisation de la liste des serveurs distants
 		this.listeServeurInterface = new ArrayList<ServeurInterface>();
 		
+		if (options.getTrace() != null) {
+			this.traceur = new TraceurPaquets(options.getTailleTrace());
+		}
+		
 		//Initialisation du compteur pour savoir le nombre de serveur chargé.
 		int i = 1;
 		
@@ -110,9 +144,11 @@ public class RepartiteurNonSecurise {
 			//On crée une instance de RunServeurImpl pour chaque serveur. 
 			//C'est cette classe qui aura la responsabilité de gérer la 
 			//reception des résultats du serveur auquel elle est rattachée.
-			this.listeServeurThread.add(new Thread(new RunServeurNonSecuriseImpl(listeNomServeur.get(j), listeServeurInterface.get(j), this)));
+			listeMetriquesServeur.add(metriques.ajouterServeur(listeNomServeur.get(j)));
+			this.listeServeurThread.add(fabriqueThreads.creer(listeNomServeur.get(j), new RunServeurNonSecuriseImpl(listeNomServeur.get(j), j, listeServeurInterface.get(j), this)));
 			nbrServeurInitial++;
 		}
+		finServeurs = new CountDownLatch(listeServeurThread.size());
 	}
 
 	/**
@@ -122,31 +158,64 @@ public class RepartiteurNonSecurise {
 	private void run() {
 		
 		tempsDebut = System.nanoTime(); //Démarrage du timer de début de calcul
+		
+		// Les opérations sont réparties dans un réservoir avec une file par serveur
+		if(options.getCapaciteFlux() > 0)
+		{
+			// Lecture en flux : le réservoir est rempli au fil de la lecture du fichier
+			reservoir = new ReservoirOperations(listeNomServeur.size(), options.creerModeleCout(), options.getCapaciteFlux());
+			new LecteurOperations(cheminFichierOperations, reservoir, null).demarrer();
+		}
+		else
+		{
+			reservoir = new ReservoirOperations(listeOperations, listeNomServeur.size(), options.creerModeleCout());
+		}
+		// Les paquets calculés sont vérifiés par les autres serveurs, chacun ayant sa file de vérifications
+		ordonnanceur = new OrdonnanceurVerification(this, listeNomServeur,
+				options.isVerificationAdaptative() ? new ReputationServeurs(options.getErreurMax()) : null, options.getTauxEchantillon());
+		if (options.isControleLocal()) {
+			controleLocal = new ControleLocal(options.getTauxControle());
+		}
+		metriques.setReservoir(reservoir);
+		metriques.setArriereVerification(ordonnanceur::getNbrNonVerifies);
+		metriques.publier(options.getPortMetriques());
+		
 		for (Thread thread : this.listeServeurThread){
 			thread.start();
-			nbrServeurConnecte++;
 		}
 
 		// Tant qu'il existe un serveur connecté (voir condition dans les threads) 
-		// c'est qu'il y a toujours des calculs à faire et donc on bloque le thread principal.
-		while(nbrServeurConnecte !=0){
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		// c'est qu'il y a toujours des calculs à faire et donc on bloque le thread principal,
+		// réveillé dès que le dernier thread se déconnecte.
+		try {
+			finServeurs.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		
 		tempsFin = System.nanoTime(); //Fin du calcul
+		ExportMetriques.arreter();
+		ecrireTrace();
 		
 		// Si tous les serveurs ont été déconnecté (serveur en erreur) lors la phase de 
 		// calcul, il est alors impossible qu'on soit parvenu au résultat
 		// final.
-		if(nbrServeurInitial != nbrServeurErreur)
+		if(reservoir.isAjoutsEchoues())
 		{
-			System.out.println("Resultat : " + resultatFinal);
+			System.out.println("Erreur: lecture du fichier d'opérations interrompue, pas de résultat");
+		}
+		else if(nbrServeurInitial != nbrServeurErreur.get())
+		{
+			System.out.println("Resultat : " + resultatFinal.get());
 			System.out.println("Temps necessaire au calcul : " + (tempsFin - tempsDebut) + " ns");
+			if(options.isVerificationAdaptative())
+			{
+				System.out.println("Paquets acceptés sans vérification : " + ordonnanceur.getNbrAcceptesSansVerification());
+			}
+			if(controleLocal != null)
+			{
+				System.out.println("Opérandes contrôlés localement : " + controleLocal.getNbrOperandesControles() + ", paquets en défaut : " + controleLocal.getNbrEchecs());
+			}
 		}
 		else
 		{
@@ -190,37 +259,61 @@ public class RepartiteurNonSecurise {
 	 * De cette manière on pourrait imaginer pouvoir stocker n'importe quel type de calcul
 	 * simple de la forme Opérateur/Opérandes.
 	 * 
+	 * Avec la déduplication, seule la première occurrence de chaque couple
+	 * (opération, opérande) est conservée, les suivantes incrémentent sa multiplicité.
+	 * 
 	 * @param cheminFichierOperations chemin du fichier de configuration.
-	 * @return Table de hachage contenant toutes les opérations à effectuer
+	 * @param dedup regroupement des opérandes identiques
+	 * @return Table contenant toutes les opérations à effectuer
 	 * 
 	 */
-	private static HashMap<String, ArrayList<Integer>> parseListeOperations(String cheminFichierOperations){
+	private static TableOperations parseListeOperations(String cheminFichierOperations, boolean dedup){
+		
+		TableOperations list = new TableOperations();
+		int nbrLignes = 0;
 		
-		HashMap<String, ArrayList<Integer>> list = new HashMap<String, ArrayList<Integer>>();
+		if(dedup){
+			multiplicites = new TableMultiplicites();
+		}
 			
 		try {
-			BufferedReader buff = new BufferedReader( new FileReader(cheminFichierOperations));
+			// Fichier binaire (voir FichierOperationsBinaire) : les opérandes sont copiés en bloc, sans lecture de texte
+			if(FichierOperationsBinaire.estBinaire(cheminFichierOperations)){
+				FichierOperationsBinaire fichier = new FichierOperationsBinaire(cheminFichierOperations);
+				list = fichier.lire(multiplicites);
+				nbrLignes = (int) fichier.getNbrOperandes();
+				nbrOperationsInitial = list.getTaille();
+			} else {
+				BufferedReader buff = new BufferedReader( new FileReader(cheminFichierOperations));
 			
-			try {
-				String line;
-				String[] temp;
+				try {
+					String line;
+					String[] temp;
 				
-				while((line=buff.readLine()) != null){
-					temp = line.split(" ");
-					if(!list.containsKey(temp[0])){
-						list.put(temp[0], new ArrayList<Integer>());
+					while((line=buff.readLine()) != null){
+						temp = line.split(" ");
+						int operande = Integer.parseInt(temp[1]);
+						nbrLignes++;
+					
+						//Opérande déjà présent : seule sa multiplicité augmente
+						if(dedup && !multiplicites.ajouter(temp[0], operande)){
+							continue;
+						}
+						list.ajouter(temp[0], operande);
+						nbrOperationsInitial++;
 					}
-					list.get(temp[0]).add(Integer.parseInt(temp[1]));
-					nbrOperations++;
-					nbrOperationsInitial++;
+				} finally {
+					buff.close();
 				}
-			} finally {
-				buff.close();
 			}
 		} catch (IOException e) {
 			System.out.println("Erreur: " + e.getMessage());
 		} 
 		
+		if(dedup){
+			System.out.println("Déduplication : " + nbrOperationsInitial + " opérations distinctes sur " + nbrLignes);
+		}
+		
 		return list;
 	}
 
@@ -292,7 +385,7 @@ public class RepartiteurNonSecurise {
 	/**
 	 * Méthode principal. Vérifie le nombre d'argument, initialise le répartiteur, récupère la liste d'opération et 
 	 * lance la méthode run.
-	 * @param args donnees_a_calculer + fichier de configuration du répartiteur.
+	 * @param args donnees_a_calculer + fichier de configuration du répartiteur + options facultatives (voir OptionsRepartiteur).
 	 */
 	public static void main(String[] args) {
 		
@@ -301,10 +394,27 @@ public class RepartiteurNonSecurise {
 		} else if (args.length == 1){
 			System.out.println("Veuillez rentrer un fichier de configuration");
 		} else {
+			OptionsRepartiteur options;
+			try {
+				options = OptionsRepartiteur.parse(args, 2);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Erreur: " + e.getMessage());
+				return;
+			}
+			
 			//Initialisation du répartiteur. On donne le fichier de configuration en paramètre.
-			RepartiteurNonSecurise repartiteur = new RepartiteurNonSecurise(args[1]);
+			RepartiteurNonSecurise repartiteur = new RepartiteurNonSecurise(args[1], options);
 			
-			listeOperations = parseListeOperations(args[0]);
+			cheminFichierOperations = args[0];
+			if(options.getCapaciteFlux() > 0)
+			{
+				// Nombre d'opérations inconnu avant la fin de la lecture : la taille initiale des paquets part d'un bloc
+				nbrOperationsInitial = LecteurOperations.TAILLE_BLOC;
+			}
+			else
+			{
+				listeOperations = parseListeOperations(args[0], options.isDedup());
+			}
 		
 			repartiteur.run();
 		}
@@ -312,11 +422,59 @@ public class RepartiteurNonSecurise {
 	}
 
 	/**
-	 * 
-	 * @return int nombre d'Operation
+	 * @return options facultatives du répartiteur
+	 */
+	public OptionsRepartiteur getOptions() {
+		return options;
+	}
+	
+	/**
+	 * Écriture de la trace des paquets en fin de calcul (sans effet sans trace).
+	 */
+	private void ecrireTrace() {
+		if (traceur == null)
+			return;
+		
+		try {
+			traceur.ecrire(options.getTrace(), listeNomServeur);
+			System.out.println("Trace : " + traceur.getNbrEvenements() + " événements écrits dans " + options.getTrace()
+					+ (traceur.getNbrPerdus() > 0 ? " (" + traceur.getNbrPerdus() + " plus anciens écrasés, voir --trace-taille)" : ""));
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Trace du cycle de vie des paquets.
+	 * @return traceur, null si la trace est désactivée
+	 */
+	public TraceurPaquets getTraceur() {
+		return traceur;
+	}
+	
+	/**
+	 * Métriques d'un serveur, mises à jour par sa connexion (voir ConnexionServeur).
+	 * @param indice indice du serveur dans le fichier de configuration
+	 * @return métriques du serveur
 	 */
-	public synchronized int getNbrOperations() {
-		return nbrOperations;
+	public MetriquesServeurDistant getMetriquesServeur(int indice) {
+		return listeMetriquesServeur.get(indice);
+	}
+	
+	/**
+	 * Table des multiplicités, en lecture seule une fois le fichier analysé.
+	 * @return multiplicités des opérandes, null si la déduplication est désactivée
+	 */
+	public TableMultiplicites getMultiplicites() {
+		return multiplicites;
+	}
+	
+	/**
+	 * Réservoir des opérations partagé par les threads, créé au lancement du répartiteur.
+	 * @return réservoir des opérations
+	 */
+	public ReservoirOperations getReservoir() {
+		return reservoir;
 	}
 	
 	/**
@@ -328,108 +486,48 @@ public class RepartiteurNonSecurise {
 	}
 	
 	/**
-	 * Décrémente nbrServeurConnecte, est appelé lors de la déconnexion d'un Thread
+	 * Décompte un thread déconnecté. Le dernier réveille le thread principal.
 	 */
-	public synchronized void deconnectThread() {
-		nbrServeurConnecte--;
+	public void deconnectThread() {
+		finServeurs.countDown();
 	}
 	
 	/**
-	 * Ajoute un résultat intermédiaire vérifié au résultat final. Méthode appelée depuis un thread
+	 * Ajoute un résultat intermédiaire vérifié au résultat final. Méthode appelée depuis un thread,
+	 * sans verrou (mise à jour atomique).
 	 * @param resultat
 	 */
-	public synchronized void setResultat(int resultat) {
-		resultatFinal = (resultatFinal + resultat) % 5000;
+	public void setResultat(final int resultat) {
+		resultatFinal.accumulateAndGet(resultat, (total, r) -> (total + r) % 5000);
 	}
 	
 	/**
-	 * Méthode visant à transéferer un nombre d'opération à faire calculer à un serveur
-	 * dans une structure similaire à la listeOperations du répartiteur.
-	 * 
-	 * @param i nombre d'opération a obtenir.
-	 * @return liste HashMap<String, ArrayList<Integer>> contenant les opérations obtenus depuis listeOperations.
+	 * Compte un serveur en erreur (déconnecté). Ses opérations ont été rendues au réservoir.
 	 */
-	public synchronized HashMap<String, ArrayList<Integer>> getOperations(int i){
-		
-		HashMap<String, ArrayList<Integer>> listeOp = new HashMap<String, ArrayList<Integer>>();
-		int compteur = 0;
-		boolean outLoop = false;
-		
-		// On parcourt à priori toutes les clés
-		for(String currentKey : listeOperations.keySet()) {
-			// Utilisation d'un itérator pour pouvoir supprimer des éléments de la liste
-			Iterator<Integer> transferElement = listeOperations.get(currentKey).iterator();
-			
-			//On boucle tant qu'il existe un élément suivant dans la liste des opérandes liés à une opération 
-			while(transferElement.hasNext()){
-				if(compteur < i ){
-					if(!listeOp.containsKey(currentKey)){
-						listeOp.put(currentKey, new ArrayList<Integer>());
-					}
-					listeOp.get(currentKey).add((Integer) transferElement.next());
-					transferElement.remove();
-					
-					compteur++;
-					nbrOperations--;
-				} else {
-					//Si on le bon nombre d'opération dans listeOperations, alors on sort de la boucle.   
-					outLoop = true;
-					break;
-				}
-			}
-			if(outLoop){
-				break; //Arrive seulement si est passé dans le else précédent.
-			}
-		}
-		return listeOp;
-	}
-
-	/**
-	 * Méthode visant à remettre des opérations dans la listeOperations général du répartiteur.
-	 * Peut arriver lorsqu'un serveur distant s'est déconnecté. Dans ce cas ces opérations
-	 * doivent être redistribuées.
-	 * 
-	 * @param operations liste des opérations à remettre dans listeOperations
-	 * @param erreur si un serveur s'est déconnecté.
-	 */
-	public synchronized void resetOperations(HashMap<String, ArrayList<Integer>> operations, boolean erreur) 
-	{
-		if(operations != null)
-		{
-			for(String s : operations.keySet()){
-				for(Integer i : operations.get(s)){
-					listeOperations.get(s).add(i);
-					nbrOperations++;
-				}
-			}
-		}
-		
-		if(erreur)
-		{
-			nbrServeurErreur++;
-		}
+	public void serveurEnErreur() {
+		nbrServeurErreur.incrementAndGet();
 	}
 	
 	/**
 	 * Obtention du nbrServeurOccupe depuis les threads.
 	 * @return nbrServeurOccupe
 	 */
-	public synchronized int getNbrServeurOccupe() {
-		return nbrServeurOccupe;
+	public int getNbrServeurOccupe() {
+		return nbrServeurOccupe.get();
 	}
 	
 	/**
 	 * Incrémentation du nombre de serveur occupé, appelé depuis un thread avant un calcul
 	 */
-	public synchronized void setServeurOccupe() {
-		nbrServeurOccupe++;
+	public void setServeurOccupe() {
+		nbrServeurOccupe.incrementAndGet();
 	}
 	
 	/**
 	 * Décrémentation du nombre de serveur occupé, appelé depuis un thread aprés un calcul
 	 */
-	public synchronized void setServeurInnoccupe() {
-		nbrServeurOccupe--;
+	public void setServeurInnoccupe() {
+		nbrServeurOccupe.decrementAndGet();
 	}
 	
 	/**
@@ -441,70 +539,26 @@ public class RepartiteurNonSecurise {
 	}
 	
 	/**
-	 * Ajoute à la liste des Paquets un nouveau Paquet
-	 * @param listOperations, liste des opérations de ce paquet
-	 * @param nomServeur, nom du serveur ayant en premier fait le calcul et créé le paquet
-	 * @param resultat, résultat du serveur ayant en premier fait le calcul et créé le paquet 
+	 * Ordonnanceur des vérifications partagé par les threads, créé au lancement du répartiteur.
+	 * @return ordonnanceur des vérifications
 	 */
-	public synchronized void setPaquet(HashMap<String, ArrayList<Integer>> listOperations, String nomServeur, int resultat) {
-		Paquet pqt = new Paquet(listOperations);
-		pqt.setResultat(nomServeur, resultat);
-		
-		listPaquet.add(pqt);
+	public OrdonnanceurVerification getOrdonnanceur() {
+		return ordonnanceur;
 	}
 	
 	/**
-	 * Obtention de la liste des paquets d'opérations
-	 * @return
+	 * Contrôle local des résultats, créé au lancement du répartiteur.
+	 * @return contrôle local, null si les paquets sont vérifiés par les serveurs
 	 */
-	public synchronized List<Paquet> getListPaquet() {
-		return listPaquet;
-	}
-	
-	/**
-	 * Mise à jour d'un paquet lorsqu'il a été modifié depuis un Thread
-	 * @param mPaquet
-	 */
-	public synchronized void modifPaquet(Paquet mPaquet) {
-		
-		for(Paquet pqt : listPaquet)
-		{
-			if(pqt.getListeOperation() == mPaquet.getListeOperation())
-			{
-				pqt = mPaquet;
-				break;
-			}
-		}
+	public ControleLocal getControleLocal() {
+		return controleLocal;
 	}
 	
 	/**
 	 * Obtention du nombre de serveur actuellement connecté
 	 * @return
 	 */
-	public synchronized int getNbrServeurConnecte(){
-		return nbrServeurConnecte;
-	}
-	
-	/**
-	 * Retourne true si tous les paquets de la liste ont été verifiés
-	 * Cette condition n'est pas suffissante pour vérifier si tous les calculs ont été vérifiés
-	 * Tous les paquets de cette liste peuvent avoir été vérifiés alors qu'une liste de calcul de listeOperations 
-	 * est encore en train d'etre calculée par un serveur et pas encore ajoutée dans cette liste
-	 * @return
-	 */
-	public synchronized boolean listPaquetEstVerifiee() {
-		
-		boolean result = true;
-		
-		for(Paquet pqt : listPaquet) {
-			if(!(pqt.estVerifie()))
-			{
-				result = false;
-				break;
-			}
-		}
-		
-		return result;
+	public int getNbrServeurConnecte(){
+		return (int) finServeurs.getCount();
 	}
 }
-
@@ -0,0 +1,109 @@
+package tp2.repartiteurNonSecur;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Réputation des serveurs en mode non sécurisé.
+ *
+ * Le score d'un serveur est une moyenne exponentielle de ses accords avec le
+ * résultat validé par le quorum (1 pour un accord). Un serveur commence à 0
+ * et devient fiable après une vingtaine d'accords consécutifs ; un désaccord
+ * remet son score à 0, il repasse donc sous le seuil de fiabilité.
+ *
+ * Le taux d'erreur de chaque serveur est estimé sur l'ensemble de ses paquets
+ * vérifiés par quorum ((désaccords + 1) / (vérifications + 2)). Avec une borne
+ * d'erreur erreurMax (option --erreur-max), un paquet de serveur fiable est
+ * vérifié avec une probabilité p d'au moins 1 - erreurMax / tauxErreur : la
+ * part des paquets du serveur à la fois faux et acceptés sans vérification,
+ * tauxErreur * (1 - p), reste sous erreurMax. Parmi les seuls paquets acceptés
+ * sans vérification, la part de paquets faux reste tauxErreur quel que soit p.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ReputationServeurs {
+
+	private static final double POIDS = 0.1;         // Poids d'une nouvelle observation dans le score
+	private static final double SEUIL_FIABLE = 0.9;  // Score à partir duquel un serveur est fiable
+
+	private Map<String, Double> scores = new HashMap<String, Double>(); // Score de chaque serveur
+	private Map<String, Integer> nbrVerifications = new HashMap<String, Integer>(); // Paquets de chaque serveur vérifiés par quorum
+	private Map<String, Integer> nbrDesaccords = new HashMap<String, Integer>();    // Désaccords de chaque serveur avec le quorum
+	private final double erreurMax; // Part maximale des paquets d'un serveur fiable à la fois faux et non vérifiés (1 : pas de borne)
+
+	/**
+	 * Constructeur de la réputation, sans borne d'erreur.
+	 */
+	public ReputationServeurs() {
+		this(100);
+	}
+
+	/**
+	 * Constructeur de la réputation.
+	 * @param erreurMax pourcentage maximal des paquets d'un serveur fiable à la fois faux et acceptés sans vérification (100 : pas de borne)
+	 */
+	public ReputationServeurs(int erreurMax) {
+		this.erreurMax = erreurMax / 100.0;
+	}
+
+	/**
+	 * Enregistre l'accord ou le désaccord d'un serveur avec le résultat validé d'un paquet.
+	 * @param nomServeur nom du serveur
+	 * @param accord true si le résultat du serveur est le résultat validé
+	 */
+	public synchronized void noter(String nomServeur, boolean accord) {
+		double score = getScore(nomServeur);
+		double nouveauScore = accord ? score * (1 - POIDS) + POIDS : 0;
+
+		if (score >= SEUIL_FIABLE && nouveauScore < SEUIL_FIABLE) {
+			System.out.println("Le serveur " + nomServeur + " n'est plus considéré comme fiable");
+		} else if (score < SEUIL_FIABLE && nouveauScore >= SEUIL_FIABLE) {
+			System.out.println("Le serveur " + nomServeur + " est considéré comme fiable");
+		}
+
+		scores.put(nomServeur, nouveauScore);
+		incrementer(nbrVerifications, nomServeur);
+		if (!accord) {
+			incrementer(nbrDesaccords, nomServeur);
+		}
+	}
+
+	/**
+	 * Probabilité de vérifier un paquet d'un serveur fiable, pour respecter la borne d'erreur.
+	 * @param nomServeur nom du serveur
+	 * @param tauxEchantillon pourcentage minimal de paquets vérifiés
+	 * @return probabilité de vérification entre 0 et 1
+	 */
+	public synchronized double getProbabiliteVerification(String nomServeur, int tauxEchantillon) {
+		double tauxErreur = (valeur(nbrDesaccords, nomServeur) + 1.0) / (valeur(nbrVerifications, nomServeur) + 2.0);
+		return Math.max(tauxEchantillon / 100.0, 1 - erreurMax / tauxErreur);
+	}
+
+	/**
+	 * @param nomServeur nom du serveur
+	 * @return score du serveur entre 0 et 1
+	 */
+	public synchronized double getScore(String nomServeur) {
+		Double score = scores.get(nomServeur);
+		return score == null ? 0 : score;
+	}
+
+	/**
+	 * @param nomServeur nom du serveur
+	 * @return true si les paquets du serveur peuvent n'être vérifiés que par échantillonnage
+	 */
+	public synchronized boolean estFiable(String nomServeur) {
+		return getScore(nomServeur) >= SEUIL_FIABLE;
+	}
+
+	private static void incrementer(Map<String, Integer> compteurs, String nomServeur) {
+		compteurs.put(nomServeur, valeur(compteurs, nomServeur) + 1);
+	}
+
+	private static int valeur(Map<String, Integer> compteurs, String nomServeur) {
+		Integer valeur = compteurs.get(nomServeur);
+		return valeur == null ? 0 : valeur;
+	}
+
+}
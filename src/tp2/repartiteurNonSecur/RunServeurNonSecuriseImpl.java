@@ -3,9 +3,13 @@ package tp2.repartiteurNonSecur;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 
+import tp2.shared.ConnexionServeur;
+import tp2.shared.PaquetOperations;
+import tp2.shared.ReservoirOperations;
 import tp2.shared.ServeurInterface;
+import tp2.shared.TaillePaquet;
+import tp2.shared.TraceurPaquets;
 
 /**
  * Classe runnable/ Thread utilisé pour chaque serveur en mode non sécurisé. 
@@ -14,23 +18,32 @@ import tp2.shared.ServeurInterface;
  */
 public class RunServeurNonSecuriseImpl implements Runnable {
 	private ServeurInterface serveurInterface;								//Serveur sur lequel on récupère les données
-	private HashMap<String, ArrayList<Integer>> listeOperationThread;		//Liste des opérations que le serveur distant est en train d'effectuer
+	private PaquetOperations listeOperationThread;							//Liste des opérations que le serveur distant est en train d'effectuer
 	private HashMap<String, ArrayList<Integer>> listeOperationVerifThread;	//Liste des opérations que le serveur distant est en train de vérifier
-	private int nbrOperations;												//Nombre d'opération à effectuer
+	private Paquet paquetVerifThread;										//Paquet que le serveur distant est en train de vérifier
+	private TaillePaquet taillePaquet;										//Taille des paquets envoyés au serveur
 	private RepartiteurNonSecurise rpt;										//Répartiteur sur lequel tourne le thread
 	private String nom;														//Nom donnée au thread. Typiquement le répartiteur lui donne le même que le serveur auquel il est rattaché	
+	private ConnexionServeur connexion;										//Connexion choisissant le format d'envoi des paquets
+	private int indice;														//Indice du thread, désigne sa file dans le réservoir d'opérations
+	private boolean detail;													//Vérification par quorum opérande par opérande
+	private boolean occupe = false;											//true entre occuper et liberer : le thread est compté parmi les serveurs occupés
 	
 	/**
 	 * Constructeur du Thread
 	 * 
 	 * @param nomThread nom donnée au thread.  
+	 * @param indice indice du thread (file du réservoir d'opérations).
 	 * @param serveur Serveur rattaché.
 	 * @param rpt Référence du répartiteur qui a lancé le thread.
 	 */
-	public RunServeurNonSecuriseImpl(String nomThread, ServeurInterface serveur, RepartiteurNonSecurise rpt) {
+	public RunServeurNonSecuriseImpl(String nomThread, int indice, ServeurInterface serveur, RepartiteurNonSecurise rpt) {
 		this.nom = nomThread;
+		this.indice = indice;
 		this.serveurInterface = serveur;
 		this.rpt = rpt;
+		this.connexion = new ConnexionServeur(serveur, rpt.getOptions().isCompact(), rpt.getMetriquesServeur(indice));
+		this.detail = rpt.getOptions().isDetail();
 	}
 
 	/**
@@ -38,139 +51,244 @@ public class RunServeurNonSecuriseImpl implements Runnable {
 	 */
 	public void run() {
 		
-		// Nombre de bloc initialement donné à calculer au serveur. 
-		nbrOperations = rpt.getNbrOperationsInitial()/rpt.getNbrServeurInitial();
+		ReservoirOperations reservoir = rpt.getReservoir();
+		OrdonnanceurVerification ordonnanceur = rpt.getOrdonnanceur();
+		ControleLocal controleLocal = rpt.getControleLocal();
+		TraceurPaquets traceur = rpt.getTraceur();
+		
+		// Nombre de bloc initialement donné à calculer au serveur (ou part du coût total avec un modèle de coût). 
+		taillePaquet = new TaillePaquet(reservoir, indice, rpt.getNbrOperationsInitial()/rpt.getNbrServeurInitial(), rpt.getNbrServeurInitial());
 		
 		try {
 			
+			// Les paquets ne dépassent pas la capacité annoncée par le serveur
+			taillePaquet.setCapacite(connexion.capacite());
+			
 			//Tant qu'il y a des serveurs en train de faire des calculs et que tous les paquets de la liste ne sont pas vérifiés
 			do
 			{
-				// Et tant qu'il y a des opérations à traiter dans la liste initial des opérations
-				while(rpt.getNbrOperations() > 0){
+				// Et tant qu'il y a des opérations à prendre dans le réservoir des opérations
+				while((listeOperationThread = taillePaquet.prendre()) != null){
 				
 						int resultatCalcul = -1;
 						
-						listeOperationThread = rpt.getOperations(nbrOperations);
 						// Incrémente le nombre de serveur occupé 
-						rpt.setServeurOccupe();
+						occuper();
+						if(traceur != null)
+						{
+							traceur.decoupe(indice, listeOperationThread);
+						}
 						// Envoie la liste des opérations à calculer au serveur
-						resultatCalcul = serveurInterface.calculOperations(listeOperationThread);
+						long debutEnvoi = System.nanoTime();
+						HashMap<String, ArrayList<Integer>> resultatsDetail = null;
+						// La vérification travaille sur la table de hachage du paquet
+						HashMap<String, ArrayList<Integer>> tableOperations = null;
+						if(controleLocal != null || detail)
+						{
+							// Le contrôle local et la vérification opérande par opérande ont besoin du résultat de chaque opérande
+							tableOperations = listeOperationThread.versTable();
+							resultatsDetail = connexion.calculPaquetDetail(tableOperations);
+							resultatCalcul = resultatsDetail == null ? -1 : sommeResultats(tableOperations, resultatsDetail);
+						}
+						else
+						{
+							resultatCalcul = envoyerPaquet(listeOperationThread);
+						}
+						
+						if(traceur != null)
+						{
+							traceur.calcul(indice, listeOperationThread.getNumero(), listeOperationThread.taille(), debutEnvoi, resultatCalcul != -1);
+						}
 						
 						// Si le calcul a été accepté
 						if(resultatCalcul != -1)
 						{
 							System.out.println("Résultat intermediaire du serveur " + nom + " : " + resultatCalcul);
-							// On transfère la liste d'opération que l'on vient de faire dans la liste de Paquet d'opérations 
-							// pour que les autres serveurs vérifient le calcul
-							rpt.setPaquet(listeOperationThread, nom, resultatCalcul);
 							
-							//On gère le cas particulier ou le nbrOperations vaut 1
-							if(nbrOperations == 1)
+							// On augmente la taille des paquets pour simuler 
+							// le fait qu'on donne plus de calcul à faire à un serveur disponible.
+							taillePaquet.accepte(listeOperationThread, System.nanoTime() - debutEnvoi);
+							
+							// On recalcule localement un échantillon des opérandes
+							int controle = controleLocal != null ? controleLocal.verifier(nom, tableOperations, resultatsDetail) : ControleLocal.NON_CONTROLABLE;
+							
+							if(controle == ControleLocal.CORRECT)
 							{
-								nbrOperations++;
+								rpt.setResultat(resultatCalcul);
+								reservoir.terminer(listeOperationThread);
+								System.out.println("Paquet de valeur " + resultatCalcul + " contrôlé");
+								if(traceur != null)
+								{
+									traceur.verifie(indice, listeOperationThread.getNumero());
+								}
 							}
-							// Dans les autres cas on augmente la valeur 
-							// de nbrOperations de nbrOperations/2 pour simuler 
-							// le fait qu'on donne plus de calcul à faire à un serveur disponible.
+							// Avec un ou deux serveurs connectés, le quorum serait atteint par le seul 
+							// résultat en défaut : le paquet est réattribué
+							else if(controle == ControleLocal.ERRONE && rpt.getNbrServeurConnecte() <= 2)
+							{
+								System.out.println("Contrôle du paquet échoué, redistribution du calcul...");
+								if(traceur != null)
+								{
+									traceur.rejete(indice, listeOperationThread.getNumero(), listeOperationThread.taille());
+								}
+								reservoir.rendre(listeOperationThread);
+							}
+							// Vérification par quorum : mode par défaut, paquet en défaut ou sans opérande contrôlable
 							else
 							{
-								nbrOperations = nbrOperations + nbrOperations/2;
+								if(controle == ControleLocal.ERRONE)
+								{
+									System.out.println("Contrôle du paquet échoué, vérification par les autres serveurs...");
+								}
+								
+								// On transfère la liste d'opération que l'on vient de faire à l'ordonnanceur des vérifications 
+								// pour que les autres serveurs vérifient le calcul
+								if(tableOperations == null)
+								{
+									tableOperations = listeOperationThread.versTable();
+								}
+								int resultatFinal = ordonnanceur.ajouter(tableOperations, nom, resultatCalcul, resultatsDetail, rpt.getNbrServeurConnecte(), listeOperationThread.getNumero());
+								reservoir.terminer(listeOperationThread);
+								
+								// Le quorum est atteint dès le premier résultat avec un ou deux serveurs connectés
+								if(resultatFinal != -1)
+								{
+									rpt.setResultat(resultatFinal);
+									System.out.println("Paquet de valeur " + resultatFinal + " vérifié");
+									if(traceur != null)
+									{
+										traceur.verifie(indice, listeOperationThread.getNumero());
+									}
+								}
+								else if(traceur != null)
+								{
+									traceur.attente(indice, listeOperationThread.getNumero());
+								}
 							}
 						}
-						//Sinon on doit remettre les opérations dans la liste d'opération initiale du répartiteur.
+						//Sinon on doit remettre les opérations dans le réservoir du répartiteur.
 						else 
 						{
-							rpt.resetOperations(listeOperationThread, false);
+							reservoir.rendre(listeOperationThread);
 							// On divise par 2 car on s'est vu refusé un calcul par manque de disponibilité
-							nbrOperations = nbrOperations/2;
+							taillePaquet.refuse();
 						}
 						
 						listeOperationThread = null;
 						// Décrémente le nombre de serveur occupé 
-						rpt.setServeurInnoccupe();
+						liberer();
 				}
 				
-				// On récupère la liste de paquet d'opération
-				List<Paquet> listPaquet = rpt.getListPaquet();
+				boolean verificationFaite = false;
 				
-				// On parcourt la liste de paquet
-				for(Paquet pqt : listPaquet) {
+				/**
+				 * Prend la prochaine vérification de ce serveur, c'est à dire un paquet :
+				 * - qui n'est pas potentiellement vérifiable (il n'y a pas plus de 50% des serveurs qui ont déjà ou qui sont en train de faire le calcul ET si il n'y a pas des serveurs en train de faire le calcul
+				 * - que ce serveur n'a pas déjà calculé
+				 * - qui n'a pas encore été vérifié 
+				 */
+				while((paquetVerifThread = ordonnanceur.prendreTache(nom, rpt.getNbrServeurConnecte())) != null)
+				{
+					int resultatCalcul, resultatFinal = -1;
+					HashMap<String, ArrayList<Integer>> resultatsDetail = null;
+					verificationFaite = true;
+					// On récupère la liste des opération de ce paquet (seulement celles en litige en vérification opérande par opérande)
+					listeOperationVerifThread = paquetVerifThread.getListeOperationPour(nom);
+					// Incrémente le nombre de serveur occupé 
+					occuper();
+					long debutVerification = System.nanoTime();
 					
 					/**
-					 * Fait le calcul si :
-					 * - Ce paquet n'est pas potentiellement vérifiable (il n'y a pas plus de 50% des serveurs qui ont déjà ou qui sont en train de faire le calcul ET si il n'y a pas des serveurs en train de faire le calcul
-					 * - Ce serveur n'a pas déjà calculé cette liste d'opération
-					 * - Ce paquet n'a pas encore été vérifié 
+					 *  Tant que le serveur n'a pas accepté le calcul
+					 *  La taille des paquets est fixe, nous attendons que le serveur accepte le calcul
 					 */
-					if(!(pqt.verificationEnCours(rpt.getNbrServeurConnecte())) && !(pqt.serveurDejaTraite(nom)) && !(pqt.estVerifie()))
+					do
 					{
-						int resultatCalcul, resultatFinal = -1;
-						// On récupère la liste des opération de ce paquet
-						listeOperationVerifThread = pqt.getListeOperation();
-						// Incrémente le nombre de serveur occupé 
-						rpt.setServeurOccupe();
-						// Enregistre dans le paquet que ce serveur est en train de faire le calcul 
-						pqt.setServeurEnCours(nom);
-						// Met à jour le paquet coté répartiteur
-						rpt.modifPaquet(pqt);
-						
-						/**
-						 *  Tant que le serveur n'a pas accepté le calcul
-						 *  La taille des paquets est fixe, nous attendons que le serveur accepte le calcul
-						 */
-						do
+						// Envoie la liste des opérations à calculer au serveur
+						if(paquetVerifThread.estDetail())
 						{
-							// Envoie la liste des opérations à calculer au serveur
-							resultatCalcul = serveurInterface.calculOperations(listeOperationVerifThread);
-							
-							// Si le calcul a été accepté
-							if(resultatCalcul != -1)
+							resultatsDetail = connexion.calculPaquetDetail(listeOperationVerifThread);
+							resultatCalcul = resultatsDetail == null ? -1 : sommeResultats(listeOperationVerifThread, resultatsDetail);
+						}
+						else
+						{
+							resultatCalcul = envoyerPaquet(listeOperationVerifThread);
+						}
+					}
+					while (resultatCalcul == -1);
+					
+					System.out.println("Resultat recalculé du serveur " + nom + " : " + resultatCalcul);
+					if(traceur != null)
+					{
+						traceur.verification(indice, paquetVerifThread.getNumero(), taille(listeOperationVerifThread), debutVerification);
+					}
+					// Enregistre le résultat de ce serveur dans le paquet et vérifie si le résultat valide final peut être trouvé
+					resultatFinal = ordonnanceur.terminerTache(paquetVerifThread, nom, resultatCalcul, resultatsDetail, rpt.getNbrServeurConnecte());
+					boolean paquetVerifie = paquetVerifThread.estVerifie();
+					int numeroVerifie = paquetVerifThread.getNumero();
+					paquetVerifThread = null;
+					// Decrémente le nombre de calcul occupé
+					liberer();
+					
+					// Si le résultat est différent de -1, le résultat est validé
+					if(resultatFinal != -1)
+					{
+						//Alors on enregistre le résultat vérifié auprès du répartiteur.
+						rpt.setResultat(resultatFinal);
+						if(paquetVerifie)
+						{
+							System.out.println("Paquet de valeur " + resultatFinal + " vérifié");
+							if(traceur != null)
 							{
-								System.out.println("Resultat recalculé du serveur " + nom + " : " + resultatCalcul);
-								// Supprime le serveur de la liste des serveurs en train de faire le calcul 
-								pqt.delServeurEnCours(nom);
-								// Enregistre le résultat de ce serveur dans le paquet
-								pqt.setResultat(nom, resultatCalcul);
-								// Decrémente le nombre de calcul occupé
-								rpt.setServeurInnoccupe();
-								
-								// Si il n'y a pas serveurs en train de faire un calcul de ce paquet d'opération
-								if(!(pqt.hasServeursEnCours()))
-								{
-									// On vérifie si le résultat valide final peut être trouvé
-									resultatFinal = pqt.resultatValide(rpt.getNbrServeurConnecte());
-									
-									// Si le résultat est différent de -1, le résultat est validé
-									if(resultatFinal != -1)
-									{
-										//Alors on enregistre le résultat vérifié auprès du répartiteur.
-										rpt.setResultat(resultatFinal);
-										System.out.println("Paquet de valeur " + resultatFinal + " vérifié");
-									}
-								}
-								
-								// Met à jour le paquet coté répartiteur
-								rpt.modifPaquet(pqt);
+								traceur.verifie(indice, numeroVerifie);
 							}
-							
 						}
-						while (resultatCalcul == -1);
+						else
+						{
+							// Vérification opérande par opérande : seuls les opérandes en litige seront revérifiés
+							System.out.println("Opérandes de valeur " + resultatFinal + " vérifiés, paquet encore en litige");
+						}
 					}
 				}
 				
+				// Rien à calculer ni à vérifier pour l'instant : on attend au lieu de boucler
+				if(!verificationFaite && reservoir.getNbrDisponibles() == 0)
+				{
+					ordonnanceur.attendre();
+				}
+				
 			}
-			while(rpt.getNbrServeurOccupe() != 0 || !(rpt.listPaquetEstVerifiee()));
+			while(!reservoir.estTermine() || rpt.getNbrServeurOccupe() != 0 || ordonnanceur.getNbrNonVerifies() != 0);
 			
 		} catch (RemoteException e) {
 			// e.printStackTrace();
 			System.out.println("Connexion perdue");
-			// Si on perd la connexion, on remet les opérations dans la liste initiale du répartiteur
+			// Si on perd la connexion, on remet les opérations dans le réservoir du répartiteur
 			// Si on est dans la phase de vérification, listeOperationThread sera null
-			// true en paramètre car nous sommes dans le catch, nbrServeurErreur est incrémenté 
-			rpt.resetOperations(listeOperationThread, true);
+			if(traceur != null && listeOperationThread != null)
+			{
+				traceur.redistribue(indice, listeOperationThread.getNumero(), listeOperationThread.taille());
+			}
+			rpt.getReservoir().rendre(listeOperationThread);
+			// Si on est dans la phase de vérification, les autres serveurs peuvent reprendre le paquet
+			if(traceur != null && paquetVerifThread != null)
+			{
+				traceur.redistribue(indice, paquetVerifThread.getNumero(), taille(listeOperationVerifThread));
+			}
+			int resultatFinal = ordonnanceur.abandonnerTache(paquetVerifThread, nom, rpt.getNbrServeurConnecte());
+			if(resultatFinal != -1)
+			{
+				rpt.setResultat(resultatFinal);
+				if(traceur != null && paquetVerifThread != null && paquetVerifThread.estVerifie())
+				{
+					traceur.verifie(indice, paquetVerifThread.getNumero());
+				}
+			}
+			paquetVerifThread = null;
+			// Nous sommes dans le catch, nbrServeurErreur est incrémenté 
+			rpt.serveurEnErreur();
 			// Décrémente le nombre de serveur occupé 
-			rpt.setServeurInnoccupe();
+			liberer();
 			listeOperationThread = null;
 			System.out.println("Redistribution du calcul...");
 		} 
@@ -179,5 +297,86 @@ public class RunServeurNonSecuriseImpl implements Runnable {
 		// On décrémente nbrServeurConnecte
 		rpt.deconnectThread();
 	}
+	
+	/**
+	 * Compte le serveur parmi les serveurs occupés, avant un calcul.
+	 */
+	private void occuper() {
+		occupe = true;
+		rpt.setServeurOccupe();
+	}
+	
+	/**
+	 * Retire le serveur des serveurs occupés, après un calcul. Sans effet s'il n'était
+	 * pas occupé (connexion perdue en dehors d'un calcul, par exemple à l'interrogation
+	 * de la capacité) : le compteur ne peut pas devenir négatif.
+	 */
+	private void liberer() {
+		if (occupe) {
+			occupe = false;
+			rpt.setServeurInnoccupe();
+		}
+	}
+	
+	/**
+	 * Somme modulo 5000 des résultats de chaque opérande d'un paquet, pondérés 
+	 * par leur multiplicité avec la déduplication.
+	 * 
+	 * @param operations paquet d'opérations
+	 * @param resultats résultat de chaque opérande, de même structure que operations
+	 * @return résultat du paquet
+	 */
+	private int sommeResultats(HashMap<String, ArrayList<Integer>> operations, HashMap<String, ArrayList<Integer>> resultats) {
+		if(rpt.getMultiplicites() != null)
+		{
+			return rpt.getMultiplicites().sommePonderee(operations, resultats);
+		}
+		
+		int somme = 0;
+		for(String s : resultats.keySet())
+		{
+			for(Integer resultat : resultats.get(s))
+			{
+				somme = (somme + resultat) % 5000;
+			}
+		}
+		return somme;
+	}
+	
+	/**
+	 * @param operations paquet d'opérations
+	 * @return nombre d'opérations du paquet
+	 */
+	private static int taille(HashMap<String, ArrayList<Integer>> operations) {
+		int taille = 0;
+		for(String s : operations.keySet())
+		{
+			taille += operations.get(s).size();
+		}
+		return taille;
+	}
+	
+	/**
+	 * Envoie un paquet d'opérations au serveur rattaché (voir ConnexionServeur pour
+	 * le choix du format et la déduplication).
+	 * 
+	 * @param operations paquet d'opérations à calculer
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private int envoyerPaquet(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
+		return connexion.calculPaquet(operations, rpt.getMultiplicites());
+	}
+	
+	/**
+	 * Envoie un paquet du réservoir d'opérations au serveur rattaché.
+	 * 
+	 * @param operations paquet d'opérations à calculer
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private int envoyerPaquet(PaquetOperations operations) throws RemoteException {
+		return connexion.calculPaquet(operations, rpt.getMultiplicites());
+	}
 
 }
@@ -0,0 +1,186 @@
+package tp2.repartiteurNonSecur;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import tp2.shared.TableMultiplicites;
+
+/**
+ * Résultats de chaque opérande d'un paquet, par serveur, pour la vérification
+ * opérande par opérande.
+ *
+ * Chaque opérande est validé dès qu'une même valeur a été renvoyée par le
+ * quorum des serveurs. Quand les serveurs sont en désaccord sur un paquet, les
+ * opérandes sur lesquels ils s'accordent sont donc validés, et seuls les
+ * opérandes en litige sont renvoyés aux serveurs suivants.
+ *
+ * N'est pas thread safe : utilisé sous le verrou du Paquet.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class VotesOperandes {
+
+	private final String[] nomsOperation;   // Opération de chaque opérande du paquet d'origine
+	private final int[] operandes;          // Opérandes du paquet d'origine
+	private final boolean[] valide;         // Opérande validé par le quorum
+	private final HashMap<String, int[]> resultatsServeur = new HashMap<String, int[]>(); // Résultat de chaque opérande par serveur (-1 si non calculé)
+	private int nbrValides = 0;             // Nombre d'opérandes validés
+
+	/**
+	 * Constructeur des votes.
+	 * @param operations paquet d'origine
+	 */
+	public VotesOperandes(HashMap<String, ArrayList<Integer>> operations) {
+		int nbrOperations = 0;
+		for (String s : operations.keySet()) {
+			nbrOperations += operations.get(s).size();
+		}
+
+		nomsOperation = new String[nbrOperations];
+		operandes = new int[nbrOperations];
+		valide = new boolean[nbrOperations];
+
+		int indice = 0;
+		for (String s : operations.keySet()) {
+			for (Integer operande : operations.get(s)) {
+				nomsOperation[indice] = s;
+				operandes[indice] = operande;
+				indice++;
+			}
+		}
+	}
+
+	/**
+	 * Indices (dans le paquet d'origine) des opérandes pas encore validés, regroupés par opération.
+	 * @return indices par opération
+	 */
+	public HashMap<String, ArrayList<Integer>> indicesEnLitige() {
+		HashMap<String, ArrayList<Integer>> indices = new HashMap<String, ArrayList<Integer>>();
+
+		for (int i = 0; i < operandes.length; i++) {
+			if (!valide[i]) {
+				ArrayList<Integer> indicesOperation = indices.get(nomsOperation[i]);
+				if (indicesOperation == null) {
+					indicesOperation = new ArrayList<Integer>();
+					indices.put(nomsOperation[i], indicesOperation);
+				}
+				indicesOperation.add(i);
+			}
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Paquet d'opérations correspondant à des indices.
+	 * @param indices indices par opération (voir indicesEnLitige)
+	 * @return paquet d'opérations, de même structure que indices
+	 */
+	public HashMap<String, ArrayList<Integer>> sousPaquet(HashMap<String, ArrayList<Integer>> indices) {
+		HashMap<String, ArrayList<Integer>> paquet = new HashMap<String, ArrayList<Integer>>();
+
+		for (String s : indices.keySet()) {
+			ArrayList<Integer> operandesOperation = new ArrayList<Integer>(indices.get(s).size());
+			for (Integer i : indices.get(s)) {
+				operandesOperation.add(operandes[i]);
+			}
+			paquet.put(s, operandesOperation);
+		}
+
+		return paquet;
+	}
+
+	/**
+	 * Enregistre les résultats d'un serveur.
+	 * @param nomServeur nom du serveur
+	 * @param indices indices calculés par le serveur (voir indicesEnLitige)
+	 * @param resultats résultats du serveur, de même structure que indices
+	 */
+	public void voter(String nomServeur, HashMap<String, ArrayList<Integer>> indices, HashMap<String, ArrayList<Integer>> resultats) {
+		int[] vote = resultatsServeur.get(nomServeur);
+		if (vote == null) {
+			vote = new int[operandes.length];
+			Arrays.fill(vote, -1);
+			resultatsServeur.put(nomServeur, vote);
+		}
+
+		for (String s : indices.keySet()) {
+			ArrayList<Integer> indicesOperation = indices.get(s);
+			ArrayList<Integer> resultatsOperation = resultats.get(s);
+			for (int j = 0; j < indicesOperation.size(); j++) {
+				vote[indicesOperation.get(j)] = resultatsOperation.get(j);
+			}
+		}
+	}
+
+	/**
+	 * Valide les opérandes ayant atteint le quorum et note l'accord de chaque serveur.
+	 * @param seuilValide nombre de résultats identiques nécessaires
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @param accords reçoit, pour chaque serveur ayant voté sur un opérande validé, son accord avec le quorum
+	 * @return somme modulo 5000 des opérandes validés par cet appel, -1 si aucun
+	 */
+	public int valider(int seuilValide, TableMultiplicites multiplicites, Map<String, Boolean> accords) {
+		long somme = 0;
+		boolean nouveau = false;
+
+		for (int i = 0; i < operandes.length; i++) {
+			if (valide[i])
+				continue;
+
+			// Décompte des résultats de l'opérande
+			HashMap<Integer, Integer> decompte = new HashMap<Integer, Integer>();
+			for (int[] vote : resultatsServeur.values()) {
+				if (vote[i] != -1) {
+					Integer nbr = decompte.get(vote[i]);
+					decompte.put(vote[i], nbr == null ? 1 : nbr + 1);
+				}
+			}
+
+			for (Integer resultat : decompte.keySet()) {
+				if (decompte.get(resultat) >= seuilValide) {
+					valide[i] = true;
+					nbrValides++;
+					nouveau = true;
+					int multiplicite = multiplicites == null ? 1 : multiplicites.get(nomsOperation[i], operandes[i]);
+					somme = (somme + (long) resultat * multiplicite) % 5000;
+
+					for (String nomServeur : resultatsServeur.keySet()) {
+						int vote = resultatsServeur.get(nomServeur)[i];
+						if (vote != -1) {
+							Boolean accord = accords.get(nomServeur);
+							accords.put(nomServeur, (accord == null || accord) && vote == resultat);
+						}
+					}
+					break;
+				}
+			}
+		}
+
+		return nouveau ? (int) somme : -1;
+	}
+
+	/**
+	 * Efface les résultats des opérandes pas encore validés, pour qu'ils soient recalculés.
+	 */
+	public void effacerLitiges() {
+		for (int[] vote : resultatsServeur.values()) {
+			for (int i = 0; i < operandes.length; i++) {
+				if (!valide[i]) {
+					vote[i] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true si tous les opérandes sont validés
+	 */
+	public boolean estValide() {
+		return nbrValides == operandes.length;
+	}
+
+}
@@ -0,0 +1,115 @@
+package tp2.serveur;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Cache de résultats avec éviction du moins fréquemment utilisé, en O(1).
+ * Les clés sont rangées par fréquence d'accès. En cas d'égalité de fréquence,
+ * la plus ancienne est évincée.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class CacheLFU extends CacheResultats {
+
+	private final int taille;                                          // Nombre maximal de résultats
+	private final HashMap<Cle, Integer> resultats = new HashMap<Cle, Integer>();    // Résultats conservés
+	private final HashMap<Cle, Integer> frequences = new HashMap<Cle, Integer>();   // Fréquence d'accès de chaque clé
+	private final HashMap<Integer, LinkedHashSet<Cle>> clesParFrequence = new HashMap<Integer, LinkedHashSet<Cle>>();
+	private int frequenceMin = 0;                                      // Plus petite fréquence présente
+
+	/**
+	 * Constructeur du cache.
+	 * @param taille nombre maximal de résultats conservés
+	 */
+	public CacheLFU(int taille) {
+		this.taille = taille;
+	}
+
+	@Override
+	protected Integer lire(Cle cle) {
+		Integer resultat = resultats.get(cle);
+
+		if (resultat != null) {
+			incrementerFrequence(cle);
+		}
+
+		return resultat;
+	}
+
+	@Override
+	protected void ecrire(Cle cle, int resultat) {
+		if (taille <= 0)
+			return;
+
+		if (resultats.containsKey(cle)) {
+			resultats.put(cle, resultat);
+			incrementerFrequence(cle);
+			return;
+		}
+
+		if (resultats.size() >= taille) {
+			evincer();
+		}
+
+		resultats.put(cle, resultat);
+		frequences.put(cle, 1);
+		clesParFrequence(1).add(cle);
+		frequenceMin = 1;
+	}
+
+	/**
+	 * Passe une clé à la fréquence supérieure.
+	 * @param cle clé accédée
+	 */
+	private void incrementerFrequence(Cle cle) {
+		int frequence = frequences.get(cle);
+		LinkedHashSet<Cle> cles = clesParFrequence.get(frequence);
+		cles.remove(cle);
+
+		if (cles.isEmpty()) {
+			clesParFrequence.remove(frequence);
+			if (frequenceMin == frequence) {
+				frequenceMin++;
+			}
+		}
+
+		frequences.put(cle, frequence + 1);
+		clesParFrequence(frequence + 1).add(cle);
+	}
+
+	/**
+	 * Supprime la plus ancienne clé de plus petite fréquence.
+	 */
+	private void evincer() {
+		LinkedHashSet<Cle> cles = clesParFrequence.get(frequenceMin);
+		Iterator<Cle> plusAncienne = cles.iterator();
+		Cle cle = plusAncienne.next();
+		plusAncienne.remove();
+
+		if (cles.isEmpty()) {
+			clesParFrequence.remove(frequenceMin);
+		}
+
+		resultats.remove(cle);
+		frequences.remove(cle);
+	}
+
+	/**
+	 * @param frequence fréquence d'accès
+	 * @return ensemble (créé si besoin) des clés ayant cette fréquence
+	 */
+	private LinkedHashSet<Cle> clesParFrequence(int frequence) {
+		LinkedHashSet<Cle> cles = clesParFrequence.get(frequence);
+
+		if (cles == null) {
+			cles = new LinkedHashSet<Cle>();
+			clesParFrequence.put(frequence, cles);
+		}
+
+		return cles;
+	}
+
+}
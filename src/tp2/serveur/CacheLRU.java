@@ -0,0 +1,42 @@
+package tp2.serveur;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache de résultats avec éviction du moins récemment utilisé.
+ * S'appuie sur un LinkedHashMap en ordre d'accès.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class CacheLRU extends CacheResultats {
+
+	private final LinkedHashMap<Cle, Integer> resultats;
+
+	/**
+	 * Constructeur du cache.
+	 * @param taille nombre maximal de résultats conservés
+	 */
+	public CacheLRU(final int taille) {
+		this.resultats = new LinkedHashMap<Cle, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Cle, Integer> plusAncien) {
+				return size() > taille;
+			}
+		};
+	}
+
+	@Override
+	protected Integer lire(Cle cle) {
+		return resultats.get(cle);
+	}
+
+	@Override
+	protected void ecrire(Cle cle, int resultat) {
+		resultats.put(cle, resultat);
+	}
+
+}
@@ -0,0 +1,116 @@
+package tp2.serveur;
+
+/**
+ * Cache borné des résultats d'opérations, indexé par (opération, opérande).
+ *
+ * Les résultats mis en cache sont les résultats exacts (modulo 5000), la
+ * simulation de malice du serveur étant appliquée après coup sur la somme du paquet.
+ * Les compteurs de succès/échecs permettent de suivre l'efficacité du cache.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public abstract class CacheResultats {
+
+	private long nbrSucces = 0;   // Nombre de résultats trouvés dans le cache
+	private long nbrEchecs = 0;   // Nombre de résultats absents du cache
+
+	/**
+	 * Création d'un cache selon la politique d'éviction demandée.
+	 * @param politique lru ou lfu
+	 * @param taille nombre maximal de résultats conservés
+	 * @return cache
+	 * @exception IllegalArgumentException si la politique est inconnue
+	 */
+	public static CacheResultats creer(String politique, int taille) {
+		if (politique.equals("lru")) {
+			return new CacheLRU(taille);
+		} else if (politique.equals("lfu")) {
+			return new CacheLFU(taille);
+		}
+		throw new IllegalArgumentException("politique de cache '" + politique + "' inconnue (lru ou lfu)");
+	}
+
+	/**
+	 * Recherche d'un résultat dans le cache.
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @return résultat, ou null s'il n'est pas dans le cache
+	 */
+	public synchronized Integer get(String operation, int operande) {
+		Integer resultat = lire(new Cle(operation, operande));
+
+		if (resultat != null) {
+			nbrSucces++;
+		} else {
+			nbrEchecs++;
+		}
+
+		return resultat;
+	}
+
+	/**
+	 * Ajout d'un résultat au cache, avec éviction si le cache est plein.
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @param resultat résultat à conserver
+	 */
+	public synchronized void put(String operation, int operande, int resultat) {
+		ecrire(new Cle(operation, operande), resultat);
+	}
+
+	/**
+	 * @return nombre de résultats trouvés dans le cache
+	 */
+	public synchronized long getNbrSucces() {
+		return nbrSucces;
+	}
+
+	/**
+	 * @return nombre de résultats absents du cache
+	 */
+	public synchronized long getNbrEchecs() {
+		return nbrEchecs;
+	}
+
+	/**
+	 * Lecture propre à la politique d'éviction (appelée sous le verrou du cache).
+	 * @param cle clé de l'opération
+	 * @return résultat ou null
+	 */
+	protected abstract Integer lire(Cle cle);
+
+	/**
+	 * Écriture propre à la politique d'éviction (appelée sous le verrou du cache).
+	 * @param cle clé de l'opération
+	 * @param resultat résultat
+	 */
+	protected abstract void ecrire(Cle cle, int resultat);
+
+	/**
+	 * Clé du cache : couple (opération, opérande).
+	 */
+	protected static final class Cle {
+		private final String operation;
+		private final int operande;
+
+		Cle(String operation, int operande) {
+			this.operation = operation;
+			this.operande = operande;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Cle))
+				return false;
+			Cle autre = (Cle) o;
+			return operande == autre.operande && operation.equals(autre.operation);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * operation.hashCode() + operande;
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package tp2.serveur;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File d'exécution bornée des paquets du serveur.
+ *
+ * Chaque appel RMI est exécuté sur son propre thread : sans limite, plusieurs
+ * répartiteurs (ou tours de vérification) lancent autant de calculs que d'appels
+ * et se partagent les coeurs. Ici, les paquets sont calculés par un nombre fixe
+ * de travailleurs (un par coeur par défaut) et la file d'attente est bornée en
+ * nombre d'opérations : un paquet qui ne tient pas dans la file est refusé
+ * immédiatement, le thread RMI attend sinon la fin de son calcul.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class FileExecution {
+
+	private final ThreadPoolExecutor executeur; // Travailleurs calculant les paquets
+	private final int capacite;                 // Nombre maximal d'opérations en attente ou en cours
+	private final AtomicInteger nbrAdmises = new AtomicInteger(); // Opérations en attente ou en cours
+
+	/**
+	 * Constructeur de la file d'exécution.
+	 * @param nbrTravailleurs nombre de paquets calculés simultanément
+	 * @param capacite nombre maximal d'opérations en attente ou en cours
+	 */
+	public FileExecution(int nbrTravailleurs, int capacite) {
+		this.capacite = capacite;
+		// Chaque paquet admis contient au moins une opération : la file ne peut pas déborder
+		this.executeur = new ThreadPoolExecutor(nbrTravailleurs, nbrTravailleurs, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, capacite)), new ThreadFactory() {
+					private final AtomicInteger numero = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "file-execution-" + numero.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Admet un paquet s'il tient dans la file, puis attend la fin de son calcul.
+	 * Un paquet plus grand que la capacité est admis lorsque la file est vide,
+	 * pour qu'il ne soit pas refusé indéfiniment. La place du paquet est libérée
+	 * par le calcul lui-même à sa fin : si le thread RMI est interrompu, un calcul
+	 * en cours (qui ne réagit pas à l'interruption) la garde jusqu'à sa fin.
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @param calcul calcul du paquet
+	 * @return résultat du calcul, null si le paquet est refusé
+	 */
+	public <T> T executer(final int nbrOperations, final Callable<T> calcul) {
+		if (!admettre(nbrOperations)) {
+			System.out.println("Calcul refusé (file pleine)");
+			return null;
+		}
+
+		// Le premier qui le positionne libère la place : le calcul, ou l'appelant s'il l'abandonne avant son démarrage
+		final AtomicBoolean demarre = new AtomicBoolean(false);
+		Future<T> resultat;
+		try {
+			resultat = executeur.submit(new Callable<T>() {
+				public T call() throws Exception {
+					if (!demarre.compareAndSet(false, true)) {
+						return null;
+					}
+					try {
+						return calcul.call();
+					} finally {
+						nbrAdmises.addAndGet(-nbrOperations);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			nbrAdmises.addAndGet(-nbrOperations);
+			System.out.println("Calcul refusé (file pleine)");
+			return null;
+		}
+
+		System.out.println("Calcul accepté");
+		try {
+			return resultat.get();
+		} catch (InterruptedException e) {
+			resultat.cancel(true);
+			if (demarre.compareAndSet(false, true)) {
+				nbrAdmises.addAndGet(-nbrOperations);
+			}
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return nombre maximal d'opérations en attente ou en cours
+	 */
+	public int getCapacite() {
+		return capacite;
+	}
+
+	/**
+	 * @return nombre d'opérations en attente ou en cours
+	 */
+	public int getNbrAdmises() {
+		return nbrAdmises.get();
+	}
+
+	/**
+	 * Réserve la place d'un paquet dans la file.
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @return true si le paquet est admis
+	 */
+	private boolean admettre(int nbrOperations) {
+		while (true) {
+			int admises = nbrAdmises.get();
+
+			if (admises > 0 && admises + nbrOperations > capacite)
+				return false;
+
+			if (nbrAdmises.compareAndSet(admises, admises + nbrOperations))
+				return true;
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package tp2.serveur;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import tp2.shared.CompteurDebit;
+import tp2.shared.FormatPrometheus;
+import tp2.shared.HistogrammeLatence;
+import tp2.shared.SourceMetriques;
+
+/**
+ * Métriques d'un serveur : paquets calculés et refusés, paquets en cours,
+ * débit, histogramme de la durée des appels de calcul, profondeur de la file
+ * d'exécution et succès du cache. Publiées en JMX sous tp2:type=Serveur,nom=NOM
+ * et, avec --metriques=PORT, au format Prometheus (voir ExportMetriques).
+ *
+ * Les compteurs sont des LongAdder mis à jour sans verrou par les threads RMI ;
+ * la file et le cache ne sont lus qu'à la consultation des métriques.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class MetriquesCalcul implements MetriquesCalculMBean, SourceMetriques {
+
+	private final String nom;                                  // Nom du serveur
+	private final FileExecution fileExecution;                 // File d'exécution (null si désactivée)
+	private final CacheResultats cache;                        // Cache des résultats (null si désactivé)
+	private final LongAdder nbrPaquets = new LongAdder();      // Paquets calculés
+	private final LongAdder nbrRefus = new LongAdder();        // Paquets refusés
+	private final LongAdder paquetsEnCours = new LongAdder();  // Paquets en cours d'admission ou de calcul
+	private final CompteurDebit operations = new CompteurDebit(); // Opérations calculées
+	private final HistogrammeLatence latences = new HistogrammeLatence(); // Durée des appels de calcul acceptés
+
+	/**
+	 * Constructeur des métriques du serveur.
+	 * @param nom nom du serveur
+	 * @param fileExecution file d'exécution, null si désactivée
+	 * @param cache cache des résultats, null si désactivé
+	 */
+	public MetriquesCalcul(String nom, FileExecution fileExecution, CacheResultats cache) {
+		this.nom = nom;
+		this.fileExecution = fileExecution;
+		this.cache = cache;
+	}
+
+	/**
+	 * Réception d'un paquet.
+	 * @return instant de la réception (System.nanoTime), à passer à fin
+	 */
+	long debut() {
+		paquetsEnCours.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Fin du traitement d'un paquet.
+	 * @param debut instant de la réception
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @param accepte true si le paquet a été calculé, false s'il a été refusé
+	 */
+	void fin(long debut, int nbrOperations, boolean accepte) {
+		paquetsEnCours.decrement();
+		if (accepte) {
+			nbrPaquets.increment();
+			operations.ajouter(nbrOperations);
+			latences.enregistrer(System.nanoTime() - debut);
+		} else {
+			nbrRefus.increment();
+		}
+	}
+
+	public long getNbrPaquets() {
+		return nbrPaquets.sum();
+	}
+
+	public long getNbrOperations() {
+		return operations.getTotal();
+	}
+
+	public double getOperationsParSeconde() {
+		return operations.getParSeconde();
+	}
+
+	public long getNbrRefus() {
+		return nbrRefus.sum();
+	}
+
+	public long getPaquetsEnCours() {
+		return paquetsEnCours.sum();
+	}
+
+	public int getProfondeurFile() {
+		return fileExecution == null ? 0 : fileExecution.getNbrAdmises();
+	}
+
+	public long getSuccesCache() {
+		return cache == null ? 0 : cache.getNbrSucces();
+	}
+
+	public long getEchecsCache() {
+		return cache == null ? 0 : cache.getNbrEchecs();
+	}
+
+	public double getTauxSuccesCache() {
+		long succes = getSuccesCache();
+		long total = succes + getEchecsCache();
+		return total == 0 ? 0 : (double) succes / total;
+	}
+
+	public double getLatenceMoyenneMs() {
+		return latences.getMoyenneMs();
+	}
+
+	public double getLatenceP50Ms() {
+		return latences.getCentileMs(50);
+	}
+
+	public double getLatenceP99Ms() {
+		return latences.getCentileMs(99);
+	}
+
+	public String getHistogrammeLatence() {
+		return latences.decrire();
+	}
+
+	public void exporter(FormatPrometheus sortie) {
+		String e = "serveur=\"" + FormatPrometheus.echapper(nom) + "\"";
+		sortie.compteur("tp2_serveur_paquets_total", "Paquets calcules", e, getNbrPaquets());
+		sortie.compteur("tp2_serveur_operations_total", "Operations calculees", e, getNbrOperations());
+		sortie.jauge("tp2_serveur_operations_par_seconde", "Debit du serveur", e, getOperationsParSeconde());
+		sortie.compteur("tp2_serveur_refus_total", "Paquets refuses", e, getNbrRefus());
+		sortie.jauge("tp2_serveur_paquets_en_cours", "Paquets en cours d'admission ou de calcul", e, getPaquetsEnCours());
+		sortie.jauge("tp2_serveur_profondeur_file", "Operations en attente ou en cours dans la file d'execution", e, getProfondeurFile());
+		sortie.compteur("tp2_serveur_cache_succes_total", "Resultats trouves dans le cache", e, getSuccesCache());
+		sortie.compteur("tp2_serveur_cache_echecs_total", "Resultats absents du cache", e, getEchecsCache());
+		latences.exporter(sortie, "tp2_serveur_latence_paquet_secondes", "Duree des appels de calcul acceptes", e);
+	}
+
+}
@@ -0,0 +1,76 @@
+package tp2.serveur;
+
+/**
+ * Interface JMX des métriques d'un serveur (voir MetriquesCalcul).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public interface MetriquesCalculMBean {
+
+	/**
+	 * @return nombre de paquets calculés
+	 */
+	long getNbrPaquets();
+
+	/**
+	 * @return nombre d'opérations calculées
+	 */
+	long getNbrOperations();
+
+	/**
+	 * @return débit du serveur, en opérations par seconde
+	 */
+	double getOperationsParSeconde();
+
+	/**
+	 * @return nombre de paquets refusés
+	 */
+	long getNbrRefus();
+
+	/**
+	 * @return nombre de paquets en cours d'admission ou de calcul
+	 */
+	long getPaquetsEnCours();
+
+	/**
+	 * @return nombre d'opérations en attente ou en cours dans la file d'exécution (0 sans file)
+	 */
+	int getProfondeurFile();
+
+	/**
+	 * @return nombre de résultats trouvés dans le cache
+	 */
+	long getSuccesCache();
+
+	/**
+	 * @return nombre de résultats absents du cache
+	 */
+	long getEchecsCache();
+
+	/**
+	 * @return taux de succès du cache, entre 0 et 1 (0 sans cache)
+	 */
+	double getTauxSuccesCache();
+
+	/**
+	 * @return durée moyenne d'un paquet calculé, en millisecondes
+	 */
+	double getLatenceMoyenneMs();
+
+	/**
+	 * @return médiane estimée de la durée d'un paquet calculé, en millisecondes
+	 */
+	double getLatenceP50Ms();
+
+	/**
+	 * @return 99e centile estimé de la durée d'un paquet calculé, en millisecondes
+	 */
+	double getLatenceP99Ms();
+
+	/**
+	 * @return histogramme des durées des paquets calculés
+	 */
+	String getHistogrammeLatence();
+
+}
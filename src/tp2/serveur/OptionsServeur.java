@@ -0,0 +1,228 @@
+package tp2.serveur;
+
+import tp2.shared.CribleFacteurs;
+
+/**
+ * Options facultatives du serveur, passées au lancement après les arguments
+ * obligatoires sous la forme --nom=valeur.
+ *
+ * Options reconnues :
+ * - --fib=reference|rapide : noyau utilisé pour l'opération fib (reference par défaut)
+ * - --prime=reference|crible : noyau utilisé pour l'opération prime (reference par défaut)
+ * - --crible=N : borne initiale du crible de prime (1000000 par défaut)
+ * - --crible-max=N : borne maximale du crible, au delà on fait une division par essais (16777216 par défaut)
+ *   (les deux bornes du crible sont limitées à CribleFacteurs.BORNE_LIMITE, soit 268435456)
+ * - --parallele=N : calcul de chaque paquet sur un ForkJoinPool de N threads (0 = séquentiel, par défaut)
+ * - --cache=N : cache des N derniers résultats par (opération, opérande) (0 = désactivé, par défaut)
+ * - --cache-politique=lru|lfu : politique d'éviction du cache (lru par défaut)
+ * - --file=N : file d'exécution bornée à N opérations en attente ou en cours, les paquets qui ne tiennent pas
+ *   sont refusés immédiatement ; remplace la simulation du refus (0 = désactivée, par défaut)
+ * - --travailleurs=N : nombre de paquets calculés simultanément par la file d'exécution (nombre de coeurs par défaut)
+ * - --latence=MS : latence simulée ajoutée à chaque appel de calcul, accepté ou refusé (0 = aucune, par défaut)
+ * - --metriques=PORT : publie les métriques au format Prometheus sur http://127.0.0.1:PORT/metrics
+ *   (0 = JMX seulement, par défaut ; voir MetriquesCalcul)
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class OptionsServeur {
+
+	private boolean fibRapide = false;   // Utilisation de OperationsRapides.fib au lieu de Operations.fib
+	private boolean primeCrible = false; // Utilisation de CribleFacteurs au lieu de Operations.prime
+	private int borneCrible = 1000000;   // Borne initiale du crible
+	private int borneMaxCrible = 1 << 24; // Borne maximale du crible
+	private int nbrThreadsCalcul = 0;    // Nombre de threads du pool de calcul parallèle (0 = séquentiel)
+	private int tailleCache = 0;         // Nombre maximal de résultats en cache (0 = désactivé)
+	private String politiqueCache = "lru"; // Politique d'éviction du cache
+	private int capaciteFile = 0;        // Nombre maximal d'opérations dans la file d'exécution (0 = désactivée)
+	private int nbrTravailleurs = Runtime.getRuntime().availableProcessors(); // Travailleurs de la file d'exécution
+	private int latence = 0;             // Latence simulée de chaque appel de calcul, en millisecondes
+	private int portMetriques = 0;       // Port du point d'accès Prometheus (0 = JMX seulement)
+
+	/**
+	 * Analyse les options facultatives de la ligne de commande.
+	 * @param args arguments du serveur
+	 * @param debut indice du premier argument facultatif
+	 * @return options du serveur
+	 * @exception IllegalArgumentException si une option est inconnue ou mal formée
+	 */
+	public static OptionsServeur parse(String[] args, int debut) {
+		OptionsServeur options = new OptionsServeur();
+
+		for (int i = debut; i < args.length; i++) {
+			String[] temp = args[i].split("=", 2);
+
+			if (!temp[0].startsWith("--") || temp.length != 2) {
+				throw new IllegalArgumentException("option mal formée '" + args[i] + "' (attendu --nom=valeur)");
+			}
+
+			String nom = temp[0].substring(2);
+			String valeur = temp[1];
+
+			if (nom.equals("fib")) {
+				options.fibRapide = parseNoyau(nom, valeur, "rapide");
+			} else if (nom.equals("prime")) {
+				options.primeCrible = parseNoyau(nom, valeur, "crible");
+			} else if (nom.equals("crible")) {
+				options.borneCrible = parseBorneCrible(nom, valeur);
+			} else if (nom.equals("crible-max")) {
+				options.borneMaxCrible = parseBorneCrible(nom, valeur);
+			} else if (nom.equals("parallele")) {
+				options.nbrThreadsCalcul = valeur.equals("0") ? 0 : parseEntierPositif(nom, valeur);
+			} else if (nom.equals("cache")) {
+				options.tailleCache = valeur.equals("0") ? 0 : parseEntierPositif(nom, valeur);
+			} else if (nom.equals("cache-politique")) {
+				if (!valeur.equals("lru") && !valeur.equals("lfu")) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (lru ou lfu)");
+				}
+				options.politiqueCache = valeur;
+			} else if (nom.equals("file")) {
+				options.capaciteFile = valeur.equals("0") ? 0 : parseEntierPositif(nom, valeur);
+			} else if (nom.equals("travailleurs")) {
+				options.nbrTravailleurs = parseEntierPositif(nom, valeur);
+			} else if (nom.equals("latence")) {
+				options.latence = valeur.equals("0") ? 0 : parseEntierPositif(nom, valeur);
+			} else if (nom.equals("metriques")) {
+				options.portMetriques = valeur.equals("0") ? 0 : parseEntierPositif(nom, valeur);
+				if (options.portMetriques > 65535) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (port attendu)");
+				}
+			} else {
+				throw new IllegalArgumentException("option inconnue '" + args[i] + "'");
+			}
+		}
+
+		return options;
+	}
+
+	/**
+	 * Choix entre le noyau de référence et un noyau optimisé.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option
+	 * @param nomOptimise nom du noyau optimisé
+	 * @return true si le noyau optimisé est demandé
+	 */
+	private static boolean parseNoyau(String nom, String valeur, String nomOptimise) {
+		if (valeur.equals("reference")) {
+			return false;
+		} else if (valeur.equals(nomOptimise)) {
+			return true;
+		}
+		throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+				+ " (reference ou " + nomOptimise + ")");
+	}
+
+	/**
+	 * Lecture d'un entier strictement positif.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option
+	 * @return entier lu
+	 */
+	private static int parseEntierPositif(String nom, String valeur) {
+		int entier;
+		try {
+			entier = Integer.parseInt(valeur);
+		} catch (NumberFormatException e) {
+			entier = 0;
+		}
+		if (entier <= 0) {
+			throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+					+ " (entier strictement positif attendu)");
+		}
+		return entier;
+	}
+
+	/**
+	 * Lecture d'une borne du crible : au-delà de CribleFacteurs.BORNE_LIMITE, le
+	 * tableau du crible ne pourrait pas être alloué (ou déborderait).
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option
+	 * @return borne lue
+	 */
+	private static int parseBorneCrible(String nom, String valeur) {
+		int borne = parseEntierPositif(nom, valeur);
+		if (borne > CribleFacteurs.BORNE_LIMITE) {
+			throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+					+ " (au plus " + CribleFacteurs.BORNE_LIMITE + ")");
+		}
+		return borne;
+	}
+
+	/**
+	 * @return true si le noyau rapide de fib est utilisé
+	 */
+	public boolean isFibRapide() {
+		return fibRapide;
+	}
+
+	/**
+	 * @return true si le crible est utilisé pour prime
+	 */
+	public boolean isPrimeCrible() {
+		return primeCrible;
+	}
+
+	/**
+	 * @return borne initiale du crible
+	 */
+	public int getBorneCrible() {
+		return borneCrible;
+	}
+
+	/**
+	 * @return borne maximale du crible
+	 */
+	public int getBorneMaxCrible() {
+		return borneMaxCrible;
+	}
+
+	/**
+	 * @return nombre de threads du pool de calcul parallèle (0 = séquentiel)
+	 */
+	public int getNbrThreadsCalcul() {
+		return nbrThreadsCalcul;
+	}
+
+	/**
+	 * @return nombre maximal de résultats en cache (0 = désactivé)
+	 */
+	public int getTailleCache() {
+		return tailleCache;
+	}
+
+	/**
+	 * @return politique d'éviction du cache (lru ou lfu)
+	 */
+	public String getPolitiqueCache() {
+		return politiqueCache;
+	}
+
+	/**
+	 * @return nombre maximal d'opérations dans la file d'exécution (0 = désactivée)
+	 */
+	public int getCapaciteFile() {
+		return capaciteFile;
+	}
+
+	/**
+	 * @return nombre de paquets calculés simultanément par la file d'exécution
+	 */
+	public int getNbrTravailleurs() {
+		return nbrTravailleurs;
+	}
+
+	/**
+	 * @return latence simulée de chaque appel de calcul, en millisecondes
+	 */
+	public int getLatence() {
+		return latence;
+	}
+
+	/**
+	 * @return port du point d'accès Prometheus, 0 pour JMX seulement
+	 */
+	public int getPortMetriques() {
+		return portMetriques;
+	}
+
+}
@@ -1,5 +1,6 @@
 package tp2.serveur;
 
+import java.io.IOException;
 import java.rmi.ConnectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -8,8 +9,14 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import tp2.serveur.Operations;
+import tp2.shared.CribleFacteurs;
+import tp2.shared.ExportMetriques;
+import tp2.shared.OperationsRapides;
+import tp2.shared.PaquetCompact;
 import tp2.shared.ServeurInterface;
 
 /**
@@ -22,6 +29,12 @@ public class Serveur implements ServeurInterface  {
 	private String nomServeur;    // Nom du serveur
 	private int seuilErreur;      // Seuil de malice. (Testé avec 50%)
 	private int Q_OP_MAX;         // Nombre d'opération maximum acceptées.
+	private OptionsServeur options; // Options facultatives (choix des noyaux de calcul...)
+	private CribleFacteurs crible;  // Crible partagé par tous les calculs (null si noyau de référence)
+	private ForkJoinPool poolCalcul; // Pool de calcul parallèle d'un paquet (null si calcul séquentiel)
+	private CacheResultats cache;   // Cache des résultats par (opération, opérande) (null si désactivé)
+	private FileExecution fileExecution; // File d'exécution bornée des paquets (null : simulation du refus)
+	private MetriquesCalcul metriques;   // Métriques publiées en JMX (et Prometheus avec --metriques)
 	
 	/**
 	 * Constructeur du serveur. Hydrate simplement les attributs
@@ -30,10 +43,54 @@ public class Serveur implements ServeurInterface  {
 	 * @param nbrOperationMax
 	 */
 	public Serveur(String nomServeur, int seuilErreur, int nbrOperationMax){
+		this(nomServeur, seuilErreur, nbrOperationMax, new OptionsServeur());
+	}
+	
+	/**
+	 * Constructeur du serveur avec options facultatives.
+	 * @param nomServeur
+	 * @param seuilErreur
+	 * @param nbrOperationMax
+	 * @param options
+	 */
+	public Serveur(String nomServeur, int seuilErreur, int nbrOperationMax, OptionsServeur options){
 		super();
 		this.nomServeur = nomServeur;
 		this.seuilErreur = seuilErreur;
 		this.Q_OP_MAX = nbrOperationMax;
+		this.options = options;
+		
+		if (options.isPrimeCrible()) {
+			this.crible = new CribleFacteurs(options.getBorneCrible(), options.getBorneMaxCrible());
+		}
+		if (options.getNbrThreadsCalcul() > 0) {
+			this.poolCalcul = new ForkJoinPool(options.getNbrThreadsCalcul());
+		}
+		if (options.getTailleCache() > 0) {
+			this.cache = CacheResultats.creer(options.getPolitiqueCache(), options.getTailleCache());
+		}
+		if (options.getCapaciteFile() > 0) {
+			this.fileExecution = new FileExecution(options.getNbrTravailleurs(), options.getCapaciteFile());
+		}
+		
+		this.metriques = new MetriquesCalcul(nomServeur, fileExecution, cache);
+		publierMetriques();
+	}
+	
+	/**
+	 * Enregistrement des métriques du serveur en JMX, puis démarrage du point d'accès
+	 * Prometheus si un port est donné (partagé par les serveurs d'une même JVM).
+	 */
+	private void publierMetriques() {
+		ExportMetriques.enregistrer("tp2:type=Serveur,nom=" + nomServeur, metriques);
+		
+		if (options.getPortMetriques() > 0) {
+			try {
+				ExportMetriques.demarrer(options.getPortMetriques());
+			} catch (IOException e) {
+				System.out.println("Erreur: point d'accès des métriques indisponible sur le port " + options.getPortMetriques() + " (" + e.getMessage() + ")");
+			}
+		}
 	}
 	
 	/**
@@ -45,25 +102,29 @@ public class Serveur implements ServeurInterface  {
 	 * - seuil d'erreur
 	 * - addresse du rmiregistry
 	 * - port du rmiregistry
+	 * - options facultatives de la forme --nom=valeur (voir OptionsServeur)
 	 */
 	public static void main(String[] args) {
 		
-		if(args.length == 5){
+		if(args.length >= 5){
 			String nomServeur = args[0];
 			try {
 				int nbrOperationMax = Integer.parseInt(args[1]);
 				int seuilErreur = Integer.parseInt(args[2]);
 				int port = Integer.parseInt(args[3]);
+				OptionsServeur options = OptionsServeur.parse(args, 5);
 				
-				Serveur serveur = new Serveur(nomServeur, seuilErreur, nbrOperationMax);
+				Serveur serveur = new Serveur(nomServeur, seuilErreur, nbrOperationMax, options);
 				serveur.run(port);
 			} catch (NumberFormatException e){
 				System.err.println("Erreur: " + e.getMessage());
+			} catch (IllegalArgumentException e){
+				System.err.println("Erreur: " + e.getMessage());
 			}
 
 		} else {
 			System.out.println("Arguments du serveur incorrects. Veuillez rentrer une commande de la forme : \n"
-					+ "./serveur nomDuServeur nbrOperationMax seuilErreur adresseDuRegistry portDuRegistry");
+					+ "./serveur nomDuServeur nbrOperationMax seuilErreur adresseDuRegistry portDuRegistry [--fib=reference|rapide] [--prime=reference|crible] [--crible=N] [--crible-max=N] [--parallele=N] [--cache=N] [--cache-politique=lru|lfu] [--file=N] [--travailleurs=N] [--latence=MS] [--metriques=PORT]");
 		}
 	}
 	
@@ -105,38 +166,106 @@ public class Serveur implements ServeurInterface  {
 	 */
 	public int calculOperations(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
 		
-		int sommeTotale = 0;  //Variable local servant au calcul du paquet d'opération
-		int nbrOperations = 0;
+		int nbrOperations = compterOperations(operations);
+		String[] nomsOperation = new String[nbrOperations];
+		int[] operandes = new int[nbrOperations];
+		aplatir(operations, nomsOperation, operandes);
+		
+		return calculSomme(nomsOperation, operandes);
+	}
+	
+	/**
+	 * Variante de calculOperations renvoyant le résultat de chaque opérande.
+	 * @param operations Opérations envoyées par le répartiteur
+	 * @return résultats modulo 5000, de même structure que operations (null si le calcul est refusé)
+	 * @exception RemoteException Lance l'exception si erreur de connexion.
+	 */
+	public HashMap<String, ArrayList<Integer>> calculOperationsDetail(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
 		
-		//On récupère le nombre d'opération contenu dans le paquet. 
+		int nbrOperations = compterOperations(operations);
+		String[] nomsOperation = new String[nbrOperations];
+		int[] operandes = new int[nbrOperations];
+		aplatir(operations, nomsOperation, operandes);
+		
+		int[] resultats = calculDetail(nomsOperation, operandes);
+		
+		if (resultats == null) {
+			return null;
+		}
+		
+		//On remet les résultats dans la même structure que les opérations reçues.
+		HashMap<String, ArrayList<Integer>> listeResultats = new HashMap<String, ArrayList<Integer>>();
+		int indice = 0;
 		for(String s : operations.keySet()){
-			nbrOperations = nbrOperations + operations.get(s).size();
+			ArrayList<Integer> resultatsOperation = new ArrayList<Integer>(operations.get(s).size());
+			for(int j = 0; j < operations.get(s).size(); j++){
+				resultatsOperation.add(resultats[indice++]);
+			}
+			listeResultats.put(s, resultatsOperation);
+		}
+		
+		return listeResultats;
+	}
+	
+	/**
+	 * Variante compacte de calculOperations (voir PaquetCompact).
+	 * @param codes code de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @exception RemoteException Lance l'exception si erreur de connexion.
+	 */
+	public int calculOperationsCompact(byte[] codes, int[] operandes) throws RemoteException {
+		return calculSomme(decoder(codes), operandes);
+	}
+	
+	/**
+	 * Variante compacte de calculOperationsDetail (voir PaquetCompact).
+	 * @param codes code de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @return résultat modulo 5000 de chaque élément (null si le calcul est refusé)
+	 * @exception RemoteException Lance l'exception si erreur de connexion.
+	 */
+	public int[] calculOperationsCompactDetail(byte[] codes, int[] operandes) throws RemoteException {
+		return calculDetail(decoder(codes), operandes);
+	}
+	
+	/**
+	 * Capacité du serveur : taille de paquet acceptée sans refus. 
+	 * Le taux de refus simulé par operationsAcceptees est nul tant que le paquet 
+	 * ne dépasse pas Q_OP_MAX opérations. Avec la file d'exécution, c'est la taille 
+	 * de la file (un paquet est alors refusé seulement si la file est occupée).
+	 * La capacité ne change pas pendant la vie du serveur : un répartiteur
+	 * l'interroge une fois par connexion, les refus réduisant ensuite la taille
+	 * de ses paquets.
+	 * @return nombre d'opérations acceptées sans refus
+	 * @exception RemoteException Lance l'exception si erreur de connexion.
+	 */
+	public int capacite() throws RemoteException {
+		if (fileExecution != null) {
+			return fileExecution.getCapacite();
 		}
+		return Q_OP_MAX;
+	}
+	
+	/**
+	 * Calcul de la somme d'un paquet mis à plat, avec simulation du refus et de la malice.
+	 * @param nomsOperation nom de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @return somme modulo 5000 (éventuellement fausse), -1 si le calcul est refusé
+	 */
+	private int calculSomme(String[] nomsOperation, int[] operandes) {
 		
+		int sommeTotale = 0;  //Variable local servant au calcul du paquet d'opération
+		int nbrOperations = operandes.length;
 		
 		Random rnd = new Random();
 		int RndMalice = rnd.nextInt(100) + 1;   //Nombre aléatoire pour simuler la malice
 		int RndResultFaux = rnd.nextInt(5001);  //Résultat faux généré au hasard (1/5000 pour avoir un bon résultat)
 		
-		//Si test si on peut accepter le résultat
-		if(operationsAcceptees(nbrOperations))
+		//Si test si on peut accepter le résultat, et calcul du paquet
+		Integer somme = admettreEtCalculer(nomsOperation, operandes, null);
+		if(somme != null)
 		{
-			System.out.println("Calcul en cours de " + nbrOperations + " opérations");
-			
-			//Parcours de la liste d'opération et calcul de chaque opérations.
-			for(String s : operations.keySet()){
-				if (s.equals("fib")){
-					for(Integer i : operations.get(s)){
-							sommeTotale = ((Operations.fib(i) % 5000) + sommeTotale) % 5000;
-					}
-				} else if (s.equals("prime")){
-					for(Integer i : operations.get(s)){
-							sommeTotale = ((Operations.prime(i) % 5000) + sommeTotale) % 5000;
-					}
-				} 
-			}
-			
-			System.out.println("Calcul terminé");
+			sommeTotale = somme;
 			
 			//Si on est en dessous du seuil d'erreur alors on renvoie un résultat faux !
 			if(RndMalice <= seuilErreur)
@@ -154,6 +283,232 @@ public class Serveur implements ServeurInterface  {
 		}
 	}
 	
+	/**
+	 * Calcul du résultat de chaque élément d'un paquet mis à plat, avec simulation 
+	 * du refus et de la malice (un des résultats est alors faux).
+	 * @param nomsOperation nom de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @return résultat modulo 5000 de chaque élément, null si le calcul est refusé
+	 */
+	private int[] calculDetail(String[] nomsOperation, int[] operandes) {
+		
+		int nbrOperations = operandes.length;
+		
+		Random rnd = new Random();
+		int RndMalice = rnd.nextInt(100) + 1;   //Nombre aléatoire pour simuler la malice
+		
+		int[] resultats = new int[nbrOperations];
+		
+		if(admettreEtCalculer(nomsOperation, operandes, resultats) != null)
+		{
+			//Si on est en dessous du seuil d'erreur, un des résultats est faux !
+			if(RndMalice <= seuilErreur && nbrOperations > 0)
+			{
+				resultats[rnd.nextInt(nbrOperations)] = rnd.nextInt(5000);
+			}
+			
+			return resultats;
+		}
+		else 
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Admission d'un paquet puis calcul, mesurés dans les métriques du serveur
+	 * (durée de l'appel, latence simulée comprise, et refus).
+	 * @param nomsOperation nom de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @param resultats tableau recevant le résultat de chaque élément, ou null
+	 * @return somme modulo 5000, null si le calcul est refusé
+	 */
+	private Integer admettreEtCalculer(String[] nomsOperation, int[] operandes, int[] resultats) {
+		long debut = metriques.debut();
+		Integer somme = null;
+		
+		try {
+			somme = admettre(nomsOperation, operandes, resultats);
+			return somme;
+		} finally {
+			metriques.fin(debut, operandes.length, somme != null);
+		}
+	}
+	
+	/**
+	 * Admission d'un paquet puis calcul : par la file d'exécution bornée si elle est 
+	 * activée, sinon avec la simulation du refus (operationsAcceptees).
+	 * @param nomsOperation nom de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @param resultats tableau recevant le résultat de chaque élément, ou null
+	 * @return somme modulo 5000, null si le calcul est refusé
+	 */
+	private Integer admettre(final String[] nomsOperation, final int[] operandes, final int[] resultats) {
+		final int nbrOperations = operandes.length;
+		simulerLatence();
+		
+		Callable<Integer> calcul = new Callable<Integer>() {
+			public Integer call() {
+				System.out.println("Calcul en cours de " + nbrOperations + " opérations");
+				int somme = calculPaquet(nomsOperation, operandes, resultats);
+				afficherFinCalcul();
+				return somme;
+			}
+		};
+		
+		if (fileExecution != null) {
+			return fileExecution.executer(nbrOperations, calcul);
+		}
+		
+		if (!operationsAcceptees(nbrOperations)) {
+			return null;
+		}
+		
+		try {
+			return calcul.call();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Latence simulée d'un appel de calcul (option --latence), par exemple pour
+	 * reproduire un serveur distant ou plus lent que les autres.
+	 */
+	private void simulerLatence() {
+		if (options.getLatence() > 0) {
+			try {
+				Thread.sleep(options.getLatence());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Conversion des codes d'opération d'un paquet compact en noms d'opération.
+	 * @param codes codes des opérations
+	 * @return noms des opérations (null pour un code inconnu, calculé comme 0)
+	 */
+	private static String[] decoder(byte[] codes) {
+		String[] nomsOperation = new String[codes.length];
+		
+		for(int i = 0; i < codes.length; i++){
+			nomsOperation[i] = PaquetCompact.nom(codes[i]);
+		}
+		
+		return nomsOperation;
+	}
+	
+	/**
+	 * @param operations paquet d'opérations
+	 * @return nombre d'opérations contenu dans le paquet
+	 */
+	private static int compterOperations(HashMap<String, ArrayList<Integer>> operations) {
+		int nbrOperations = 0;
+		
+		for(String s : operations.keySet()){
+			nbrOperations = nbrOperations + operations.get(s).size();
+		}
+		
+		return nbrOperations;
+	}
+	
+	/**
+	 * Met à plat un paquet dans deux tableaux, dans l'ordre de parcours de la table de hachage.
+	 * @param operations paquet d'opérations
+	 * @param nomsOperation nom de l'opération de chaque élément (rempli)
+	 * @param operandes opérande de chaque élément (rempli)
+	 */
+	private static void aplatir(HashMap<String, ArrayList<Integer>> operations, String[] nomsOperation, int[] operandes) {
+		int indice = 0;
+		
+		for(String s : operations.keySet()){
+			for(Integer i : operations.get(s)){
+				nomsOperation[indice] = s;
+				operandes[indice] = i;
+				indice++;
+			}
+		}
+	}
+	
+	/**
+	 * Calcul d'un paquet mis à plat, en séquentiel ou réparti sur le ForkJoinPool du serveur
+	 * (découpage récursif par TacheCalcul).
+	 * @param nomsOperation nom de l'opération de chaque élément
+	 * @param operandes opérande de chaque élément
+	 * @param resultats si non null, reçoit le résultat de chaque élément
+	 * @return somme des résultats modulo 5000
+	 */
+	private int calculPaquet(String[] nomsOperation, int[] operandes, int[] resultats) {
+		if (poolCalcul != null) {
+			return poolCalcul.invoke(new TacheCalcul(this, nomsOperation, operandes, resultats, 0, operandes.length));
+		}
+		
+		int sommeTotale = 0;
+		
+		//Parcours de la liste d'opération et calcul de chaque opérations.
+		for(int i = 0; i < operandes.length; i++){
+			int resultat = calculOperation(nomsOperation[i], operandes[i]);
+			if (resultats != null) {
+				resultats[i] = resultat;
+			}
+			sommeTotale = (resultat + sommeTotale) % 5000;
+		}
+		
+		return sommeTotale;
+	}
+	
+	/**
+	 * Affichage de fin de calcul d'un paquet.
+	 */
+	private void afficherFinCalcul() {
+		System.out.println("Calcul terminé");
+		if (cache != null) {
+			System.out.println("Cache : " + cache.getNbrSucces() + " succès / " + cache.getNbrEchecs() + " échecs");
+		}
+	}
+	
+	/**
+	 * Calcul d'une opération en passant par le cache de résultats s'il est activé.
+	 * Appelée depuis le thread RMI ou depuis les TacheCalcul du pool.
+	 * @param operation nom de l'opération (fib ou prime)
+	 * @param operande opérande
+	 * @return résultat modulo 5000 (0 si l'opération est inconnue)
+	 */
+	int calculOperation(String operation, int operande) {
+		if (cache == null || operation == null)
+			return calculNoyau(operation, operande);
+		
+		Integer resultat = cache.get(operation, operande);
+		
+		if (resultat == null) {
+			resultat = calculNoyau(operation, operande);
+			cache.put(operation, operande, resultat);
+		}
+		
+		return resultat;
+	}
+	
+	/**
+	 * Calcul d'une opération avec le noyau choisi au lancement du serveur.
+	 * @param operation nom de l'opération (fib ou prime)
+	 * @param operande opérande
+	 * @return résultat modulo 5000 (0 si l'opération est inconnue)
+	 */
+	private int calculNoyau(String operation, int operande) {
+		if ("fib".equals(operation)){
+			if (options.isFibRapide())
+				return OperationsRapides.fib(operande);
+			return Operations.fib(operande) % 5000;
+		} else if ("prime".equals(operation)){
+			if (crible != null)
+				return crible.prime(operande) % 5000;
+			return Operations.prime(operande) % 5000;
+		}
+		return 0;
+	}
+	
 	/**
 	 * Méthode qui permet de vérifier la disponibilité du serveur.
 	 * @param nbrOperationsSoumises Paramètre servant à la simulation de la disponibilité du serveur.
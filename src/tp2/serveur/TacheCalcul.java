@@ -0,0 +1,74 @@
+package tp2.serveur;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tâche de calcul d'une portion de paquet exécutée sur le ForkJoinPool du serveur.
+ *
+ * La portion [debut, fin[ est coupée en deux tant qu'elle contient plus de
+ * SEUIL_DECOUPAGE opérations. Les sommes partielles sont combinées avec la
+ * même réduction modulo 5000 que le calcul séquentiel.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class TacheCalcul extends RecursiveTask<Integer> {
+
+	private static final long serialVersionUID = 1L;
+
+	// Les opérations étant coûteuses et de coût très variable, on descend jusqu'à l'opération unitaire
+	private static final int SEUIL_DECOUPAGE = 1;
+
+	private final Serveur serveur;        // Serveur fournissant les noyaux de calcul
+	private final String[] nomsOperation; // Nom de l'opération de chaque élément du paquet
+	private final int[] operandes;        // Opérande de chaque élément du paquet
+	private final int[] resultats;        // Résultat de chaque élément (null si seule la somme est demandée)
+	private final int debut;              // Début de la portion (inclus)
+	private final int fin;                // Fin de la portion (exclus)
+
+	/**
+	 * Constructeur de la tâche.
+	 * @param serveur serveur fournissant les noyaux
+	 * @param nomsOperation noms des opérations du paquet
+	 * @param operandes opérandes du paquet
+	 * @param resultats tableau recevant le résultat de chaque élément, ou null
+	 * @param debut début de la portion (inclus)
+	 * @param fin fin de la portion (exclus)
+	 */
+	public TacheCalcul(Serveur serveur, String[] nomsOperation, int[] operandes, int[] resultats, int debut, int fin) {
+		this.serveur = serveur;
+		this.nomsOperation = nomsOperation;
+		this.operandes = operandes;
+		this.resultats = resultats;
+		this.debut = debut;
+		this.fin = fin;
+	}
+
+	/**
+	 * Calcul de la somme modulo 5000 de la portion.
+	 */
+	@Override
+	protected Integer compute() {
+		if (fin - debut <= SEUIL_DECOUPAGE) {
+			int somme = 0;
+			for (int i = debut; i < fin; i++) {
+				int resultat = serveur.calculOperation(nomsOperation[i], operandes[i]);
+				if (resultats != null) {
+					resultats[i] = resultat;
+				}
+				somme = (resultat + somme) % 5000;
+			}
+			return somme;
+		}
+
+		int milieu = (debut + fin) >>> 1;
+		TacheCalcul gauche = new TacheCalcul(serveur, nomsOperation, operandes, resultats, debut, milieu);
+		TacheCalcul droite = new TacheCalcul(serveur, nomsOperation, operandes, resultats, milieu, fin);
+
+		gauche.fork();
+		int sommeDroite = droite.compute();
+
+		return (gauche.join() + sommeDroite) % 5000;
+	}
+
+}
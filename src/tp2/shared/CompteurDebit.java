@@ -0,0 +1,51 @@
+package tp2.shared;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteur d'opérations avec débit. L'ajout n'incrémente qu'un LongAdder ;
+ * le débit est calculé à la lecture, sur l'intervalle écoulé depuis la
+ * lecture précédente (au moins une seconde, sinon le débit précédent est
+ * renvoyé), de sorte que JMX et Prometheus peuvent le lire en même temps.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class CompteurDebit {
+
+	private static final long INTERVALLE_MIN = 1000000000L; // Intervalle minimal entre deux calculs du débit, en nanosecondes
+
+	private final LongAdder total = new LongAdder(); // Nombre total d'opérations
+	private long totalPrecedent = 0;                 // Total lors du dernier calcul du débit
+	private long instantPrecedent = System.nanoTime(); // Instant du dernier calcul du débit
+	private double debit = 0;                        // Dernier débit calculé
+
+	/**
+	 * @param nombre nombre d'opérations à ajouter
+	 */
+	public void ajouter(long nombre) {
+		total.add(nombre);
+	}
+
+	/**
+	 * @return nombre total d'opérations
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * @return débit en opérations par seconde depuis le calcul précédent
+	 */
+	public synchronized double getParSeconde() {
+		long instant = System.nanoTime();
+		if (instant - instantPrecedent >= INTERVALLE_MIN) {
+			long valeur = total.sum();
+			debit = (valeur - totalPrecedent) * 1e9 / (instant - instantPrecedent);
+			totalPrecedent = valeur;
+			instantPrecedent = instant;
+		}
+		return debit;
+	}
+
+}
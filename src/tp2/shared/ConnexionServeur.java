@@ -0,0 +1,290 @@
+package tp2.shared;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Connexion d'un répartiteur vers un serveur. Choisit la méthode distante
+ * à appeler pour un paquet :
+ * - format compact (calculOperationsCompact) si le serveur le supporte,
+ *   sinon la table de hachage d'origine (calculOperations) ;
+ * - variante détaillée par opérande lorsque la déduplication est activée.
+ * Elle interroge aussi la capacité du serveur pour dimensionner les paquets.
+ *
+ * Un serveur d'une version précédente ne connaît pas les méthodes compactes
+ * ni la capacité : l'appel échoue alors avec une UnmarshalException côté
+ * serveur, et la connexion se rabat définitivement sur la table de hachage
+ * (ou considère la capacité comme inconnue).
+ *
+ * Chaque envoi est mesuré dans les métriques du serveur (voir MetriquesServeurDistant) :
+ * paquet en vol, durée de l'aller-retour, refus ou perte de connexion.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ConnexionServeur {
+
+	private final ServeurInterface serveur;    // Stub du serveur distant
+	private volatile boolean compact;          // Utilisation du format compact
+	private volatile boolean capaciteSupportee = true; // Le serveur répond à capacite()
+	private final MetriquesServeurDistant metriques;   // Métriques du serveur (null : pas de mesure)
+
+	/**
+	 * Constructeur de la connexion.
+	 * @param serveur stub du serveur distant
+	 * @param compact préférer le format compact
+	 */
+	public ConnexionServeur(ServeurInterface serveur, boolean compact) {
+		this(serveur, compact, null);
+	}
+
+	/**
+	 * Constructeur de la connexion avec mesure des envois.
+	 * @param serveur stub du serveur distant
+	 * @param compact préférer le format compact
+	 * @param metriques métriques du serveur, null pour ne pas mesurer
+	 */
+	public ConnexionServeur(ServeurInterface serveur, boolean compact, MetriquesServeurDistant metriques) {
+		this.serveur = serveur;
+		this.compact = compact;
+		this.metriques = metriques;
+	}
+
+	/**
+	 * Envoie un paquet d'opérations au serveur.
+	 * Avec la déduplication, le serveur renvoie le résultat de chaque opérande,
+	 * qui est pondéré par sa multiplicité dans le fichier d'opérations.
+	 *
+	 * @param operations paquet d'opérations à calculer
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	public int calculPaquet(HashMap<String, ArrayList<Integer>> operations, TableMultiplicites multiplicites) throws RemoteException {
+		long debut = envoi();
+
+		try {
+			Integer resultat = envoyerCompact(compact ? PaquetCompact.depuis(operations) : null, multiplicites);
+
+			if (resultat == null) {
+				resultat = envoyerTable(operations, multiplicites);
+			}
+
+			reponse(debut, taille(operations), resultat != -1);
+			return resultat;
+		} catch (RemoteException e) {
+			deconnexion();
+			throw e;
+		}
+	}
+
+	/**
+	 * Envoie un paquet d'opérations du réservoir au serveur. Le format compact est
+	 * construit directement depuis les tranches, la table de hachage n'est créée
+	 * que pour un serveur qui ne supporte pas le format compact.
+	 *
+	 * @param operations paquet d'opérations à calculer
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	public int calculPaquet(PaquetOperations operations, TableMultiplicites multiplicites) throws RemoteException {
+		long debut = envoi();
+
+		try {
+			Integer resultat = envoyerCompact(compact ? operations.versCompact() : null, multiplicites);
+
+			if (resultat == null) {
+				resultat = envoyerTable(operations.versTable(), multiplicites);
+			}
+
+			reponse(debut, operations.taille(), resultat != -1);
+			return resultat;
+		} catch (RemoteException e) {
+			deconnexion();
+			throw e;
+		}
+	}
+
+	/**
+	 * Envoi au format compact.
+	 * @param paquet paquet compact, null si le format compact n'est pas utilisé
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @return résultat du paquet (-1 si refusé), null si le paquet n'a pas été envoyé
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private Integer envoyerCompact(PaquetCompact paquet, TableMultiplicites multiplicites) throws RemoteException {
+		if (paquet == null) {
+			return null;
+		}
+
+		try {
+			if (multiplicites == null) {
+				return serveur.calculOperationsCompact(paquet.getCodes(), paquet.getOperandes());
+			}
+
+			int[] resultats = serveur.calculOperationsCompactDetail(paquet.getCodes(), paquet.getOperandes());
+
+			if (resultats == null) {
+				return -1;
+			}
+
+			return multiplicites.sommePonderee(paquet, resultats);
+		} catch (ServerException e) {
+			if (!(e.getCause() instanceof UnmarshalException)) {
+				throw e;
+			}
+			System.out.println("Format compact non supporté par le serveur, utilisation de la table de hachage");
+			compact = false;
+			return null;
+		}
+	}
+
+	/**
+	 * Envoi sous forme de table de hachage (serveurs d'une version précédente).
+	 * @param operations paquet d'opérations à calculer
+	 * @param multiplicites multiplicités des opérandes, null si pas de déduplication
+	 * @return résultat du paquet, -1 si le serveur a refusé le calcul
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private int envoyerTable(HashMap<String, ArrayList<Integer>> operations, TableMultiplicites multiplicites) throws RemoteException {
+		if (multiplicites == null) {
+			return serveur.calculOperations(operations);
+		}
+
+		HashMap<String, ArrayList<Integer>> resultats = serveur.calculOperationsDetail(operations);
+
+		if (resultats == null) {
+			return -1;
+		}
+
+		return multiplicites.sommePonderee(operations, resultats);
+	}
+
+	/**
+	 * Envoie un paquet d'opérations au serveur et récupère le résultat de chaque opérande.
+	 *
+	 * @param operations paquet d'opérations à calculer
+	 * @return résultats modulo 5000, de même structure que operations (null si le serveur a refusé le calcul)
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	public HashMap<String, ArrayList<Integer>> calculPaquetDetail(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
+		long debut = envoi();
+
+		try {
+			HashMap<String, ArrayList<Integer>> resultats = envoyerDetail(operations);
+			reponse(debut, taille(operations), resultats != null);
+			return resultats;
+		} catch (RemoteException e) {
+			deconnexion();
+			throw e;
+		}
+	}
+
+	/**
+	 * Envoi d'un paquet avec résultat de chaque opérande, au format compact si possible.
+	 * @param operations paquet d'opérations à calculer
+	 * @return résultats modulo 5000, de même structure que operations (null si le serveur a refusé le calcul)
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	private HashMap<String, ArrayList<Integer>> envoyerDetail(HashMap<String, ArrayList<Integer>> operations) throws RemoteException {
+		PaquetCompact paquet = compact ? PaquetCompact.depuis(operations) : null;
+
+		if (paquet != null) {
+			try {
+				int[] resultats = serveur.calculOperationsCompactDetail(paquet.getCodes(), paquet.getOperandes());
+
+				if (resultats == null) {
+					return null;
+				}
+
+				// Les résultats sont dans l'ordre de parcours de la table de hachage (voir PaquetCompact.depuis)
+				HashMap<String, ArrayList<Integer>> listeResultats = new HashMap<String, ArrayList<Integer>>();
+				int indice = 0;
+				for (String s : operations.keySet()) {
+					ArrayList<Integer> resultatsOperation = new ArrayList<Integer>(operations.get(s).size());
+					for (int j = 0; j < operations.get(s).size(); j++) {
+						resultatsOperation.add(resultats[indice++]);
+					}
+					listeResultats.put(s, resultatsOperation);
+				}
+
+				return listeResultats;
+			} catch (ServerException e) {
+				if (!(e.getCause() instanceof UnmarshalException)) {
+					throw e;
+				}
+				System.out.println("Format compact non supporté par le serveur, utilisation de la table de hachage");
+				compact = false;
+			}
+		}
+
+		return serveur.calculOperationsDetail(operations);
+	}
+
+	/**
+	 * Interroge la capacité du serveur.
+	 * @return nombre d'opérations acceptées sans refus, Integer.MAX_VALUE si le serveur ne la fournit pas
+	 * @throws RemoteException si la connexion avec le serveur est perdue
+	 */
+	public int capacite() throws RemoteException {
+		if (capaciteSupportee) {
+			try {
+				return Math.max(1, serveur.capacite());
+			} catch (ServerException e) {
+				if (!(e.getCause() instanceof UnmarshalException)) {
+					throw e;
+				}
+				System.out.println("Capacité non fournie par le serveur, taille des paquets ajustée par les refus");
+				capaciteSupportee = false;
+			}
+		}
+
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Début de la mesure d'un envoi.
+	 * @return instant de l'envoi, 0 sans métriques
+	 */
+	private long envoi() {
+		return metriques == null ? 0 : metriques.envoi();
+	}
+
+	/**
+	 * Fin de la mesure d'un envoi auquel le serveur a répondu.
+	 * @param debut instant de l'envoi
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @param accepte true si le paquet a été calculé
+	 */
+	private void reponse(long debut, int nbrOperations, boolean accepte) {
+		if (metriques != null) {
+			metriques.reponse(debut, nbrOperations, accepte);
+		}
+	}
+
+	/**
+	 * Fin de la mesure d'un envoi interrompu par une perte de connexion.
+	 */
+	private void deconnexion() {
+		if (metriques != null) {
+			metriques.deconnexion();
+		}
+	}
+
+	/**
+	 * @param operations paquet d'opérations
+	 * @return nombre d'opérations du paquet
+	 */
+	private static int taille(HashMap<String, ArrayList<Integer>> operations) {
+		int taille = 0;
+		for (ArrayList<Integer> operandes : operations.values()) {
+			taille += operandes.size();
+		}
+		return taille;
+	}
+
+}
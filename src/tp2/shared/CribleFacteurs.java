@@ -0,0 +1,138 @@
+package tp2.shared;
+
+/**
+ * Crible du plus petit facteur premier, partagé par tous les appels
+ * concurrents de calculOperations d'un même serveur (ou par les threads
+ * d'un répartiteur qui contrôle localement les résultats).
+ *
+ * Le crible est construit une fois jusqu'à une borne initiale puis agrandi
+ * à la demande lorsqu'un opérande plus grand arrive (au plus jusqu'à borneMax).
+ * La lecture se fait sans verrou : le tableau publié n'est jamais modifié,
+ * un agrandissement construit un nouveau tableau puis le publie via le champ volatile.
+ * Au delà de borneMax, on se rabat sur une division par essais en O(sqrt(x)).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class CribleFacteurs {
+
+	public static final int BORNE_LIMITE = 1 << 28; // Plus grande borne acceptée (crible de 1 Go), loin du débordement du tableau
+
+	private volatile int[] plusPetitFacteur;   // plusPetitFacteur[i] = plus petit facteur premier de i (i >= 2)
+	private final int borneMax;                // Taille maximale du crible
+
+	/**
+	 * Constructeur du crible.
+	 * @param borneInitiale borne jusqu'à laquelle le crible est construit immédiatement
+	 * @param borneMax borne maximale atteignable par agrandissement (ramenée à BORNE_LIMITE)
+	 */
+	public CribleFacteurs(int borneInitiale, int borneMax) {
+		this.borneMax = Math.min(Math.max(borneMax, 2), BORNE_LIMITE);
+		this.plusPetitFacteur = construire(Math.min(Math.max(borneInitiale, 2), this.borneMax));
+	}
+
+	/**
+	 * Plus grand facteur premier de x en O(log x) (même résultat que tp2.serveur.Operations.prime).
+	 * @param x opérande
+	 * @return plus grand facteur premier de x, 0 si x <= 1
+	 */
+	public int prime(int x) {
+		if (x <= 1)
+			return 0;
+
+		int[] crible = plusPetitFacteur;
+
+		if (x >= crible.length) {
+			if (x > borneMax)
+				return primeParDivision(x);
+			crible = agrandir(x);
+		}
+
+		int plusGrandFacteur = 0;
+
+		// Les facteurs sont extraits par ordre croissant : le dernier est le plus grand.
+		while (x > 1)
+		{
+			int facteur = crible[x];
+			plusGrandFacteur = facteur;
+			while (x % facteur == 0)
+				x /= facteur;
+		}
+
+		return plusGrandFacteur;
+	}
+
+	/**
+	 * @return borne actuelle du crible
+	 */
+	public int getBorne() {
+		return plusPetitFacteur.length - 1;
+	}
+
+	/**
+	 * Agrandit le crible pour contenir x. Au moins double la taille pour
+	 * amortir les reconstructions. Un seul thread reconstruit à la fois,
+	 * les lecteurs continuent sur l'ancien tableau pendant ce temps.
+	 * @param x opérande à couvrir
+	 * @return crible couvrant x
+	 */
+	private synchronized int[] agrandir(int x) {
+		int[] crible = plusPetitFacteur;
+
+		// Un autre thread a peut être déjà agrandi le crible
+		if (x < crible.length)
+			return crible;
+
+		long nouvelleBorne = Math.max((long) x, 2L * crible.length);
+		crible = construire((int) Math.min(nouvelleBorne, borneMax));
+		System.out.println("Crible agrandi jusqu'à " + (crible.length - 1));
+
+		plusPetitFacteur = crible;
+		return crible;
+	}
+
+	/**
+	 * Construction du crible d'Eratosthène du plus petit facteur.
+	 * @param borne plus grand entier couvert
+	 * @return tableau des plus petits facteurs
+	 */
+	private static int[] construire(int borne) {
+		int[] crible = new int[borne + 1];
+
+		for (int i = 2; i <= borne; ++i)
+		{
+			if (crible[i] == 0)
+			{
+				crible[i] = i;
+				for (long j = (long) i * i; j <= borne; j += i)
+				{
+					if (crible[(int) j] == 0)
+						crible[(int) j] = i;
+				}
+			}
+		}
+
+		return crible;
+	}
+
+	/**
+	 * Plus grand facteur premier par division par essais, pour les opérandes hors crible.
+	 * @param x opérande (> 1)
+	 * @return plus grand facteur premier
+	 */
+	private static int primeParDivision(int x) {
+		int plusGrandFacteur = 1;
+
+		for (int i = 2; (long) i * i <= x; ++i)
+		{
+			while (x % i == 0)
+			{
+				plusGrandFacteur = i;
+				x /= i;
+			}
+		}
+
+		return x > 1 ? x : plusGrandFacteur;
+	}
+
+}
@@ -0,0 +1,125 @@
+package tp2.shared;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publication des métriques d'une JVM (répartiteur ou serveurs) :
+ * - chaque objet de métriques est enregistré comme MBean dans le domaine "tp2"
+ *   du serveur MBean de la plateforme (consultable avec jconsole ou VisualVM) ;
+ * - les sources de métriques sont aussi publiées au format texte de Prometheus
+ *   sur http://127.0.0.1:PORT/metrics lorsque le point d'accès est démarré
+ *   (option --metriques=PORT). Il n'écoute que sur la boucle locale.
+ *
+ * Plusieurs serveurs lancés dans la même JVM (harnais de charge) partagent le
+ * même point d'accès : leurs métriques sont distinguées par leurs étiquettes.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ExportMetriques {
+
+	private static final Map<String, SourceMetriques> sources = new LinkedHashMap<String, SourceMetriques>(); // Sources publiées, par nom JMX
+	private static HttpServer pointAcces;  // Point d'accès Prometheus (null si non démarré)
+
+	private ExportMetriques() {
+	}
+
+	/**
+	 * Enregistrement d'un objet de métriques comme MBean. Un MBean déjà enregistré
+	 * sous le même nom est remplacé. Un objet qui est aussi une SourceMetriques
+	 * est publié sur le point d'accès Prometheus.
+	 * @param nom nom JMX de l'objet (par exemple tp2:type=Serveur,nom=s1)
+	 * @param mbean objet de métriques, implémentant son interface ...MBean
+	 */
+	public static void enregistrer(String nom, Object mbean) {
+		try {
+			MBeanServer serveurMBean = ManagementFactory.getPlatformMBeanServer();
+			ObjectName nomObjet = new ObjectName(nom);
+			if (serveurMBean.isRegistered(nomObjet)) {
+				serveurMBean.unregisterMBean(nomObjet);
+			}
+			serveurMBean.registerMBean(mbean, nomObjet);
+		} catch (JMException e) {
+			System.out.println("Erreur: enregistrement JMX de " + nom + " impossible (" + e.getMessage() + ")");
+		}
+
+		synchronized (sources) {
+			if (mbean instanceof SourceMetriques) {
+				sources.put(nom, (SourceMetriques) mbean);
+			} else {
+				sources.remove(nom);
+			}
+		}
+	}
+
+	/**
+	 * Démarrage du point d'accès Prometheus sur la boucle locale. Sans effet s'il
+	 * est déjà démarré dans cette JVM.
+	 * @param port port d'écoute
+	 * @exception IOException si le port ne peut pas être ouvert
+	 */
+	public static synchronized void demarrer(int port) throws IOException {
+		if (pointAcces != null)
+			return;
+
+		pointAcces = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		pointAcces.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange echange) throws IOException {
+				byte[] reponse = exporter().getBytes("UTF-8");
+				echange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				echange.sendResponseHeaders(200, reponse.length);
+				OutputStream sortie = echange.getResponseBody();
+				try {
+					sortie.write(reponse);
+				} finally {
+					sortie.close();
+				}
+			}
+		});
+		pointAcces.start();
+		System.out.println("Métriques Prometheus sur http://127.0.0.1:" + port + "/metrics");
+	}
+
+	/**
+	 * Arrêt du point d'accès Prometheus (son thread empêcherait la JVM de se terminer).
+	 */
+	public static synchronized void arreter() {
+		if (pointAcces != null) {
+			pointAcces.stop(0);
+			pointAcces = null;
+		}
+	}
+
+	/**
+	 * @return métriques de toutes les sources, au format texte de Prometheus
+	 */
+	public static String exporter() {
+		List<SourceMetriques> copie;
+		synchronized (sources) {
+			copie = new ArrayList<SourceMetriques>(sources.values());
+		}
+
+		FormatPrometheus sortie = new FormatPrometheus();
+		for (SourceMetriques source : copie) {
+			source.exporter(sortie);
+		}
+		return sortie.toString();
+	}
+
+}
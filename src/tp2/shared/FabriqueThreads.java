@@ -0,0 +1,103 @@
+package tp2.shared;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Création des threads des serveurs d'un répartiteur (option --threads).
+ *
+ * Par défaut, chaque serveur a un thread classique, qui réserve sa pile et
+ * reste bloqué dans les appels RMI. Avec --threads=virtuels, les serveurs
+ * tournent sur des threads virtuels (Java 21) : un thread bloqué dans un
+ * appel réseau libère son thread porteur, ce qui permet de piloter des
+ * milliers de serveurs et plusieurs paquets en cours par serveur sans
+ * réserver une pile par appel.
+ *
+ * Le code reste compilé pour Java 8 : les threads virtuels sont obtenus par
+ * réflexion (Thread.ofVirtual), et une JVM trop ancienne revient aux threads
+ * classiques avec un avertissement.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class FabriqueThreads {
+
+	private final ThreadFactory fabrique;  // Fabrique des threads virtuels (null : threads classiques)
+
+	/**
+	 * Constructeur de la fabrique.
+	 * @param virtuels true pour utiliser des threads virtuels s'ils sont disponibles
+	 */
+	public FabriqueThreads(boolean virtuels) {
+		this.fabrique = virtuels ? fabriqueVirtuelle() : null;
+		if (virtuels && fabrique == null) {
+			System.out.println("Threads virtuels indisponibles (Java 21 requis), utilisation de threads classiques");
+		}
+	}
+
+	/**
+	 * @return true si les threads créés sont virtuels
+	 */
+	public boolean isVirtuels() {
+		return fabrique != null;
+	}
+
+	/**
+	 * Création d'un thread, non démarré.
+	 * @param nom nom du thread
+	 * @param tache tâche exécutée par le thread
+	 * @return nouveau thread
+	 */
+	public Thread creer(String nom, Runnable tache) {
+		if (fabrique == null) {
+			return new Thread(tache, nom);
+		}
+		Thread thread = fabrique.newThread(tache);
+		thread.setName(nom);
+		return thread;
+	}
+
+	/**
+	 * Création d'un exécuteur pour des appels bloquants : un thread virtuel par
+	 * tâche, ou un groupe de threads classiques réutilisés.
+	 * @param nom nom des threads de l'exécuteur
+	 * @return nouvel exécuteur
+	 */
+	public ExecutorService creerExecuteur(final String nom) {
+		if (fabrique != null) {
+			try {
+				Method parTache = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+				return (ExecutorService) parTache.invoke(null, fabrique);
+			} catch (ReflectiveOperationException e) {
+				// Impossible si Thread.ofVirtual existe : même version de Java
+			}
+		}
+
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, nom);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Obtention par réflexion de Thread.ofVirtual().factory().
+	 * @return fabrique de threads virtuels, null si la JVM ne les supporte pas
+	 */
+	private static ThreadFactory fabriqueVirtuelle() {
+		try {
+			Object constructeur = Thread.class.getMethod("ofVirtual").invoke(null);
+			// Méthode de l'interface publique Thread.Builder : la classe du constructeur n'est pas accessible
+			Class<?> interfaceConstructeur = Class.forName("java.lang.Thread$Builder");
+			return (ThreadFactory) interfaceConstructeur.getMethod("factory").invoke(constructeur);
+		} catch (ReflectiveOperationException e) {
+			// Méthode absente, ou threads virtuels en aperçu (Java 19 et 20) sans --enable-preview
+			return null;
+		}
+	}
+
+}
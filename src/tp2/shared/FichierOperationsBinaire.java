@@ -0,0 +1,420 @@
+package tp2.shared;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Fichier d'opérations au format binaire indexé, produit à partir d'un fichier
+ * texte (une opération et son opérande par ligne) par la commande convertir.
+ * Les répartiteurs reconnaissent ce format à son en-tête et projettent le
+ * fichier en mémoire : le chargement ne lit plus aucune ligne de texte, les
+ * opérandes sont copiés en bloc dans les segments de la TableOperations, et en
+ * lecture en flux seuls l'en-tête et l'index sont lus au démarrage.
+ *
+ * Format (entiers gros-boutistes) :
+ * - en-tête : MAGIQUE, taille des blocs, position de l'index, nombre d'opérandes ;
+ * - blocs : les opérandes de TAILLE_BLOC lignes consécutives, regroupés par opération ;
+ * - index : dictionnaire des opérations (nom de chaque code), puis pour chaque
+ *   bloc sa position et le nombre d'opérandes de chaque opération qu'il contient.
+ *
+ * La conversion écrit un fichier temporaire renommé une fois complet : un
+ * fichier binaire interrompu n'est jamais reconnu. À l'ouverture, les tailles
+ * lues dans l'en-tête et l'index sont comparées à celle du fichier avant toute
+ * allocation.
+ *
+ * La projection en mémoire limite la taille du fichier à 2 Go.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class FichierOperationsBinaire {
+
+	private static final int MAGIQUE = 0x54504232;       // "TPB2"
+	private static final int TAILLE_ENTETE = 24;         // MAGIQUE, taille des blocs, position de l'index, nombre d'opérandes
+
+	private final MappedByteBuffer donnees;              // Fichier projeté en mémoire
+	private final int tailleBloc;                        // Nombre de lignes par bloc
+	private final long nbrOperandes;                     // Nombre total d'opérandes
+	private final String[] nomsOperation;                // Nom de chaque code d'opération
+	private final long[] positions;                      // Position des opérandes de chaque bloc
+	private final int[][] codes;                         // Codes des opérations de chaque bloc
+	private final int[][] nombres;                       // Nombre d'opérandes de chaque opération de chaque bloc
+
+	/**
+	 * Ouverture d'un fichier binaire : projection en mémoire et lecture de l'index.
+	 * @param chemin chemin du fichier binaire
+	 * @exception IOException si le fichier ne peut pas être lu, n'est pas au format binaire ou est corrompu
+	 */
+	public FichierOperationsBinaire(String chemin) throws IOException {
+		RandomAccessFile fichier = new RandomAccessFile(chemin, "r");
+
+		try {
+			FileChannel canal = fichier.getChannel();
+			donnees = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+		} finally {
+			fichier.close();
+		}
+
+		if (donnees.limit() < TAILLE_ENTETE || donnees.getInt(0) != MAGIQUE)
+			throw new IOException(chemin + " n'est pas un fichier d'opérations binaire");
+
+		tailleBloc = donnees.getInt(4);
+		long positionIndex = donnees.getLong(8);
+		nbrOperandes = donnees.getLong(16);
+		verifier(positionIndex >= TAILLE_ENTETE && positionIndex <= donnees.limit(), chemin);
+		verifier(nbrOperandes >= 0 && nbrOperandes <= (positionIndex - TAILLE_ENTETE) / 4, chemin);
+
+		ByteBuffer index = donnees.duplicate();
+		index.position((int) positionIndex);
+
+		try {
+			// Chaque nom occupe au moins 2 octets (sa longueur)
+			int nbrNoms = index.getInt();
+			verifier(nbrNoms >= 0 && nbrNoms <= index.remaining() / 2, chemin);
+			nomsOperation = new String[nbrNoms];
+			for (int i = 0; i < nomsOperation.length; i++) {
+				int longueur = index.getShort() & 0xFFFF;
+				verifier(longueur <= index.remaining(), chemin);
+				byte[] nom = new byte[longueur];
+				index.get(nom);
+				nomsOperation[i] = new String(nom, StandardCharsets.UTF_8);
+			}
+
+			// Chaque bloc occupe au moins 12 octets (position et nombre de groupes), chaque groupe 8
+			int nbrBlocs = index.getInt();
+			verifier(nbrBlocs >= 0 && nbrBlocs <= index.remaining() / 12, chemin);
+			positions = new long[nbrBlocs];
+			codes = new int[nbrBlocs][];
+			nombres = new int[nbrBlocs][];
+			long total = 0;
+
+			for (int b = 0; b < nbrBlocs; b++) {
+				positions[b] = index.getLong();
+				int nbrGroupes = index.getInt();
+				verifier(nbrGroupes >= 0 && nbrGroupes <= index.remaining() / 8, chemin);
+				codes[b] = new int[nbrGroupes];
+				nombres[b] = new int[nbrGroupes];
+				long taille = 0;
+				for (int g = 0; g < nbrGroupes; g++) {
+					codes[b][g] = index.getInt();
+					nombres[b][g] = index.getInt();
+					verifier(codes[b][g] >= 0 && codes[b][g] < nbrNoms && nombres[b][g] >= 0, chemin);
+					taille += nombres[b][g];
+				}
+				// Les opérandes du bloc sont entre l'en-tête et l'index
+				verifier(positions[b] >= TAILLE_ENTETE && positions[b] + 4 * taille <= positionIndex, chemin);
+				total += taille;
+			}
+			verifier(total == nbrOperandes, chemin);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(chemin + " : fichier d'opérations binaire corrompu");
+		}
+	}
+
+	/**
+	 * Contrôle de cohérence de l'en-tête ou de l'index d'un fichier binaire.
+	 * @param condition condition vérifiée par un fichier valide
+	 * @param chemin chemin du fichier
+	 * @exception IOException si la condition n'est pas vérifiée
+	 */
+	private static void verifier(boolean condition, String chemin) throws IOException {
+		if (!condition)
+			throw new IOException(chemin + " : fichier d'opérations binaire corrompu");
+	}
+
+	/**
+	 * Indique si un fichier d'opérations est au format binaire (d'après son en-tête).
+	 * @param chemin chemin du fichier d'opérations
+	 * @return true pour un fichier binaire, false pour un fichier texte
+	 * @exception IOException si le fichier ne peut pas être lu
+	 */
+	public static boolean estBinaire(String chemin) throws IOException {
+		DataInputStream entree = new DataInputStream(new FileInputStream(chemin));
+
+		try {
+			return entree.available() >= TAILLE_ENTETE && entree.readInt() == MAGIQUE;
+		} finally {
+			entree.close();
+		}
+	}
+
+	/**
+	 * Lecture de toutes les opérations : chaque segment est dimensionné d'après
+	 * l'index puis rempli par copies en bloc depuis la projection.
+	 * @param multiplicites table des multiplicités pour la déduplication, null sans déduplication
+	 * @return opérations du fichier (opérandes distincts avec la déduplication)
+	 */
+	public TableOperations lire(TableMultiplicites multiplicites) {
+		TableOperations operations = new TableOperations();
+
+		if (multiplicites == null) {
+			long[] totaux = new long[nomsOperation.length];
+			for (int b = 0; b < getNbrBlocs(); b++) {
+				for (int g = 0; g < codes[b].length; g++) {
+					totaux[codes[b][g]] += nombres[b][g];
+				}
+			}
+			for (int c = 0; c < nomsOperation.length; c++) {
+				operations.reserver(nomsOperation[c], (int) totaux[c]);
+			}
+		}
+
+		for (int b = 0; b < getNbrBlocs(); b++) {
+			IntBuffer operandes = operandes(b);
+
+			for (int g = 0; g < codes[b].length; g++) {
+				String nom = nomsOperation[codes[b][g]];
+
+				if (multiplicites == null) {
+					operations.ajouter(nom, operandes, nombres[b][g]);
+					continue;
+				}
+
+				// Opérande déjà présent : seule sa multiplicité augmente
+				for (int i = 0; i < nombres[b][g]; i++) {
+					int operande = operandes.get();
+					if (multiplicites.ajouter(nom, operande)) {
+						operations.ajouter(nom, operande);
+					}
+				}
+			}
+		}
+
+		return operations;
+	}
+
+	/**
+	 * Lecture des opérations d'un bloc (lecture en flux).
+	 * @param bloc indice du bloc
+	 * @return opérations du bloc
+	 */
+	public TableOperations lireBloc(int bloc) {
+		TableOperations operations = new TableOperations();
+		IntBuffer operandes = operandes(bloc);
+
+		for (int g = 0; g < codes[bloc].length; g++) {
+			operations.ajouter(nomsOperation[codes[bloc][g]], operandes, nombres[bloc][g]);
+		}
+
+		return operations;
+	}
+
+	/**
+	 * @return nombre de blocs
+	 */
+	public int getNbrBlocs() {
+		return positions.length;
+	}
+
+	/**
+	 * @return nombre de lignes par bloc
+	 */
+	public int getTailleBloc() {
+		return tailleBloc;
+	}
+
+	/**
+	 * @return nombre total d'opérandes (lignes du fichier texte d'origine)
+	 */
+	public long getNbrOperandes() {
+		return nbrOperandes;
+	}
+
+	/**
+	 * Vue sur les opérandes d'un bloc. Chaque appel crée sa propre vue :
+	 * plusieurs threads peuvent lire le fichier en même temps.
+	 * @param bloc indice du bloc
+	 * @return opérandes du bloc, à partir de leur position
+	 */
+	private IntBuffer operandes(int bloc) {
+		ByteBuffer vue = donnees.duplicate();
+		vue.position((int) positions[bloc]);
+		return vue.asIntBuffer();
+	}
+
+	/**
+	 * Conversion d'un fichier d'opérations texte au format binaire, dans un fichier
+	 * temporaire renommé en destination une fois complet (supprimé en cas d'échec).
+	 * @param source fichier texte (une opération et son opérande par ligne)
+	 * @param destination fichier binaire à créer
+	 * @param tailleBloc nombre de lignes par bloc
+	 * @return nombre d'opérandes convertis
+	 * @exception IOException si un fichier ne peut pas être lu ou écrit
+	 */
+	public static long convertir(String source, String destination, int tailleBloc) throws IOException {
+		File fichierDestination = new File(destination).getAbsoluteFile();
+		File temporaire = File.createTempFile(fichierDestination.getName() + ".", ".tmp", fichierDestination.getParentFile());
+		boolean termine = false;
+
+		try {
+			long nbrOperandes = ecrire(source, temporaire.getPath(), tailleBloc);
+			Files.move(temporaire.toPath(), fichierDestination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			termine = true;
+			return nbrOperandes;
+		} finally {
+			if (!termine)
+				temporaire.delete();
+		}
+	}
+
+	/**
+	 * Écriture du fichier binaire : en-tête provisoire, blocs, index, puis en-tête définitif.
+	 * @param source fichier texte (une opération et son opérande par ligne)
+	 * @param destination fichier binaire à écrire
+	 * @param tailleBloc nombre de lignes par bloc
+	 * @return nombre d'opérandes convertis
+	 * @exception IOException si un fichier ne peut pas être lu ou écrit
+	 */
+	private static long ecrire(String source, String destination, int tailleBloc) throws IOException {
+		LinkedHashMap<String, Integer> dictionnaire = new LinkedHashMap<String, Integer>();
+		List<Long> positionsBlocs = new ArrayList<Long>();
+		List<int[]> groupesBlocs = new ArrayList<int[]>();
+		long position = TAILLE_ENTETE;
+		long nbrOperandes = 0;
+
+		BufferedReader buff = new BufferedReader(new FileReader(source));
+		DataOutputStream sortie = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destination)));
+
+		try {
+			// En-tête provisoire, complété à la fin de la conversion
+			sortie.writeInt(MAGIQUE);
+			sortie.writeInt(tailleBloc);
+			sortie.writeLong(0);
+			sortie.writeLong(0);
+
+			TableOperations bloc = new TableOperations();
+			String line;
+			String[] temp;
+			boolean finFichier = false;
+
+			while (!finFichier) {
+				line = buff.readLine();
+				if (line != null) {
+					temp = line.split(" ");
+					bloc.ajouter(temp[0], Integer.parseInt(temp[1]));
+				} else {
+					finFichier = true;
+				}
+
+				if (bloc.getTaille() == tailleBloc || (finFichier && bloc.getTaille() > 0)) {
+					// Bloc : les opérandes de chaque opération à la suite
+					int[] groupes = new int[2 * bloc.getNoms().size()];
+					int g = 0;
+
+					for (String s : bloc.getNoms()) {
+						Integer code = dictionnaire.get(s);
+						if (code == null) {
+							code = dictionnaire.size();
+							dictionnaire.put(s, code);
+						}
+
+						int[] segment = bloc.getSegment(s);
+						for (int i = 0; i < bloc.getTaille(s); i++) {
+							sortie.writeInt(segment[i]);
+						}
+						groupes[g++] = code;
+						groupes[g++] = bloc.getTaille(s);
+					}
+
+					positionsBlocs.add(position);
+					groupesBlocs.add(groupes);
+					position += 4L * bloc.getTaille();
+					nbrOperandes += bloc.getTaille();
+					bloc = new TableOperations();
+				}
+			}
+
+			// Index : dictionnaire puis description de chaque bloc
+			sortie.writeInt(dictionnaire.size());
+			for (String s : dictionnaire.keySet()) {
+				byte[] nom = s.getBytes(StandardCharsets.UTF_8);
+				sortie.writeShort(nom.length);
+				sortie.write(nom);
+			}
+
+			sortie.writeInt(positionsBlocs.size());
+			for (int b = 0; b < positionsBlocs.size(); b++) {
+				sortie.writeLong(positionsBlocs.get(b));
+				int[] groupes = groupesBlocs.get(b);
+				sortie.writeInt(groupes.length / 2);
+				for (int groupe : groupes) {
+					sortie.writeInt(groupe);
+				}
+			}
+		} finally {
+			sortie.close();
+			buff.close();
+		}
+
+		RandomAccessFile fichier = new RandomAccessFile(destination, "rw");
+		try {
+			fichier.seek(8);
+			fichier.writeLong(position);
+			fichier.writeLong(nbrOperandes);
+		} finally {
+			fichier.close();
+		}
+
+		return nbrOperandes;
+	}
+
+	/**
+	 * Commande de conversion : convertir fichier.txt fichier.bin [--bloc=N]
+	 * @param args arguments de la ligne de commande
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: convertir <fichier d'opérations texte> <fichier binaire> [--bloc=N]");
+			return;
+		}
+
+		int tailleBloc = LecteurOperations.TAILLE_BLOC;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith("--bloc=")) {
+				try {
+					tailleBloc = Integer.parseInt(args[i].substring("--bloc=".length()));
+				} catch (NumberFormatException e) {
+					tailleBloc = 0;
+				}
+				if (tailleBloc <= 0) {
+					System.out.println("Erreur: --bloc attend un entier strictement positif");
+					return;
+				}
+			} else {
+				System.out.println("Erreur: option inconnue " + args[i]);
+				return;
+			}
+		}
+
+		try {
+			long debut = System.nanoTime();
+			long nbrOperandes = convertir(args[0], args[1], tailleBloc);
+			System.out.println(nbrOperandes + " opérations converties en " + (System.nanoTime() - debut) / 1000000 + " ms");
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		} catch (RuntimeException e) {
+			// Ligne mal formée dans le fichier texte
+			System.out.println("Erreur: " + args[0] + " n'est pas un fichier d'opérations valide (" + e + ")");
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package tp2.shared;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Construction d'une réponse au format texte de Prometheus. Les échantillons
+ * d'une même métrique doivent se suivre, précédés une seule fois de leurs
+ * lignes # HELP et # TYPE : ils sont donc regroupés par métrique, quel que
+ * soit l'ordre dans lequel les sources les ajoutent (plusieurs serveurs
+ * dans la même JVM, par exemple).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class FormatPrometheus {
+
+	private final Map<String, StringBuilder> familles = new LinkedHashMap<String, StringBuilder>(); // Lignes de chaque métrique
+
+	/**
+	 * Ajout d'un échantillon.
+	 * @param famille nom de la métrique
+	 * @param type type de la métrique (counter, gauge ou histogram)
+	 * @param aide description de la métrique
+	 * @param suffixe suffixe de l'échantillon (_bucket, _sum, _count pour un histogramme), vide sinon
+	 * @param etiquettes étiquettes de l'échantillon (par exemple serveur="s1"), vide si aucune
+	 * @param valeur valeur de l'échantillon
+	 */
+	public void echantillon(String famille, String type, String aide, String suffixe, String etiquettes, double valeur) {
+		StringBuilder lignes = familles.get(famille);
+		if (lignes == null) {
+			lignes = new StringBuilder();
+			lignes.append("# HELP ").append(famille).append(' ').append(aide).append('\n');
+			lignes.append("# TYPE ").append(famille).append(' ').append(type).append('\n');
+			familles.put(famille, lignes);
+		}
+
+		lignes.append(famille).append(suffixe);
+		if (!etiquettes.isEmpty()) {
+			lignes.append('{').append(etiquettes).append('}');
+		}
+		lignes.append(' ');
+		if (valeur == Math.rint(valeur) && !Double.isInfinite(valeur)) {
+			lignes.append((long) valeur);
+		} else {
+			lignes.append(valeur);
+		}
+		lignes.append('\n');
+	}
+
+	/**
+	 * Ajout d'un compteur (valeur croissante).
+	 * @param famille nom de la métrique, se terminant par _total
+	 * @param aide description de la métrique
+	 * @param etiquettes étiquettes de l'échantillon, vide si aucune
+	 * @param valeur valeur du compteur
+	 */
+	public void compteur(String famille, String aide, String etiquettes, double valeur) {
+		echantillon(famille, "counter", aide, "", etiquettes, valeur);
+	}
+
+	/**
+	 * Ajout d'une jauge (valeur instantanée).
+	 * @param famille nom de la métrique
+	 * @param aide description de la métrique
+	 * @param etiquettes étiquettes de l'échantillon, vide si aucune
+	 * @param valeur valeur de la jauge
+	 */
+	public void jauge(String famille, String aide, String etiquettes, double valeur) {
+		echantillon(famille, "gauge", aide, "", etiquettes, valeur);
+	}
+
+	/**
+	 * @param nom valeur d'une étiquette
+	 * @return valeur avec les caractères \, " et retour à la ligne échappés
+	 */
+	public static String echapper(String nom) {
+		return nom.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder texte = new StringBuilder();
+		for (StringBuilder lignes : familles.values()) {
+			texte.append(lignes);
+		}
+		return texte.toString();
+	}
+
+}
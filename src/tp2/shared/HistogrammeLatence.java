@@ -0,0 +1,165 @@
+package tp2.shared;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme des durées de paquets, à bornes fixes (de 100 µs à 10 s).
+ * L'enregistrement n'incrémente que des LongAdder : les threads qui mesurent
+ * en même temps ne se disputent pas un même compteur. Les lectures (JMX,
+ * point d'accès Prometheus) font la somme des compteurs.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class HistogrammeLatence {
+
+	/** Bornes supérieures des classes, en nanosecondes (une dernière classe sans borne les suit) */
+	private static final long[] BORNES = {
+			100000L, 250000L, 500000L,
+			1000000L, 2500000L, 5000000L,
+			10000000L, 25000000L, 50000000L,
+			100000000L, 250000000L, 500000000L,
+			1000000000L, 2500000000L, 5000000000L, 10000000000L };
+
+	private final LongAdder[] compteurs = new LongAdder[BORNES.length + 1]; // Nombre de durées par classe
+	private final LongAdder somme = new LongAdder();                          // Somme des durées, en nanosecondes
+	private final LongAccumulator maximum = new LongAccumulator(Math::max, 0); // Plus longue durée
+
+	/**
+	 * Constructeur d'un histogramme vide.
+	 */
+	public HistogrammeLatence() {
+		for (int i = 0; i < compteurs.length; i++) {
+			compteurs[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Enregistrement d'une durée.
+	 * @param nanos durée en nanosecondes
+	 */
+	public void enregistrer(long nanos) {
+		int classe = 0;
+		while (classe < BORNES.length && nanos > BORNES[classe]) {
+			classe++;
+		}
+		compteurs[classe].increment();
+		somme.add(nanos);
+		maximum.accumulate(nanos);
+	}
+
+	/**
+	 * @return nombre de durées de chaque classe (la dernière est sans borne)
+	 */
+	public long[] getCompteurs() {
+		long[] valeurs = new long[compteurs.length];
+		for (int i = 0; i < compteurs.length; i++) {
+			valeurs[i] = compteurs[i].sum();
+		}
+		return valeurs;
+	}
+
+	/**
+	 * @return nombre de durées enregistrées
+	 */
+	public long getNombre() {
+		long nombre = 0;
+		for (LongAdder compteur : compteurs) {
+			nombre += compteur.sum();
+		}
+		return nombre;
+	}
+
+	/**
+	 * @return somme des durées, en nanosecondes
+	 */
+	public long getSomme() {
+		return somme.sum();
+	}
+
+	/**
+	 * @return durée moyenne en millisecondes, 0 sans durée
+	 */
+	public double getMoyenneMs() {
+		long nombre = getNombre();
+		return nombre == 0 ? 0 : getSomme() / 1e6 / nombre;
+	}
+
+	/**
+	 * Centile estimé à partir des classes : borne supérieure de la classe qui
+	 * contient le rang recherché (la plus longue durée pour la dernière classe).
+	 * @param centile centile recherché (0 à 100)
+	 * @return durée en millisecondes, 0 sans durée
+	 */
+	public double getCentileMs(int centile) {
+		long[] valeurs = getCompteurs();
+		long nombre = 0;
+		for (long valeur : valeurs) {
+			nombre += valeur;
+		}
+		if (nombre == 0)
+			return 0;
+
+		long rang = Math.max(1, (long) Math.ceil(centile / 100.0 * nombre));
+		long cumul = 0;
+		for (int i = 0; i < BORNES.length; i++) {
+			cumul += valeurs[i];
+			if (cumul >= rang)
+				return Math.min(BORNES[i], maximum.get()) / 1e6;
+		}
+		return maximum.get() / 1e6;
+	}
+
+	/**
+	 * Description lisible de l'histogramme (attribut JMX), de la forme "<=1ms: 12, <=2.5ms: 3, >10s: 0".
+	 * @return classes non vides et leur nombre de durées
+	 */
+	public String decrire() {
+		long[] valeurs = getCompteurs();
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < valeurs.length; i++) {
+			if (valeurs[i] == 0)
+				continue;
+			if (description.length() > 0)
+				description.append(", ");
+			description.append(i < BORNES.length ? "<=" + formater(BORNES[i]) : ">" + formater(BORNES[BORNES.length - 1]))
+					.append(": ").append(valeurs[i]);
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Export au format texte de Prometheus (type histogram, en secondes).
+	 * @param sortie sortie Prometheus
+	 * @param famille nom de la métrique
+	 * @param aide description de la métrique
+	 * @param etiquettes étiquettes de l'échantillon (par exemple serveur="s1"), vide si aucune
+	 */
+	public void exporter(FormatPrometheus sortie, String famille, String aide, String etiquettes) {
+		long[] valeurs = getCompteurs();
+		String prefixe = etiquettes.isEmpty() ? "" : etiquettes + ",";
+		long cumul = 0;
+
+		for (int i = 0; i < valeurs.length; i++) {
+			cumul += valeurs[i];
+			String borne = i < BORNES.length ? Double.toString(BORNES[i] / 1e9) : "+Inf";
+			sortie.echantillon(famille, "histogram", aide, "_bucket", prefixe + "le=\"" + borne + "\"", cumul);
+		}
+		sortie.echantillon(famille, "histogram", aide, "_sum", etiquettes, getSomme() / 1e9);
+		sortie.echantillon(famille, "histogram", aide, "_count", etiquettes, cumul);
+	}
+
+	/**
+	 * @param nanos borne en nanosecondes
+	 * @return borne lisible (µs, ms ou s)
+	 */
+	private static String formater(long nanos) {
+		if (nanos < 1000000L)
+			return nanos / 1000 + "us";
+		if (nanos < 1000000000L)
+			return (nanos % 1000000L == 0 ? Long.toString(nanos / 1000000L) : Double.toString(nanos / 1e6)) + "ms";
+		return (nanos % 1000000000L == 0 ? Long.toString(nanos / 1000000000L) : Double.toString(nanos / 1e9)) + "s";
+	}
+
+}
@@ -0,0 +1,380 @@
+package tp2.shared;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Journal de progression du répartiteur : chaque paquet calculé est ajouté au
+ * journal avec son résultat, pour qu'un répartiteur relancé avec --resume
+ * reprenne le calcul sans refaire les paquets déjà terminés.
+ *
+ * Le journal est un fichier en ajout seul, écrit à travers une région projetée
+ * en mémoire (MappedByteBuffer) : l'enregistrement d'un paquet est une simple
+ * copie en mémoire, et les pages sont écrites sur disque (force) par lots
+ * toutes les INTERVALLE_SYNC_MS millisecondes par un thread dédié. Les pages
+ * projetées survivant à l'arrêt brutal de la JVM, seule une panne du système
+ * peut faire perdre les derniers paquets, qui sont alors simplement recalculés.
+ *
+ * Format : un en-tête (MAGIQUE, empreinte du fichier d'opérations), puis des
+ * enregistrements [taille][résultat, nombre de tranches, puis pour chaque
+ * tranche le nom de l'opération et ses opérandes][CRC32]. La relecture s'arrête au premier
+ * enregistrement vide ou incomplet.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class JournalProgression {
+
+	private static final int MAGIQUE = 0x54504A31;            // "TPJ1"
+	private static final int TAILLE_ENTETE = 12;              // MAGIQUE + empreinte
+	private static final int TAILLE_REGION = 1 << 20;         // Taille minimale d'une région projetée
+	private static final long INTERVALLE_SYNC_MS = 200;       // Intervalle entre deux écritures sur disque
+
+	private final FileChannel canal;                          // Canal du fichier journal
+	private MappedByteBuffer region;                          // Région projetée en cours d'écriture
+	private long debutRegion;                                 // Position de la région dans le fichier
+	private boolean modifie = false;                          // Enregistrements non encore écrits sur disque
+	private int nbrPaquets = 0;                               // Paquets enregistrés depuis l'ouverture
+	private final ScheduledExecutorService synchronisation;   // Écriture périodique sur disque
+	private final ConcurrentHashMap<String, byte[]> noms = new ConcurrentHashMap<String, byte[]>(); // Noms des opérations encodés
+
+	private final HashMap<String, HashMap<Integer, Integer>> terminees = new HashMap<String, HashMap<Integer, Integer>>(); // Opérandes relus, avec leur nombre d'occurrences
+	private int resultatRejoue = 0;                           // Somme modulo 5000 des paquets relus
+	private int nbrPaquetsRejoues = 0;                        // Nombre de paquets relus
+	private int nbrOperationsRejouees = 0;                    // Nombre d'opérations relues
+
+	/**
+	 * Ouverture du journal.
+	 * @param chemin chemin du fichier journal
+	 * @param empreinte empreinte du fichier d'opérations (voir empreinte)
+	 * @param reprise true pour relire le journal existant et le compléter, false pour le recréer
+	 * @exception IOException si le journal ne peut pas être ouvert ou ne correspond pas au fichier d'opérations
+	 */
+	public JournalProgression(String chemin, long empreinte, boolean reprise) throws IOException {
+		File fichier = new File(chemin);
+		long position = TAILLE_ENTETE;
+
+		if (reprise && fichier.exists() && fichier.length() > 0) {
+			position = relire(fichier, empreinte);
+		} else if (reprise) {
+			System.out.println("Aucun journal à reprendre, le calcul commence au début");
+		}
+
+		canal = new RandomAccessFile(fichier, "rw").getChannel();
+		// Un enregistrement incomplet en fin de journal est écrasé
+		canal.truncate(position);
+		projeter(position, 0);
+
+		if (position == TAILLE_ENTETE) {
+			region.putInt(0, MAGIQUE);
+			region.putLong(4, empreinte);
+			modifie = true;
+		}
+
+		synchronisation = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "journal-sync");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		synchronisation.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				synchroniser();
+			}
+		}, INTERVALLE_SYNC_MS, INTERVALLE_SYNC_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Empreinte d'un fichier d'opérations : taille et CRC32 du fichier, et déduplication
+	 * (les paquets d'un journal écrit avec déduplication couvrent toutes les occurrences d'un opérande).
+	 * @param chemin chemin du fichier d'opérations
+	 * @param dedup déduplication des opérandes
+	 * @return empreinte
+	 * @exception IOException si le fichier ne peut pas être lu
+	 */
+	public static long empreinte(String chemin, boolean dedup) throws IOException {
+		CRC32 crc = new CRC32();
+		long taille = 0;
+		byte[] tampon = new byte[1 << 16];
+
+		InputStream entree = new FileInputStream(chemin);
+		try {
+			int lus;
+			while ((lus = entree.read(tampon)) > 0) {
+				crc.update(tampon, 0, lus);
+				taille += lus;
+			}
+		} finally {
+			entree.close();
+		}
+
+		return (taille << 33) | (dedup ? 1L << 32 : 0) | crc.getValue();
+	}
+
+	/**
+	 * Ajoute un paquet calculé au journal. Méthode appelée depuis les threads des serveurs :
+	 * l'écriture est une copie dans la région projetée, sans écriture sur disque.
+	 * @param operations paquet calculé
+	 * @param resultat résultat du paquet
+	 */
+	public void enregistrer(PaquetOperations operations, int resultat) {
+		int tailleCorps = 8;
+		for (int i = 0; i < operations.getNbrTranches(); i++) {
+			tailleCorps += 2 + nom(operations.getOperation(i)).length + 4 + 4 * operations.getLongueur(i);
+		}
+
+		synchronized (this) {
+			if (region.remaining() < tailleCorps + 8) {
+				projeter(debutRegion + region.position(), tailleCorps + 8);
+			}
+
+			int debut = region.position();
+			region.putInt(0);
+			region.putInt(resultat);
+			region.putInt(operations.getNbrTranches());
+			for (int i = 0; i < operations.getNbrTranches(); i++) {
+				byte[] nom = nom(operations.getOperation(i));
+				region.putShort((short) nom.length);
+				region.put(nom);
+				region.putInt(operations.getLongueur(i));
+				region.asIntBuffer().put(operations.getSegment(i), operations.getDebut(i), operations.getLongueur(i));
+				region.position(region.position() + 4 * operations.getLongueur(i));
+			}
+
+			ByteBuffer corps = region.duplicate();
+			corps.limit(region.position());
+			corps.position(debut + 4);
+			CRC32 crc = new CRC32();
+			crc.update(corps);
+			region.putInt((int) crc.getValue());
+			// La taille est écrite en dernier : un enregistrement interrompu reste vide
+			region.putInt(debut, tailleCorps);
+
+			modifie = true;
+			nbrPaquets++;
+		}
+	}
+
+	/**
+	 * Retire des opérations à calculer celles des paquets relus (une occurrence par opérande relu).
+	 * En lecture en flux, appelé pour chaque bloc lu : un opérande relu n'est retiré qu'une fois.
+	 * @param operations opérations du fichier (ou d'un bloc), modifiées sur place
+	 * @return nombre d'opérations retirées
+	 */
+	public int retirerTerminees(TableOperations operations) {
+		int nbrRetirees = 0;
+
+		for (String s : operations.getNoms()) {
+			HashMap<Integer, Integer> termineesOperation = terminees.get(s);
+			if (termineesOperation == null)
+				continue;
+
+			// Compactage du segment sur place
+			int[] segment = operations.getSegment(s);
+			int nbrRestantes = 0;
+			for (int i = 0; i < operations.getTaille(s); i++) {
+				Integer nbr = termineesOperation.get(segment[i]);
+				if (nbr == null) {
+					segment[nbrRestantes++] = segment[i];
+				} else {
+					if (nbr == 1) {
+						termineesOperation.remove(segment[i]);
+					} else {
+						termineesOperation.put(segment[i], nbr - 1);
+					}
+					nbrRetirees++;
+				}
+			}
+			operations.tronquer(s, nbrRestantes);
+		}
+
+		return nbrRetirees;
+	}
+
+	/**
+	 * Écrit sur disque les derniers enregistrements et ferme le journal.
+	 */
+	public void fermer() {
+		synchronisation.shutdown();
+		synchroniser();
+		try {
+			canal.close();
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return somme modulo 5000 des paquets relus
+	 */
+	public int getResultatRejoue() {
+		return resultatRejoue;
+	}
+
+	/**
+	 * @return nombre de paquets relus
+	 */
+	public int getNbrPaquetsRejoues() {
+		return nbrPaquetsRejoues;
+	}
+
+	/**
+	 * @return nombre d'opérations relues
+	 */
+	public int getNbrOperationsRejouees() {
+		return nbrOperationsRejouees;
+	}
+
+	/**
+	 * @return nombre de paquets enregistrés depuis l'ouverture
+	 */
+	public synchronized int getNbrPaquets() {
+		return nbrPaquets;
+	}
+
+	/**
+	 * Relecture d'un journal existant.
+	 * @param fichier fichier journal
+	 * @param empreinte empreinte attendue du fichier d'opérations
+	 * @return position de fin du dernier enregistrement valide
+	 * @exception IOException si le journal ne correspond pas au fichier d'opérations
+	 */
+	private long relire(File fichier, long empreinte) throws IOException {
+		DataInputStream entree = new DataInputStream(new BufferedInputStream(new FileInputStream(fichier)));
+		long position = TAILLE_ENTETE;
+
+		try {
+			if (entree.readInt() != MAGIQUE) {
+				throw new IOException("'" + fichier + "' n'est pas un journal de progression");
+			}
+			if (entree.readLong() != empreinte) {
+				throw new IOException("le journal '" + fichier + "' ne correspond pas au fichier d'opérations (ou à l'option --dedup)");
+			}
+
+			while (true) {
+				int tailleCorps = entree.readInt();
+				if (tailleCorps <= 0 || tailleCorps > fichier.length() - position - 8)
+					break;
+
+				byte[] corps = new byte[tailleCorps];
+				entree.readFully(corps);
+				CRC32 crc = new CRC32();
+				crc.update(corps);
+				if (entree.readInt() != (int) crc.getValue()) {
+					System.out.println("Enregistrement incomplet en fin de journal ignoré");
+					break;
+				}
+
+				rejouer(ByteBuffer.wrap(corps));
+				position += tailleCorps + 8;
+			}
+		} catch (EOFException e) {
+			// Fin du journal au milieu d'un enregistrement : il est ignoré
+		} finally {
+			entree.close();
+		}
+
+		return position;
+	}
+
+	/**
+	 * Prise en compte d'un enregistrement relu.
+	 * @param corps corps de l'enregistrement
+	 */
+	private void rejouer(ByteBuffer corps) {
+		resultatRejoue = (resultatRejoue + corps.getInt()) % 5000;
+		nbrPaquetsRejoues++;
+
+		int nbrNoms = corps.getInt();
+		for (int i = 0; i < nbrNoms; i++) {
+			byte[] nom = new byte[corps.getShort()];
+			corps.get(nom);
+			String operation = new String(nom, StandardCharsets.UTF_8);
+
+			HashMap<Integer, Integer> termineesOperation = terminees.get(operation);
+			if (termineesOperation == null) {
+				termineesOperation = new HashMap<Integer, Integer>();
+				terminees.put(operation, termineesOperation);
+			}
+
+			int nbrOperandes = corps.getInt();
+			for (int j = 0; j < nbrOperandes; j++) {
+				int operande = corps.getInt();
+				Integer nbr = termineesOperation.get(operande);
+				termineesOperation.put(operande, nbr == null ? 1 : nbr + 1);
+			}
+			nbrOperationsRejouees += nbrOperandes;
+		}
+	}
+
+	/**
+	 * Projette en mémoire une nouvelle région du journal à partir d'une position
+	 * (le fichier est agrandi si besoin). La région précédente est écrite sur disque.
+	 * Appelé sous le verrou du journal, ou depuis le constructeur.
+	 * @param position position de début de la région
+	 * @param tailleMin taille minimale de la région
+	 */
+	private void projeter(long position, int tailleMin) {
+		try {
+			if (region != null) {
+				region.force();
+			}
+			// La région d'un nouveau journal commence au début du fichier pour inclure l'en-tête
+			long debut = position == TAILLE_ENTETE ? 0 : position;
+			region = canal.map(FileChannel.MapMode.READ_WRITE, debut, (position - debut) + Math.max(TAILLE_REGION, tailleMin));
+			region.position((int) (position - debut));
+			debutRegion = debut;
+		} catch (IOException e) {
+			throw new IllegalStateException("impossible d'agrandir le journal : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Écriture sur disque des enregistrements en attente (par lot, depuis le thread journal-sync).
+	 */
+	private void synchroniser() {
+		MappedByteBuffer aEcrire;
+
+		synchronized (this) {
+			if (!modifie)
+				return;
+			aEcrire = region;
+			modifie = false;
+		}
+
+		// Les threads des serveurs continuent d'écrire pendant l'écriture sur disque
+		aEcrire.force();
+	}
+
+	/**
+	 * @param operation nom d'une opération
+	 * @return nom encodé en UTF-8
+	 */
+	private byte[] nom(String operation) {
+		byte[] nom = noms.get(operation);
+		if (nom == null) {
+			nom = operation.getBytes(StandardCharsets.UTF_8);
+			noms.put(operation, nom);
+		}
+		return nom;
+	}
+
+}
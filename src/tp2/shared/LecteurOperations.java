@@ -0,0 +1,133 @@
+package tp2.shared;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Lecture en flux du fichier d'opérations (option --flux) : au lieu de lire
+ * tout le fichier avant de lancer le calcul, un thread lit le fichier par blocs
+ * de TAILLE_BLOC lignes et les ajoute au réservoir pendant que les serveurs
+ * calculent. Le réservoir met le lecteur en attente lorsqu'il est plein, la
+ * mémoire utilisée ne dépend donc pas de la taille du fichier.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class LecteurOperations implements Runnable {
+
+	public static final int TAILLE_BLOC = 1024;  // Nombre de lignes lues avant chaque ajout au réservoir
+
+	private final String cheminFichierOperations; // Fichier d'opérations
+	private final ReservoirOperations reservoir;  // Réservoir recevant les opérations
+	private final JournalProgression journal;     // Journal dont les opérations déjà calculées sont écartées (null si pas de journal)
+	private int nbrLignes = 0;                    // Nombre de lignes lues
+
+	/**
+	 * Constructeur du lecteur.
+	 * @param cheminFichierOperations chemin du fichier d'opérations
+	 * @param reservoir réservoir créé pour la lecture en flux
+	 * @param journal journal de progression relu, null si pas de reprise
+	 */
+	public LecteurOperations(String cheminFichierOperations, ReservoirOperations reservoir, JournalProgression journal) {
+		this.cheminFichierOperations = cheminFichierOperations;
+		this.reservoir = reservoir;
+		this.journal = journal;
+	}
+
+	/**
+	 * Lance la lecture dans un thread démon (qui ne bloque pas l'arrêt si tous les serveurs sont déconnectés).
+	 */
+	public void demarrer() {
+		Thread thread = new Thread(this, "lecteur-operations");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Lecture du fichier, même format que la lecture complète : une opération et son opérande par ligne,
+	 * ou fichier binaire dont les blocs sont ajoutés tels quels (voir FichierOperationsBinaire).
+	 * Une erreur de lecture ou une ligne mal formée arrête la lecture et est signalée au réservoir.
+	 */
+	public void run() {
+		try {
+			if (FichierOperationsBinaire.estBinaire(cheminFichierOperations)) {
+				lireBinaire();
+			} else {
+				lireTexte();
+			}
+		} catch (IOException e) {
+			System.out.println("Erreur: " + e.getMessage());
+			reservoir.echouerAjouts();
+		} catch (RuntimeException e) {
+			System.out.println("Erreur: ligne " + (nbrLignes + 1) + " du fichier d'opérations invalide (" + e + ")");
+			reservoir.echouerAjouts();
+		} finally {
+			reservoir.terminerAjouts();
+		}
+	}
+
+	/**
+	 * Lecture d'un fichier texte par blocs de TAILLE_BLOC lignes.
+	 * @exception IOException si le fichier ne peut pas être lu
+	 */
+	private void lireTexte() throws IOException {
+		BufferedReader buff = new BufferedReader(new FileReader(cheminFichierOperations));
+
+		try {
+			TableOperations bloc = new TableOperations();
+			int nbrLignesBloc = 0;
+			String line;
+			String[] temp;
+
+			while ((line = buff.readLine()) != null) {
+				temp = line.split(" ");
+				bloc.ajouter(temp[0], Integer.parseInt(temp[1]));
+				nbrLignes++;
+
+				if (++nbrLignesBloc == TAILLE_BLOC) {
+					ajouter(bloc);
+					bloc = new TableOperations();
+					nbrLignesBloc = 0;
+				}
+			}
+
+			ajouter(bloc);
+		} finally {
+			buff.close();
+		}
+	}
+
+	/**
+	 * Lecture d'un fichier binaire : les paquets sont découpés dans les blocs du fichier.
+	 * @exception IOException si le fichier ne peut pas être lu
+	 */
+	private void lireBinaire() throws IOException {
+		FichierOperationsBinaire fichier = new FichierOperationsBinaire(cheminFichierOperations);
+
+		for (int b = 0; b < fichier.getNbrBlocs(); b++) {
+			TableOperations bloc = fichier.lireBloc(b);
+			nbrLignes += bloc.getTaille();
+			ajouter(bloc);
+		}
+	}
+
+	/**
+	 * @return nombre de lignes lues
+	 */
+	public int getNbrLignes() {
+		return nbrLignes;
+	}
+
+	/**
+	 * Ajout d'un bloc au réservoir, sans les opérations déjà calculées d'après le journal.
+	 * @param bloc opérations lues
+	 */
+	private void ajouter(TableOperations bloc) {
+		if (journal != null) {
+			journal.retirerTerminees(bloc);
+		}
+		reservoir.ajouter(bloc);
+	}
+
+}
@@ -0,0 +1,161 @@
+package tp2.shared;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Métriques d'un répartiteur : état du réservoir d'opérations, arriéré de
+ * vérification et agrégat des métriques de chaque serveur (voir
+ * MetriquesServeurDistant). Publiées en JMX sous tp2:type=Repartiteur,mode=...
+ * (un MBean par serveur avec la clé serveur=NOM) et, avec --metriques=PORT,
+ * sur le point d'accès Prometheus (voir ExportMetriques).
+ *
+ * Les valeurs du réservoir et de la vérification ne sont lues qu'à la
+ * consultation des métriques : rien n'est ajouté au chemin des paquets.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class MetriquesRepartiteur implements MetriquesRepartiteurMBean, SourceMetriques {
+
+	private final String mode;                     // securise ou nonsecurise
+	private final List<MetriquesServeurDistant> serveurs = new ArrayList<MetriquesServeurDistant>(); // Métriques de chaque serveur
+	private volatile ReservoirOperations reservoir; // Réservoir des opérations (null avant le lancement)
+	private volatile IntSupplier arriereVerification; // Paquets en attente de vérification (null : pas de vérification)
+	private String nomMBean;                       // Nom JMX du répartiteur (null avant la publication)
+
+	/**
+	 * Constructeur des métriques d'un répartiteur.
+	 * @param mode securise ou nonsecurise
+	 */
+	public MetriquesRepartiteur(String mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Création des métriques d'un serveur, à la lecture du fichier de configuration
+	 * ou à son ajout en cours de calcul (publiées aussitôt dans ce cas).
+	 * @param nom nom du serveur
+	 * @return métriques du serveur
+	 */
+	public synchronized MetriquesServeurDistant ajouterServeur(String nom) {
+		MetriquesServeurDistant metriques = new MetriquesServeurDistant(nom);
+		serveurs.add(metriques);
+		if (nomMBean != null) {
+			ExportMetriques.enregistrer(nomMBean + ",serveur=" + nom, metriques);
+		}
+		return metriques;
+	}
+
+	/**
+	 * @param reservoir réservoir des opérations, créé au lancement du répartiteur
+	 */
+	public void setReservoir(ReservoirOperations reservoir) {
+		this.reservoir = reservoir;
+	}
+
+	/**
+	 * @param arriereVerification nombre de paquets en attente de vérification
+	 */
+	public void setArriereVerification(IntSupplier arriereVerification) {
+		this.arriereVerification = arriereVerification;
+	}
+
+	/**
+	 * Enregistrement des MBeans du répartiteur et de ses serveurs, puis démarrage
+	 * du point d'accès Prometheus si un port est donné.
+	 * @param port port du point d'accès Prometheus, 0 pour JMX seulement
+	 */
+	public void publier(int port) {
+		String nom = "tp2:type=Repartiteur,mode=" + mode;
+		List<MetriquesServeurDistant> copie;
+		synchronized (this) {
+			nomMBean = nom;
+			copie = new ArrayList<MetriquesServeurDistant>(serveurs);
+		}
+		ExportMetriques.enregistrer(nom, this);
+		for (MetriquesServeurDistant serveur : copie) {
+			ExportMetriques.enregistrer(nom + ",serveur=" + serveur.getNom(), serveur);
+		}
+
+		if (port > 0) {
+			try {
+				ExportMetriques.demarrer(port);
+			} catch (IOException e) {
+				System.out.println("Erreur: point d'accès des métriques indisponible sur le port " + port + " (" + e.getMessage() + ")");
+			}
+		}
+	}
+
+	public int getNbrServeurs() {
+		return copieServeurs().size();
+	}
+
+	public int getOperationsEnAttente() {
+		ReservoirOperations r = reservoir;
+		return r == null ? 0 : r.getNbrDisponibles();
+	}
+
+	public int getOperationsRestantes() {
+		ReservoirOperations r = reservoir;
+		return r == null ? 0 : r.getNbrRestantes();
+	}
+
+	public long getPaquetsEnVol() {
+		long total = 0;
+		for (MetriquesServeurDistant serveur : copieServeurs()) {
+			total += serveur.getPaquetsEnVol();
+		}
+		return total;
+	}
+
+	public double getOperationsParSeconde() {
+		double total = 0;
+		for (MetriquesServeurDistant serveur : copieServeurs()) {
+			total += serveur.getOperationsParSeconde();
+		}
+		return total;
+	}
+
+	public long getNbrRefus() {
+		long total = 0;
+		for (MetriquesServeurDistant serveur : copieServeurs()) {
+			total += serveur.getNbrRefus();
+		}
+		return total;
+	}
+
+	public long getNbrDeconnexions() {
+		long total = 0;
+		for (MetriquesServeurDistant serveur : copieServeurs()) {
+			total += serveur.getNbrDeconnexions();
+		}
+		return total;
+	}
+
+	public int getArriereVerification() {
+		IntSupplier a = arriereVerification;
+		return a == null ? 0 : a.getAsInt();
+	}
+
+	public void exporter(FormatPrometheus sortie) {
+		String etiquettes = "mode=\"" + mode + "\"";
+		sortie.jauge("tp2_repartiteur_operations_en_attente", "Operations disponibles dans le reservoir", etiquettes, getOperationsEnAttente());
+		sortie.jauge("tp2_repartiteur_operations_restantes", "Operations pas encore terminees", etiquettes, getOperationsRestantes());
+		sortie.jauge("tp2_repartiteur_arriere_verification", "Paquets calcules en attente de verification", etiquettes, getArriereVerification());
+
+		for (MetriquesServeurDistant serveur : copieServeurs()) {
+			serveur.exporter(sortie, etiquettes);
+		}
+	}
+
+	/**
+	 * @return copie de la liste des métriques des serveurs
+	 */
+	private synchronized List<MetriquesServeurDistant> copieServeurs() {
+		return new ArrayList<MetriquesServeurDistant>(serveurs);
+	}
+
+}
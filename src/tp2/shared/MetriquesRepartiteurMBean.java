@@ -0,0 +1,51 @@
+package tp2.shared;
+
+/**
+ * Interface JMX des métriques d'un répartiteur (voir MetriquesRepartiteur).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public interface MetriquesRepartiteurMBean {
+
+	/**
+	 * @return nombre de serveurs du fichier de configuration et ajoutés en cours de calcul
+	 */
+	int getNbrServeurs();
+
+	/**
+	 * @return nombre d'opérations disponibles dans le réservoir (profondeur de la file)
+	 */
+	int getOperationsEnAttente();
+
+	/**
+	 * @return nombre d'opérations pas encore terminées (disponibles et en cours)
+	 */
+	int getOperationsRestantes();
+
+	/**
+	 * @return nombre de paquets envoyés et sans réponse, tous serveurs confondus
+	 */
+	long getPaquetsEnVol();
+
+	/**
+	 * @return débit de tous les serveurs, en opérations par seconde
+	 */
+	double getOperationsParSeconde();
+
+	/**
+	 * @return nombre de paquets refusés, tous serveurs confondus
+	 */
+	long getNbrRefus();
+
+	/**
+	 * @return nombre de pertes de connexion, tous serveurs confondus
+	 */
+	long getNbrDeconnexions();
+
+	/**
+	 * @return nombre de paquets calculés en attente de vérification (répartiteur non sécurisé)
+	 */
+	int getArriereVerification();
+
+}
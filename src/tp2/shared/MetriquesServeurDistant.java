@@ -0,0 +1,129 @@
+package tp2.shared;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métriques d'un serveur vu par un répartiteur : paquets calculés, refusés,
+ * en vol, pertes de connexion, débit et histogramme de la durée des paquets
+ * (aller-retour mesuré par ConnexionServeur). Tous les compteurs sont des
+ * LongAdder, mis à jour sans verrou par les threads d'envoi.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class MetriquesServeurDistant implements MetriquesServeurDistantMBean {
+
+	private final String nom;                                    // Nom du serveur
+	private final LongAdder nbrPaquets = new LongAdder();        // Paquets calculés
+	private final LongAdder nbrRefus = new LongAdder();          // Paquets refusés
+	private final LongAdder nbrDeconnexions = new LongAdder();   // Pertes de connexion
+	private final LongAdder paquetsEnVol = new LongAdder();      // Paquets envoyés sans réponse
+	private final CompteurDebit operations = new CompteurDebit(); // Opérations calculées
+	private final HistogrammeLatence latences = new HistogrammeLatence(); // Durée des paquets calculés
+
+	/**
+	 * Constructeur des métriques d'un serveur.
+	 * @param nom nom du serveur
+	 */
+	public MetriquesServeurDistant(String nom) {
+		this.nom = nom;
+	}
+
+	/**
+	 * Envoi d'un paquet au serveur.
+	 * @return instant de l'envoi (System.nanoTime), à passer à reponse
+	 */
+	public long envoi() {
+		paquetsEnVol.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Réponse du serveur à un paquet.
+	 * @param debut instant de l'envoi
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @param accepte true si le paquet a été calculé, false s'il a été refusé
+	 */
+	public void reponse(long debut, int nbrOperations, boolean accepte) {
+		paquetsEnVol.decrement();
+		if (accepte) {
+			nbrPaquets.increment();
+			operations.ajouter(nbrOperations);
+			latences.enregistrer(System.nanoTime() - debut);
+		} else {
+			nbrRefus.increment();
+		}
+	}
+
+	/**
+	 * Perte de la connexion pendant l'envoi d'un paquet.
+	 */
+	public void deconnexion() {
+		paquetsEnVol.decrement();
+		nbrDeconnexions.increment();
+	}
+
+	/**
+	 * @return nom du serveur
+	 */
+	public String getNom() {
+		return nom;
+	}
+
+	public long getNbrPaquets() {
+		return nbrPaquets.sum();
+	}
+
+	public long getNbrOperations() {
+		return operations.getTotal();
+	}
+
+	public double getOperationsParSeconde() {
+		return operations.getParSeconde();
+	}
+
+	public long getNbrRefus() {
+		return nbrRefus.sum();
+	}
+
+	public long getNbrDeconnexions() {
+		return nbrDeconnexions.sum();
+	}
+
+	public long getPaquetsEnVol() {
+		return paquetsEnVol.sum();
+	}
+
+	public double getLatenceMoyenneMs() {
+		return latences.getMoyenneMs();
+	}
+
+	public double getLatenceP50Ms() {
+		return latences.getCentileMs(50);
+	}
+
+	public double getLatenceP99Ms() {
+		return latences.getCentileMs(99);
+	}
+
+	public String getHistogrammeLatence() {
+		return latences.decrire();
+	}
+
+	/**
+	 * Export des métriques du serveur, étiquetées par son nom.
+	 * @param sortie sortie Prometheus
+	 * @param etiquettes étiquettes du répartiteur
+	 */
+	void exporter(FormatPrometheus sortie, String etiquettes) {
+		String e = etiquettes + ",serveur=\"" + FormatPrometheus.echapper(nom) + "\"";
+		sortie.compteur("tp2_repartiteur_paquets_total", "Paquets calcules par le serveur", e, getNbrPaquets());
+		sortie.compteur("tp2_repartiteur_operations_total", "Operations calculees par le serveur", e, getNbrOperations());
+		sortie.jauge("tp2_repartiteur_operations_par_seconde", "Debit du serveur", e, getOperationsParSeconde());
+		sortie.compteur("tp2_repartiteur_refus_total", "Paquets refuses par le serveur", e, getNbrRefus());
+		sortie.compteur("tp2_repartiteur_deconnexions_total", "Pertes de connexion avec le serveur", e, getNbrDeconnexions());
+		sortie.jauge("tp2_repartiteur_paquets_en_vol", "Paquets envoyes au serveur et sans reponse", e, getPaquetsEnVol());
+		latences.exporter(sortie, "tp2_repartiteur_latence_paquet_secondes", "Duree aller-retour des paquets calcules", e);
+	}
+
+}
@@ -0,0 +1,61 @@
+package tp2.shared;
+
+/**
+ * Interface JMX des métriques d'un serveur vu par un répartiteur (voir MetriquesServeurDistant).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public interface MetriquesServeurDistantMBean {
+
+	/**
+	 * @return nombre de paquets calculés par le serveur
+	 */
+	long getNbrPaquets();
+
+	/**
+	 * @return nombre d'opérations calculées par le serveur
+	 */
+	long getNbrOperations();
+
+	/**
+	 * @return débit du serveur, en opérations par seconde
+	 */
+	double getOperationsParSeconde();
+
+	/**
+	 * @return nombre de paquets refusés par le serveur
+	 */
+	long getNbrRefus();
+
+	/**
+	 * @return nombre de pertes de connexion avec le serveur
+	 */
+	long getNbrDeconnexions();
+
+	/**
+	 * @return nombre de paquets envoyés au serveur et sans réponse
+	 */
+	long getPaquetsEnVol();
+
+	/**
+	 * @return durée moyenne d'un paquet calculé (aller-retour), en millisecondes
+	 */
+	double getLatenceMoyenneMs();
+
+	/**
+	 * @return médiane estimée de la durée d'un paquet calculé, en millisecondes
+	 */
+	double getLatenceP50Ms();
+
+	/**
+	 * @return 99e centile estimé de la durée d'un paquet calculé, en millisecondes
+	 */
+	double getLatenceP99Ms();
+
+	/**
+	 * @return histogramme des durées des paquets calculés
+	 */
+	String getHistogrammeLatence();
+
+}
@@ -0,0 +1,40 @@
+package tp2.shared;
+
+/**
+ * Modèle de coût des opérations, utilisé pour découper les paquets selon un
+ * budget de coût plutôt qu'un nombre d'opérations.
+ *
+ * Le coût d'une opération est de la forme a + b * coutAnalytique(operande),
+ * ce qui permet de calculer le coût d'un ensemble d'opérandes à partir de
+ * leur nombre et de la somme de leurs coûts analytiques.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public interface ModeleCout {
+
+	/**
+	 * Coût analytique d'une opération, indépendant de toute calibration.
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @return coût analytique
+	 */
+	double coutAnalytique(String operation, int operande);
+
+	/**
+	 * Coût d'un ensemble d'opérandes d'une même opération.
+	 * @param operation nom de l'opération
+	 * @param nbrOperandes nombre d'opérandes
+	 * @param sommeCoutAnalytique somme des coûts analytiques des opérandes
+	 * @return coût estimé
+	 */
+	double cout(String operation, long nbrOperandes, double sommeCoutAnalytique);
+
+	/**
+	 * Enregistre la durée mesurée du calcul d'un paquet (calibration en ligne).
+	 * @param operations paquet calculé
+	 * @param dureeNanos durée de l'appel au serveur
+	 */
+	void observer(PaquetOperations operations, long dureeNanos);
+
+}
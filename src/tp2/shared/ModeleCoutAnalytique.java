@@ -0,0 +1,39 @@
+package tp2.shared;
+
+/**
+ * Modèle de coût analytique des opérations de référence (voir tp2.serveur.Operations) :
+ * - fib(n) : nombre d'appels récursifs, de l'ordre de phi^n ;
+ * - prime(x) : x tests de primalité en O(x), soit de l'ordre de x^2.
+ * Les autres opérations ont un coût unitaire.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ModeleCoutAnalytique implements ModeleCout {
+
+	private static final double LOG_PHI = Math.log((1 + Math.sqrt(5)) / 2);
+	private static final double COUT_MAX = 1e15;   // Borne des coûts, pour que les sommes ne débordent pas
+
+	public double coutAnalytique(String operation, int operande) {
+		double cout;
+
+		if ("fib".equals(operation)) {
+			cout = Math.exp(LOG_PHI * Math.max(operande, 1));
+		} else if ("prime".equals(operation)) {
+			cout = Math.max((double) operande * operande, 1);
+		} else {
+			cout = 1;
+		}
+
+		return Math.min(cout, COUT_MAX);
+	}
+
+	public double cout(String operation, long nbrOperandes, double sommeCoutAnalytique) {
+		return sommeCoutAnalytique;
+	}
+
+	public void observer(PaquetOperations operations, long dureeNanos) {
+		// Pas de calibration
+	}
+
+}
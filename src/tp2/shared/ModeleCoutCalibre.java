@@ -0,0 +1,108 @@
+package tp2.shared;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Modèle de coût calibré en ligne à partir des durées mesurées des paquets.
+ *
+ * La durée d'un paquet est modélisée par
+ *   c0 + somme sur les opérations de (a_op * nbrOperandes + b_op * sommeCoutAnalytique)
+ * où c0 représente le coût fixe d'un appel (réseau, sérialisation). Les poids sont
+ * appris par moindres carrés normalisés (NLMS) sur des caractéristiques mises à
+ * l'échelle, ce qui permet de découvrir par exemple qu'un serveur utilisant les
+ * noyaux rapides a un coût quasi constant par opérande.
+ * Avant la première mesure, le modèle se comporte comme le modèle analytique.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ModeleCoutCalibre extends ModeleCoutAnalytique {
+
+	private static final double PAS = 0.5;         // Pas d'apprentissage du NLMS
+	private static final double EPSILON = 1e-9;    // Régularisation de la normalisation
+
+	private HashMap<String, Integer> indices = new HashMap<String, Integer>(); // Indice des caractéristiques de chaque opération
+	private double[] poids = new double[1];      // Poids des caractéristiques mises à l'échelle (indice 0 : c0)
+	private double[] echelles = new double[] { 1 }; // Échelle (maximum observé) de chaque caractéristique
+	private boolean calibre = false;             // Au moins une mesure a été enregistrée
+	private volatile HashMap<String, double[]> coefficients = new HashMap<String, double[]>(); // (a_op, b_op) publiés pour les lecteurs
+
+	@Override
+	public double cout(String operation, long nbrOperandes, double sommeCoutAnalytique) {
+		double[] coefficient = coefficients.get(operation);
+
+		if (coefficient == null) {
+			return sommeCoutAnalytique;
+		}
+
+		return coefficient[0] * nbrOperandes + coefficient[1] * sommeCoutAnalytique;
+	}
+
+	@Override
+	public synchronized void observer(PaquetOperations operations, long dureeNanos) {
+		// Caractéristiques du paquet : 1, puis (nbrOperandes, sommeCoutAnalytique) par opération
+		for (int i = 0; i < operations.getNbrTranches(); i++) {
+			String s = operations.getOperation(i);
+			if (!indices.containsKey(s)) {
+				indices.put(s, poids.length);
+				poids = Arrays.copyOf(poids, poids.length + 2);
+				echelles = Arrays.copyOf(echelles, echelles.length + 2);
+				echelles[echelles.length - 2] = 1;
+				echelles[echelles.length - 1] = 1;
+			}
+		}
+
+		double[] x = new double[poids.length];
+		x[0] = 1;
+		for (int i = 0; i < operations.getNbrTranches(); i++) {
+			String s = operations.getOperation(i);
+			int[] segment = operations.getSegment(i);
+			int indice = indices.get(s);
+			for (int j = operations.getDebut(i); j < operations.getDebut(i) + operations.getLongueur(i); j++) {
+				x[indice] += 1;
+				x[indice + 1] += coutAnalytique(s, segment[j]);
+			}
+		}
+
+		// Mise à l'échelle : le poids réel d'une caractéristique reste poids / echelle
+		for (int j = 0; j < x.length; j++) {
+			if (x[j] > echelles[j]) {
+				poids[j] = poids[j] * x[j] / echelles[j];
+				echelles[j] = x[j];
+			}
+		}
+
+		if (!calibre) {
+			// Première mesure : toute la durée est attribuée au coût analytique
+			double total = 0;
+			for (String s : indices.keySet()) {
+				total += x[indices.get(s) + 1];
+			}
+			for (String s : indices.keySet()) {
+				poids[indices.get(s) + 1] = dureeNanos / Math.max(total, EPSILON) * echelles[indices.get(s) + 1];
+			}
+			calibre = true;
+		} else {
+			double prediction = 0;
+			double norme = EPSILON;
+			for (int j = 0; j < x.length; j++) {
+				prediction += poids[j] * x[j] / echelles[j];
+				norme += (x[j] / echelles[j]) * (x[j] / echelles[j]);
+			}
+
+			double erreur = dureeNanos - prediction;
+			for (int j = 0; j < x.length; j++) {
+				poids[j] = Math.max(0, poids[j] + PAS * erreur * (x[j] / echelles[j]) / norme);
+			}
+		}
+
+		HashMap<String, double[]> nouveauxCoefficients = new HashMap<String, double[]>();
+		for (String s : indices.keySet()) {
+			int indice = indices.get(s);
+			nouveauxCoefficients.put(s, new double[] { poids[indice] / echelles[indice], poids[indice + 1] / echelles[indice + 1] });
+		}
+		coefficients = nouveauxCoefficients;
+	}
+
+}
@@ -0,0 +1,51 @@
+package tp2.shared;
+
+/**
+ * Versions optimisées des opérations du TP2.
+ *
+ * Tous les résultats étant ramenés modulo 5000 par le serveur, les noyaux
+ * de cette classe renvoient directement la valeur modulo 5000, identique à
+ * celle de la version de référence (tp2.serveur.Operations) tant que cette dernière ne
+ * déborde pas.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class OperationsRapides {
+
+	public static final int MODULO = 5000;          // Modulo appliqué à tous les résultats
+	public static final int PERIODE_PISANO = 7500;  // Période de Pisano de 5000 : fib(x) % 5000 = fib(x % 7500) % 5000
+
+	// Table pré-calculée de fib(x) % 5000 sur une période complète
+	private static final int[] TABLE_FIB = construireTableFib();
+
+	/**
+	 * Fibonacci modulo 5000 en O(1) par lecture dans la table de Pisano.
+	 * Contrairement à Operations.fib, ne déborde pas pour x > 46.
+	 * @param x opérande
+	 * @return fib(x) % 5000 (0 si x <= 0)
+	 */
+	public static int fib(int x) {
+		if (x <= 0)
+			return 0;
+		return TABLE_FIB[x % PERIODE_PISANO];
+	}
+
+	/**
+	 * Construit la table fib(x) % 5000 pour x dans [0, PERIODE_PISANO[.
+	 * @return table des valeurs
+	 */
+	private static int[] construireTableFib() {
+		int[] table = new int[PERIODE_PISANO];
+		table[0] = 0;
+		table[1] = 1;
+
+		for (int i = 2; i < PERIODE_PISANO; ++i)
+		{
+			table[i] = (table[i - 1] + table[i - 2]) % MODULO;
+		}
+
+		return table;
+	}
+
+}
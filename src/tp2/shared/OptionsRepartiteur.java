@@ -0,0 +1,346 @@
+package tp2.shared;
+
+/**
+ * Options facultatives des répartiteurs (sécurisé et non sécurisé), passées
+ * au lancement après le fichier d'opérations et le fichier de configuration
+ * sous la forme --nom=valeur (ou --nom pour une option booléenne).
+ *
+ * Options reconnues :
+ * - --dedup : regroupe les opérations identiques, chaque opérande distinct n'est envoyé qu'une fois
+ * - --compact=oui|non : envoi des paquets au format compact quand le serveur le supporte (oui par défaut)
+ * - --pipeline=N : (répartiteur sécurisé) jusqu'à N paquets en cours par serveur, répartition asynchrone (0 = un thread par serveur, par défaut)
+ * - --threads=plateforme|virtuels : threads classiques (par défaut) ou threads virtuels de Java 21 pour les serveurs
+ *   et les appels du pipeline (voir FabriqueThreads)
+ * - --cout=operations|analytique|calibre : taille des paquets en nombre d'opérations (par défaut), ou selon un budget
+ *   de coût estimé par le modèle analytique ou par le modèle calibré sur les durées mesurées (voir ModeleCout)
+ * - --verification=complete|adaptative|controle : (répartiteur non sécurisé) chaque paquet est vérifié par un quorum (par défaut),
+ *   ou seulement un échantillon des paquets des serveurs fiables, ou contrôlé localement sur un échantillon d'opérandes
+ * - --echantillon=P : pourcentage des paquets de serveurs fiables vérifiés en vérification adaptative (10 par défaut)
+ * - --erreur-max=P : pourcentage maximal des paquets d'un serveur fiable à la fois faux et acceptés sans vérification
+ *   en vérification adaptative, la part vérifiée est relevée selon le taux d'erreur estimé de chaque serveur
+ *   (100 = pas de borne, par défaut)
+ * - --controle=P : pourcentage des opérandes recalculés par le répartiteur en contrôle local (10 par défaut)
+ * - --detail : (répartiteur non sécurisé, vérification par quorum) les serveurs renvoient le résultat de chaque opérande,
+ *   le quorum est atteint opérande par opérande et seuls les opérandes en litige sont revérifiés (voir VotesOperandes)
+ * - --journal=FICHIER : (répartiteur sécurisé) chaque paquet calculé est ajouté au journal de progression FICHIER (voir JournalProgression)
+ * - --resume : reprend le calcul à partir du journal (nécessite --journal), les paquets déjà calculés ne sont pas refaits
+ * - --flux=N : lecture du fichier d'opérations en flux pendant le calcul, avec au plus N opérations en attente
+ *   dans le réservoir (0 = lecture complète avant le calcul, par défaut ; incompatible avec --dedup)
+ * - --reessais=N : (répartiteur sécurisé) nombre d'essais de reconnexion à un serveur perdu, avec un délai
+ *   doublé à chaque échec (0 = serveur abandonné à la première perte de connexion, par défaut)
+ * - --surveillance=S : (répartiteur sécurisé) relit le fichier de configuration et interroge les registres toutes
+ *   les S secondes, un nouveau serveur participe au calcul en cours (0 = liste fixe, par défaut)
+ * - --trace=FICHIER : écrit en fin de calcul la trace du cycle de vie des paquets au format JSON de Chrome (voir TraceurPaquets)
+ * - --trace-taille=N : nombre d'événements conservés dans le tampon circulaire de la trace (262144 par défaut)
+ * - --metriques=PORT : publie les métriques au format Prometheus sur http://127.0.0.1:PORT/metrics
+ *   (0 = JMX seulement, par défaut ; voir MetriquesRepartiteur)
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class OptionsRepartiteur {
+
+	private boolean dedup = false;   // Déduplication des opérandes avant découpage en paquets
+	private boolean compact = true;  // Envoi des paquets au format compact (PaquetCompact)
+	private int profondeurPipeline = 0; // Nombre de paquets en cours par serveur (0 = un thread bloquant par serveur)
+	private boolean threadsVirtuels = false; // Serveurs sur des threads virtuels (Java 21)
+	private String modeleCout = "operations"; // Modèle de coût utilisé pour la taille des paquets
+	private String verification = "complete"; // Mode de vérification du répartiteur non sécurisé
+	private int tauxEchantillon = 10;         // Pourcentage des paquets de serveurs fiables qui sont vérifiés
+	private int erreurMax = 100;              // Pourcentage maximal des paquets d'un serveur fiable faux et non vérifiés
+	private int tauxControle = 10;            // Pourcentage des opérandes recalculés en contrôle local
+	private boolean detail = false;           // Vérification opérande par opérande
+	private String journal = null;            // Fichier du journal de progression (null : pas de journal)
+	private boolean reprise = false;          // Reprise à partir du journal
+	private int capaciteFlux = 0;             // Opérations en attente en lecture en flux (0 = lecture complète)
+	private int portMetriques = 0;            // Port du point d'accès Prometheus (0 = JMX seulement)
+	private int nbrReessais = 0;              // Essais de reconnexion à un serveur perdu
+	private int periodeSurveillance = 0;      // Période de la surveillance des serveurs, en secondes (0 = liste fixe)
+	private String trace = null;              // Fichier de la trace des paquets (null : pas de trace)
+	private int tailleTrace = TraceurPaquets.TAILLE_DEFAUT; // Nombre d'événements conservés dans la trace
+
+	/**
+	 * Analyse les options facultatives de la ligne de commande.
+	 * @param args arguments du répartiteur
+	 * @param debut indice du premier argument facultatif
+	 * @return options du répartiteur
+	 * @exception IllegalArgumentException si une option est inconnue ou mal formée
+	 */
+	public static OptionsRepartiteur parse(String[] args, int debut) {
+		OptionsRepartiteur options = new OptionsRepartiteur();
+
+		for (int i = debut; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("option mal formée '" + args[i] + "' (attendu --nom=valeur)");
+			}
+
+			String[] temp = args[i].substring(2).split("=", 2);
+			String nom = temp[0];
+			String valeur = temp.length == 2 ? temp[1] : null;
+
+			if (nom.equals("dedup")) {
+				options.dedup = parseBooleen(nom, valeur);
+			} else if (nom.equals("compact")) {
+				options.compact = parseBooleen(nom, valeur);
+			} else if (nom.equals("pipeline")) {
+				options.profondeurPipeline = parseEntierPositifOuNul(nom, valeur);
+			} else if (nom.equals("threads")) {
+				if (!"plateforme".equals(valeur) && !"virtuels".equals(valeur)) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (plateforme ou virtuels)");
+				}
+				options.threadsVirtuels = valeur.equals("virtuels");
+			} else if (nom.equals("cout")) {
+				if (!"operations".equals(valeur) && !"analytique".equals(valeur) && !"calibre".equals(valeur)) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (operations, analytique ou calibre)");
+				}
+				options.modeleCout = valeur;
+			} else if (nom.equals("verification")) {
+				if (!"complete".equals(valeur) && !"adaptative".equals(valeur) && !"controle".equals(valeur)) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (complete, adaptative ou controle)");
+				}
+				options.verification = valeur;
+			} else if (nom.equals("echantillon")) {
+				options.tauxEchantillon = parsePourcentage(nom, valeur);
+			} else if (nom.equals("erreur-max")) {
+				options.erreurMax = parsePourcentage(nom, valeur);
+			} else if (nom.equals("controle")) {
+				options.tauxControle = parsePourcentage(nom, valeur);
+			} else if (nom.equals("detail")) {
+				options.detail = parseBooleen(nom, valeur);
+			} else if (nom.equals("journal")) {
+				if (valeur == null || valeur.isEmpty()) {
+					throw new IllegalArgumentException("fichier manquant pour --" + nom);
+				}
+				options.journal = valeur;
+			} else if (nom.equals("resume")) {
+				options.reprise = parseBooleen(nom, valeur);
+			} else if (nom.equals("flux")) {
+				options.capaciteFlux = parseEntierPositifOuNul(nom, valeur);
+			} else if (nom.equals("reessais")) {
+				options.nbrReessais = parseEntierPositifOuNul(nom, valeur);
+			} else if (nom.equals("surveillance")) {
+				options.periodeSurveillance = parseEntierPositifOuNul(nom, valeur);
+			} else if (nom.equals("trace")) {
+				if (valeur == null || valeur.isEmpty()) {
+					throw new IllegalArgumentException("fichier manquant pour --" + nom);
+				}
+				options.trace = valeur;
+			} else if (nom.equals("trace-taille")) {
+				options.tailleTrace = parseEntierPositifOuNul(nom, valeur);
+				if (options.tailleTrace == 0 || options.tailleTrace > (1 << 26)) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (entre 1 et " + (1 << 26) + ")");
+				}
+			} else if (nom.equals("metriques")) {
+				options.portMetriques = parseEntierPositifOuNul(nom, valeur);
+				if (options.portMetriques > 65535) {
+					throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (port attendu)");
+				}
+			} else {
+				throw new IllegalArgumentException("option inconnue '" + args[i] + "'");
+			}
+		}
+
+		if (options.reprise && options.journal == null) {
+			throw new IllegalArgumentException("--resume nécessite --journal=FICHIER");
+		}
+		// Les multiplicités ne sont connues qu'à la fin de la lecture du fichier
+		if (options.capaciteFlux > 0 && options.dedup) {
+			throw new IllegalArgumentException("--flux est incompatible avec --dedup");
+		}
+		// Les serveurs ajoutés ou reconnectés ont un thread, qui n'existe pas en pipeline
+		if (options.profondeurPipeline > 0 && (options.nbrReessais > 0 || options.periodeSurveillance > 0)) {
+			throw new IllegalArgumentException("--reessais et --surveillance sont incompatibles avec --pipeline");
+		}
+
+		return options;
+	}
+
+	/**
+	 * Lecture d'une option booléenne : --nom, --nom=oui ou --nom=non.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option (null si absente)
+	 * @return valeur booléenne
+	 */
+	private static boolean parseBooleen(String nom, String valeur) {
+		if (valeur == null || valeur.equals("oui")) {
+			return true;
+		} else if (valeur.equals("non")) {
+			return false;
+		}
+		throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (oui ou non)");
+	}
+
+	/**
+	 * Lecture d'un entier positif ou nul.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option (null si absente)
+	 * @return entier lu
+	 */
+	private static int parseEntierPositifOuNul(String nom, String valeur) {
+		int entier;
+		try {
+			entier = Integer.parseInt(valeur);
+		} catch (NumberFormatException e) {
+			entier = -1;
+		}
+		if (entier < 0) {
+			throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom
+					+ " (entier positif attendu)");
+		}
+		return entier;
+	}
+
+	/**
+	 * Lecture d'un pourcentage entre 0 et 100.
+	 * @param nom nom de l'option
+	 * @param valeur valeur de l'option (null si absente)
+	 * @return pourcentage lu
+	 */
+	private static int parsePourcentage(String nom, String valeur) {
+		int pourcentage = parseEntierPositifOuNul(nom, valeur);
+		if (pourcentage > 100) {
+			throw new IllegalArgumentException("valeur '" + valeur + "' invalide pour --" + nom + " (pourcentage attendu)");
+		}
+		return pourcentage;
+	}
+
+	/**
+	 * @return true si les opérandes identiques sont regroupés
+	 */
+	public boolean isDedup() {
+		return dedup;
+	}
+
+	/**
+	 * @return true si les paquets sont envoyés au format compact
+	 */
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * @return nombre de paquets en cours par serveur en mode pipeline (0 = désactivé)
+	 */
+	public int getProfondeurPipeline() {
+		return profondeurPipeline;
+	}
+
+	/**
+	 * @return true si les serveurs tournent sur des threads virtuels (s'ils sont disponibles)
+	 */
+	public boolean isThreadsVirtuels() {
+		return threadsVirtuels;
+	}
+
+	/**
+	 * @return true si seul un échantillon des paquets des serveurs fiables est vérifié
+	 */
+	public boolean isVerificationAdaptative() {
+		return verification.equals("adaptative");
+	}
+
+	/**
+	 * @return true si les résultats sont contrôlés localement sur un échantillon d'opérandes
+	 */
+	public boolean isControleLocal() {
+		return verification.equals("controle");
+	}
+
+	/**
+	 * @return pourcentage des opérandes recalculés en contrôle local
+	 */
+	public int getTauxControle() {
+		return tauxControle;
+	}
+
+	/**
+	 * @return pourcentage des paquets de serveurs fiables qui sont vérifiés
+	 */
+	public int getTauxEchantillon() {
+		return tauxEchantillon;
+	}
+
+	/**
+	 * @return pourcentage maximal des paquets d'un serveur fiable à la fois faux et acceptés sans vérification
+	 */
+	public int getErreurMax() {
+		return erreurMax;
+	}
+
+	/**
+	 * Crée le modèle de coût demandé.
+	 * @return nouveau modèle de coût, null si les paquets sont en nombre d'opérations
+	 */
+	public ModeleCout creerModeleCout() {
+		if (modeleCout.equals("analytique")) {
+			return new ModeleCoutAnalytique();
+		} else if (modeleCout.equals("calibre")) {
+			return new ModeleCoutCalibre();
+		}
+		return null;
+	}
+
+	/**
+	 * @return true si la vérification par quorum se fait opérande par opérande
+	 */
+	public boolean isDetail() {
+		return detail;
+	}
+
+	/**
+	 * @return fichier du journal de progression, null si pas de journal
+	 */
+	public String getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @return true si le calcul reprend à partir du journal
+	 */
+	public boolean isReprise() {
+		return reprise;
+	}
+
+	/**
+	 * @return nombre maximal d'opérations en attente en lecture en flux, 0 pour une lecture complète
+	 */
+	public int getCapaciteFlux() {
+		return capaciteFlux;
+	}
+
+	/**
+	 * @return nombre d'essais de reconnexion à un serveur perdu
+	 */
+	public int getNbrReessais() {
+		return nbrReessais;
+	}
+
+	/**
+	 * @return période de la surveillance des serveurs en secondes, 0 pour une liste fixe
+	 */
+	public int getPeriodeSurveillance() {
+		return periodeSurveillance;
+	}
+
+	/**
+	 * @return fichier de la trace des paquets, null si pas de trace
+	 */
+	public String getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return nombre d'événements conservés dans la trace
+	 */
+	public int getTailleTrace() {
+		return tailleTrace;
+	}
+
+	/**
+	 * @return port du point d'accès Prometheus, 0 pour JMX seulement
+	 */
+	public int getPortMetriques() {
+		return portMetriques;
+	}
+
+}
@@ -0,0 +1,108 @@
+package tp2.shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Représentation compacte d'un paquet d'opérations pour l'envoi au serveur :
+ * un code d'opération sur un octet et un int par opérande, au lieu d'une
+ * table de hachage de listes d'Integer.
+ *
+ * Les codes sont définis par la table NOMS_OPERATION, commune au serveur
+ * et aux répartiteurs.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class PaquetCompact {
+
+	// Nom de chaque opération, indexé par son code
+	private static final String[] NOMS_OPERATION = { "fib", "prime" };
+
+	private final byte[] codes;       // Code de l'opération de chaque élément
+	private final int[] operandes;    // Opérande de chaque élément
+
+	/**
+	 * Constructeur du paquet compact.
+	 * @param codes codes des opérations
+	 * @param operandes opérandes
+	 */
+	public PaquetCompact(byte[] codes, int[] operandes) {
+		this.codes = codes;
+		this.operandes = operandes;
+	}
+
+	/**
+	 * Compacte un paquet, dans l'ordre de parcours de la table de hachage.
+	 * @param operations paquet d'opérations
+	 * @return paquet compact, ou null si une opération n'a pas de code
+	 */
+	public static PaquetCompact depuis(HashMap<String, ArrayList<Integer>> operations) {
+		int nbrOperations = 0;
+
+		for (String s : operations.keySet()) {
+			if (code(s) < 0)
+				return null;
+			nbrOperations += operations.get(s).size();
+		}
+
+		byte[] codes = new byte[nbrOperations];
+		int[] operandes = new int[nbrOperations];
+		int indice = 0;
+
+		for (String s : operations.keySet()) {
+			byte code = code(s);
+			for (Integer i : operations.get(s)) {
+				codes[indice] = code;
+				operandes[indice] = i;
+				indice++;
+			}
+		}
+
+		return new PaquetCompact(codes, operandes);
+	}
+
+	/**
+	 * @param nomOperation nom de l'opération
+	 * @return code de l'opération, -1 si elle n'a pas de code
+	 */
+	public static byte code(String nomOperation) {
+		for (byte i = 0; i < NOMS_OPERATION.length; i++) {
+			if (NOMS_OPERATION[i].equals(nomOperation))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param code code de l'opération
+	 * @return nom de l'opération, null si le code est inconnu
+	 */
+	public static String nom(byte code) {
+		if (code < 0 || code >= NOMS_OPERATION.length)
+			return null;
+		return NOMS_OPERATION[code];
+	}
+
+	/**
+	 * @return codes des opérations
+	 */
+	public byte[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * @return opérandes
+	 */
+	public int[] getOperandes() {
+		return operandes;
+	}
+
+	/**
+	 * @return nombre d'opérations du paquet
+	 */
+	public int taille() {
+		return operandes.length;
+	}
+
+}
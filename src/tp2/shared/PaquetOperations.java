@@ -0,0 +1,161 @@
+package tp2.shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Paquet d'opérations distribué par le réservoir : une liste de tranches
+ * (opération, segment, début, longueur) des segments d'une TableOperations.
+ * Prendre, rendre ou découper une tranche ne copie aucun opérande et n'alloue
+ * aucun Integer ; le paquet n'est converti qu'à l'envoi, directement au format
+ * compact (versCompact), ou en table de hachage pour les serveurs qui ne le
+ * supportent pas et pour la vérification du répartiteur non sécurisé (versTable).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class PaquetOperations {
+
+	private final ArrayList<Tranche> tranches = new ArrayList<Tranche>(); // Tranches du paquet
+	private int taille = 0;                                              // Nombre d'opérations du paquet
+	private int numero = -1;                                             // Numéro du paquet dans la trace (-1 : non tracé)
+
+	/**
+	 * Ajoute une tranche au paquet.
+	 * @param tranche tranche d'un segment
+	 */
+	void ajouter(Tranche tranche) {
+		tranches.add(tranche);
+		taille += tranche.longueur;
+	}
+
+	/**
+	 * @return tranches du paquet
+	 */
+	ArrayList<Tranche> getTranches() {
+		return tranches;
+	}
+
+	/**
+	 * @return nombre d'opérations du paquet
+	 */
+	public int taille() {
+		return taille;
+	}
+
+	/**
+	 * @return numéro du paquet dans la trace, -1 si le paquet n'est pas tracé
+	 */
+	public int getNumero() {
+		return numero;
+	}
+
+	/**
+	 * @param numero numéro du paquet dans la trace (voir TraceurPaquets)
+	 */
+	void setNumero(int numero) {
+		this.numero = numero;
+	}
+
+	/**
+	 * @return nombre de tranches du paquet
+	 */
+	public int getNbrTranches() {
+		return tranches.size();
+	}
+
+	/**
+	 * @param i indice de la tranche
+	 * @return nom de l'opération de la tranche
+	 */
+	public String getOperation(int i) {
+		return tranches.get(i).operation;
+	}
+
+	/**
+	 * @param i indice de la tranche
+	 * @return segment contenant les opérandes de la tranche
+	 */
+	public int[] getSegment(int i) {
+		return tranches.get(i).segment;
+	}
+
+	/**
+	 * @param i indice de la tranche
+	 * @return position du premier opérande de la tranche dans le segment
+	 */
+	public int getDebut(int i) {
+		return tranches.get(i).debut;
+	}
+
+	/**
+	 * @param i indice de la tranche
+	 * @return nombre d'opérandes de la tranche
+	 */
+	public int getLongueur(int i) {
+		return tranches.get(i).longueur;
+	}
+
+	/**
+	 * Paquet au format compact, construit directement depuis les tranches.
+	 * @return paquet compact, ou null si une opération n'a pas de code
+	 */
+	public PaquetCompact versCompact() {
+		byte[] codes = new byte[taille];
+		int[] operandes = new int[taille];
+		int indice = 0;
+
+		for (Tranche tranche : tranches) {
+			byte code = PaquetCompact.code(tranche.operation);
+			if (code < 0)
+				return null;
+
+			System.arraycopy(tranche.segment, tranche.debut, operandes, indice, tranche.longueur);
+			for (int j = 0; j < tranche.longueur; j++) {
+				codes[indice++] = code;
+			}
+		}
+
+		return new PaquetCompact(codes, operandes);
+	}
+
+	/**
+	 * Paquet sous forme de table de hachage (opération, liste des opérandes).
+	 * @return table de hachage des opérations du paquet
+	 */
+	public HashMap<String, ArrayList<Integer>> versTable() {
+		HashMap<String, ArrayList<Integer>> operations = new HashMap<String, ArrayList<Integer>>();
+
+		for (Tranche tranche : tranches) {
+			ArrayList<Integer> operandes = operations.get(tranche.operation);
+			if (operandes == null) {
+				operandes = new ArrayList<Integer>();
+				operations.put(tranche.operation, operandes);
+			}
+			for (int j = tranche.debut; j < tranche.debut + tranche.longueur; j++) {
+				operandes.add(tranche.segment[j]);
+			}
+		}
+
+		return operations;
+	}
+
+	/**
+	 * Tranche [debut, debut + longueur[ du segment d'une opération. Les segments ne
+	 * sont jamais modifiés une fois lus : les tranches les partagent sans copie.
+	 */
+	static class Tranche {
+		final String operation;
+		final int[] segment;
+		final int debut;
+		final int longueur;
+
+		Tranche(String operation, int[] segment, int debut, int longueur) {
+			this.operation = operation;
+			this.segment = segment;
+			this.debut = debut;
+			this.longueur = longueur;
+		}
+	}
+
+}
@@ -0,0 +1,448 @@
+package tp2.shared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import tp2.shared.PaquetOperations.Tranche;
+
+/**
+ * Réservoir des opérations à distribuer aux serveurs, sans verrou global.
+ *
+ * Les opérations sont découpées en lots (tranches des segments int[] de la
+ * TableOperations, voir PaquetOperations) répartis sur une file par travailleur
+ * (thread ou pipeline d'un serveur). Un travailleur prend d'abord dans sa file,
+ * puis dans les lots rendus (refus, déconnexion), puis vole à la fin de la file
+ * des autres travailleurs. Un paquet est une liste de tranches : découper un lot
+ * ou rendre un paquet ne copie aucun opérande, les tranches rendues formant la
+ * liste libre des lots rendus. Les compteurs sont atomiques et un travailleur sans
+ * opération disponible est mis en attente (park) au lieu de boucler.
+ *
+ * Avec un modèle de coût, les paquets peuvent être remplis jusqu'à un budget
+ * de coût (prendreCout) ; le réservoir tient alors à jour, par opération, le
+ * nombre et la somme des coûts analytiques des opérandes disponibles afin
+ * d'estimer en O(1) le coût total restant à distribuer.
+ *
+ * En lecture en flux, le réservoir est créé vide et les opérations sont
+ * ajoutées au fil de la lecture du fichier (ajouter) : le lecteur est mis en
+ * attente tant que le réservoir contient capaciteFlux opérations disponibles,
+ * ce qui borne la mémoire utilisée, et le réservoir n'est terminé qu'une fois
+ * la lecture terminée (terminerAjouts). Si la lecture échoue, l'échec est
+ * signalé (echouerAjouts) : le répartiteur ne donne alors pas de résultat.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class ReservoirOperations {
+
+	public static final int TAILLE_LOT = 8;      // Nombre d'opérations par lot lors du découpage initial
+
+	private final List<ConcurrentLinkedDeque<Tranche>> files = new ArrayList<ConcurrentLinkedDeque<Tranche>>(); // Une file par travailleur
+	private final ConcurrentLinkedDeque<Tranche> lotsRendus = new ConcurrentLinkedDeque<Tranche>();           // Lots remis dans le réservoir (liste libre)
+	private final AtomicInteger nbrDisponibles = new AtomicInteger();   // Opérations pouvant être prises
+	private final AtomicInteger nbrRestantes = new AtomicInteger();     // Opérations pas encore terminées (disponibles + en cours)
+	private final ConcurrentLinkedQueue<Thread> enAttente = new ConcurrentLinkedQueue<Thread>(); // Travailleurs en attente
+	private final ModeleCout modele;             // Modèle de coût des opérations (null : taille en nombre d'opérations)
+	private final ConcurrentHashMap<String, AgregatCout> disponiblesParOperation = new ConcurrentHashMap<String, AgregatCout>(); // Opérandes disponibles par opération
+	private final int capaciteFlux;              // Nombre maximal d'opérations disponibles en lecture en flux (0 : toutes données à la construction)
+	private volatile boolean ajoutsTermines;     // Plus aucune opération ne sera ajoutée
+	private volatile boolean ajoutsEchoues;      // La lecture en flux s'est arrêtée sur une erreur
+	private volatile Thread lecteurEnAttente;    // Lecteur en attente de place dans le réservoir
+
+	/**
+	 * Constructeur du réservoir sans modèle de coût.
+	 * @param operations opérations à distribuer
+	 * @param nbrTravailleurs nombre de travailleurs (au moins 1)
+	 */
+	public ReservoirOperations(TableOperations operations, int nbrTravailleurs) {
+		this(operations, nbrTravailleurs, null);
+	}
+
+	/**
+	 * Constructeur du réservoir. Les lots sont répartis par plages contiguës sur les files.
+	 * @param operations opérations à distribuer
+	 * @param nbrTravailleurs nombre de travailleurs (au moins 1)
+	 * @param modele modèle de coût des opérations, null pour des paquets en nombre d'opérations
+	 */
+	public ReservoirOperations(TableOperations operations, int nbrTravailleurs, ModeleCout modele) {
+		this(nbrTravailleurs, modele, 0);
+
+		int nbrOperations = repartir(operations);
+		nbrDisponibles.set(nbrOperations);
+		nbrRestantes.set(nbrOperations);
+		ajoutsTermines = true;
+	}
+
+	/**
+	 * Constructeur d'un réservoir vide, pour la lecture en flux (voir ajouter et terminerAjouts).
+	 * @param nbrTravailleurs nombre de travailleurs (au moins 1)
+	 * @param modele modèle de coût des opérations, null pour des paquets en nombre d'opérations
+	 * @param capaciteFlux nombre maximal d'opérations disponibles avant que le lecteur ne soit mis en attente
+	 */
+	public ReservoirOperations(int nbrTravailleurs, ModeleCout modele, int capaciteFlux) {
+		this.modele = modele;
+		this.capaciteFlux = capaciteFlux;
+		nbrTravailleurs = Math.max(1, nbrTravailleurs);
+
+		for (int i = 0; i < nbrTravailleurs; i++) {
+			files.add(new ConcurrentLinkedDeque<Tranche>());
+		}
+	}
+
+	/**
+	 * Ajoute des opérations lues en flux. Le lecteur est mis en attente tant que le
+	 * réservoir contient au moins capaciteFlux opérations disponibles.
+	 * @param operations opérations à ajouter
+	 */
+	public void ajouter(TableOperations operations) {
+		Thread courant = Thread.currentThread();
+		lecteurEnAttente = courant;
+
+		// Le lecteur est inscrit avant de tester le compteur (voir attendreTravail)
+		while (nbrDisponibles.get() >= capaciteFlux) {
+			LockSupport.park(this);
+		}
+		lecteurEnAttente = null;
+
+		int nbrOperations = repartir(operations);
+		// Les opérations restantes sont comptées avant de pouvoir être prises
+		nbrRestantes.addAndGet(nbrOperations);
+		nbrDisponibles.addAndGet(nbrOperations);
+		reveiller();
+	}
+
+	/**
+	 * Signale la fin de la lecture en flux : le réservoir est terminé quand toutes les opérations le sont.
+	 */
+	public void terminerAjouts() {
+		ajoutsTermines = true;
+		reveiller();
+	}
+
+	/**
+	 * Signale l'échec de la lecture en flux, avant terminerAjouts : les opérations non lues manquent au résultat.
+	 */
+	public void echouerAjouts() {
+		ajoutsEchoues = true;
+	}
+
+	/**
+	 * @return true si la lecture en flux s'est arrêtée sur une erreur
+	 */
+	public boolean isAjoutsEchoues() {
+		return ajoutsEchoues;
+	}
+
+	/**
+	 * Découpe des opérations en lots répartis par plages contiguës sur les files.
+	 * @param operations opérations à répartir
+	 * @return nombre d'opérations réparties
+	 */
+	private int repartir(TableOperations operations) {
+		List<Tranche> lots = new ArrayList<Tranche>();
+		int nbrOperations = 0;
+
+		for (String s : operations.getNoms()) {
+			int[] segment = operations.getSegment(s);
+			int taille = operations.getTaille(s);
+			for (int debut = 0; debut < taille; debut += TAILLE_LOT) {
+				Tranche lot = new Tranche(s, segment, debut, Math.min(TAILLE_LOT, taille - debut));
+				lots.add(lot);
+				nbrOperations += lot.longueur;
+				ajusterDisponibles(lot, 1);
+			}
+		}
+
+		for (int j = 0; j < lots.size(); j++) {
+			files.get((int) ((long) j * files.size() / lots.size())).addLast(lots.get(j));
+		}
+
+		return nbrOperations;
+	}
+
+	/**
+	 * Prend au plus nbrOperations opérations pour un travailleur.
+	 * @param travailleur indice du travailleur
+	 * @param nbrOperations nombre d'opérations souhaité
+	 * @return paquet d'opérations, null si aucune opération n'est disponible
+	 */
+	public PaquetOperations prendre(int travailleur, int nbrOperations) {
+		return prendre(travailleur, nbrOperations, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Prend des opérations pour un travailleur jusqu'à atteindre le budget de coût
+	 * (au moins une opération). Nécessite un modèle de coût.
+	 * @param travailleur indice du travailleur
+	 * @param budget coût souhaité du paquet
+	 * @return paquet d'opérations, null si aucune opération n'est disponible
+	 */
+	public PaquetOperations prendreCout(int travailleur, double budget) {
+		if (modele == null)
+			throw new IllegalStateException("aucun modèle de coût");
+
+		return prendre(travailleur, Integer.MAX_VALUE, budget);
+	}
+
+	/**
+	 * Prend des opérations pour un travailleur jusqu'à atteindre nbrOperations ou le budget de coût
+	 * (au moins une opération).
+	 * @param travailleur indice du travailleur
+	 * @param nbrOperations nombre maximal d'opérations
+	 * @param budget coût maximal (ignoré sans modèle de coût)
+	 * @return paquet d'opérations, null si aucune opération n'est disponible
+	 */
+	public PaquetOperations prendre(int travailleur, int nbrOperations, double budget) {
+		PaquetOperations paquet = new PaquetOperations();
+		ConcurrentLinkedDeque<Tranche> fileTravailleur = files.get(travailleur % files.size());
+		int compteur = 0;
+		double cout = 0;
+
+		// Au moins une opération est prise, quel que soit le budget
+		while (compteur < nbrOperations && (compteur == 0 || cout < budget)) {
+			Tranche lot = retirer(fileTravailleur);
+
+			if (lot == null)
+				break;
+
+			int besoin = nbrOperations - compteur;
+			if (modele != null && budget != Double.POSITIVE_INFINITY) {
+				besoin = Math.min(besoin, nbrDansBudget(lot, budget - cout));
+			}
+
+			// Le reste d'un lot trop grand retourne en tête de la file du travailleur (découpage sans copie)
+			if (lot.longueur > besoin) {
+				fileTravailleur.addFirst(new Tranche(lot.operation, lot.segment, lot.debut + besoin, lot.longueur - besoin));
+				lot = new Tranche(lot.operation, lot.segment, lot.debut, besoin);
+			}
+
+			paquet.ajouter(lot);
+			compteur += lot.longueur;
+			cout += ajusterDisponibles(lot, -1);
+		}
+
+		if (compteur == 0)
+			return null;
+
+		nbrDisponibles.addAndGet(-compteur);
+
+		// De la place s'est libérée pour le lecteur en flux
+		Thread lecteur = lecteurEnAttente;
+		if (lecteur != null)
+			LockSupport.unpark(lecteur);
+
+		return paquet;
+	}
+
+	/**
+	 * Signale que les opérations d'un paquet ont été calculées.
+	 * @param operations paquet terminé
+	 */
+	public void terminer(PaquetOperations operations) {
+		if (nbrRestantes.addAndGet(-operations.taille()) == 0) {
+			reveiller();
+		}
+	}
+
+	/**
+	 * Remet les opérations d'un paquet dans le réservoir (refus ou déconnexion du serveur).
+	 * @param operations paquet à redistribuer (ignoré si null)
+	 */
+	public void rendre(PaquetOperations operations) {
+		if (operations == null)
+			return;
+
+		for (Tranche lot : operations.getTranches()) {
+			// Les opérandes sont comptés avant que le lot ne puisse être repris par un autre travailleur
+			ajusterDisponibles(lot, 1);
+			lotsRendus.addLast(lot);
+		}
+
+		nbrDisponibles.addAndGet(operations.taille());
+		reveiller();
+	}
+
+	/**
+	 * @return true si toutes les opérations ont été ajoutées et terminées
+	 */
+	public boolean estTermine() {
+		// ajoutsTermines est lu en premier : les opérations d'un dernier ajout sont alors comptées
+		return ajoutsTermines && nbrRestantes.get() == 0;
+	}
+
+	/**
+	 * Met le travailleur en attente jusqu'à ce que des opérations soient disponibles
+	 * ou que toutes les opérations soient terminées.
+	 * @return true si des opérations sont disponibles, false si tout est terminé
+	 */
+	public boolean attendreTravail() {
+		Thread courant = Thread.currentThread();
+		enAttente.add(courant);
+
+		try {
+			// Le travailleur est inscrit avant de tester les compteurs : un réveil
+			// survenant entre le test et le park n'est donc pas perdu.
+			while (true) {
+				if (estTermine())
+					return false;
+				if (nbrDisponibles.get() > 0)
+					return true;
+				LockSupport.park(this);
+			}
+		} finally {
+			enAttente.remove(courant);
+		}
+	}
+
+	/**
+	 * Met le travailleur en attente pendant au plus delaiNanos, ou jusqu'à ce que
+	 * toutes les opérations soient terminées (attente avant une reconnexion).
+	 * @param delaiNanos durée maximale de l'attente, en nanosecondes
+	 * @return true si tout est terminé
+	 */
+	public boolean attendreFin(long delaiNanos) {
+		Thread courant = Thread.currentThread();
+		long fin = System.nanoTime() + delaiNanos;
+		enAttente.add(courant);
+
+		try {
+			// Réveillé à chaque ajout ou retour d'opérations : l'attente reprend jusqu'à l'échéance
+			while (!estTermine()) {
+				long reste = fin - System.nanoTime();
+				if (reste <= 0)
+					return false;
+				LockSupport.parkNanos(this, reste);
+			}
+			return true;
+		} finally {
+			enAttente.remove(courant);
+		}
+	}
+
+	/**
+	 * @return nombre d'opérations pouvant être prises
+	 */
+	public int getNbrDisponibles() {
+		return nbrDisponibles.get();
+	}
+
+	/**
+	 * @return nombre d'opérations pas encore terminées
+	 */
+	public int getNbrRestantes() {
+		return nbrRestantes.get();
+	}
+
+	/**
+	 * @return modèle de coût des opérations, null si les paquets sont en nombre d'opérations
+	 */
+	public ModeleCout getModeleCout() {
+		return modele;
+	}
+
+	/**
+	 * Coût estimé des opérations pouvant être prises, selon l'état courant du modèle.
+	 * @return coût disponible (0 sans modèle de coût)
+	 */
+	public double getCoutDisponible() {
+		double cout = 0;
+
+		if (modele == null)
+			return cout;
+
+		for (String s : disponiblesParOperation.keySet()) {
+			AgregatCout agregat = disponiblesParOperation.get(s);
+			cout += modele.cout(s, Math.max(0, agregat.nbrOperandes.sum()), Math.max(0, agregat.sommeCoutAnalytique.sum()));
+		}
+
+		return cout;
+	}
+
+	/**
+	 * Nombre d'opérandes à prendre en tête d'un lot pour atteindre un budget
+	 * (l'opérande qui dépasse le budget est inclus).
+	 * @param lot lot considéré
+	 * @param budget budget restant
+	 * @return nombre d'opérandes, au moins 1
+	 */
+	private int nbrDansBudget(Tranche lot, double budget) {
+		double cout = 0;
+		int i = 0;
+
+		while (i < lot.longueur && cout < budget) {
+			cout += modele.cout(lot.operation, 1, modele.coutAnalytique(lot.operation, lot.segment[lot.debut + i]));
+			i++;
+		}
+
+		return Math.max(1, i);
+	}
+
+	/**
+	 * Met à jour les opérandes disponibles d'une opération (sans effet sans modèle de coût).
+	 * @param lot tranche ajoutée ou retirée
+	 * @param signe 1 pour un ajout, -1 pour un retrait
+	 * @return coût des opérandes selon le modèle (0 sans modèle de coût)
+	 */
+	private double ajusterDisponibles(Tranche lot, int signe) {
+		if (modele == null)
+			return 0;
+
+		double somme = 0;
+		for (int j = lot.debut; j < lot.debut + lot.longueur; j++) {
+			somme += modele.coutAnalytique(lot.operation, lot.segment[j]);
+		}
+
+		AgregatCout agregat = disponiblesParOperation.get(lot.operation);
+		if (agregat == null) {
+			disponiblesParOperation.putIfAbsent(lot.operation, new AgregatCout());
+			agregat = disponiblesParOperation.get(lot.operation);
+		}
+		agregat.nbrOperandes.add(signe * lot.longueur);
+		agregat.sommeCoutAnalytique.add(signe * somme);
+
+		return modele.cout(lot.operation, lot.longueur, somme);
+	}
+
+	/**
+	 * Retire un lot : file du travailleur, puis lots rendus, puis vol dans les autres files.
+	 * @param fileTravailleur file du travailleur
+	 * @return lot, null si le réservoir est vide
+	 */
+	private Tranche retirer(ConcurrentLinkedDeque<Tranche> fileTravailleur) {
+		Tranche lot = fileTravailleur.pollFirst();
+
+		if (lot == null)
+			lot = lotsRendus.pollFirst();
+
+		for (int i = 0; lot == null && i < files.size(); i++) {
+			if (files.get(i) != fileTravailleur)
+				lot = files.get(i).pollLast();
+		}
+
+		return lot;
+	}
+
+	/**
+	 * Réveille tous les travailleurs en attente.
+	 */
+	private void reveiller() {
+		for (Thread thread : enAttente) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Nombre et somme des coûts analytiques des opérandes disponibles d'une opération.
+	 */
+	private static class AgregatCout {
+		private final LongAdder nbrOperandes = new LongAdder();
+		private final DoubleAdder sommeCoutAnalytique = new DoubleAdder();
+	}
+
+}
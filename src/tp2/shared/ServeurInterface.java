@@ -9,4 +9,29 @@ public interface ServeurInterface extends Remote {
 
 	int calculOperations(HashMap<String, ArrayList<Integer>> operations) throws RemoteException;
 
+	/**
+	 * Variante de calculOperations renvoyant le résultat modulo 5000 de chaque opérande,
+	 * dans la même structure que le paquet envoyé. Renvoie null si le calcul est refusé.
+	 */
+	HashMap<String, ArrayList<Integer>> calculOperationsDetail(HashMap<String, ArrayList<Integer>> operations) throws RemoteException;
+
+	/**
+	 * Variante compacte de calculOperations : un code d'opération (voir PaquetCompact)
+	 * et un opérande par élément. Renvoie -1 si le calcul est refusé.
+	 */
+	int calculOperationsCompact(byte[] codes, int[] operandes) throws RemoteException;
+
+	/**
+	 * Variante compacte de calculOperationsDetail : renvoie le résultat modulo 5000
+	 * de chaque élément, dans le même ordre. Renvoie null si le calcul est refusé.
+	 */
+	int[] calculOperationsCompactDetail(byte[] codes, int[] operandes) throws RemoteException;
+
+	/**
+	 * Capacité du serveur, fixée à son lancement : nombre maximal d'opérations
+	 * d'un paquet accepté sans refus. Permet au répartiteur de dimensionner ses
+	 * paquets sans sonder le serveur par des refus.
+	 */
+	int capacite() throws RemoteException;
+
 }
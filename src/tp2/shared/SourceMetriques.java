@@ -0,0 +1,17 @@
+package tp2.shared;
+
+/**
+ * Source de métriques publiée sur le point d'accès Prometheus (voir ExportMetriques).
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public interface SourceMetriques {
+
+	/**
+	 * Ajoute les métriques courantes de la source.
+	 * @param sortie sortie au format Prometheus
+	 */
+	void exporter(FormatPrometheus sortie);
+
+}
@@ -0,0 +1,98 @@
+package tp2.shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Multiplicité de chaque couple (opération, opérande) du fichier de données,
+ * utilisée par la déduplication des répartiteurs.
+ *
+ * Le résultat final étant une somme modulo 5000, chaque opérande distinct
+ * n'est calculé qu'une fois et son résultat est multiplié par sa multiplicité.
+ * La table est remplie pendant l'analyse du fichier d'opérations, avant le
+ * lancement des threads, puis n'est plus que lue.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class TableMultiplicites {
+
+	// Clé : nom de l'opération. Valeur : nombre d'occurrences de chaque opérande.
+	private HashMap<String, HashMap<Integer, Integer>> multiplicites = new HashMap<String, HashMap<Integer, Integer>>();
+
+	/**
+	 * Ajoute une occurrence de (operation, operande).
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @return true si c'est la première occurrence de ce couple
+	 */
+	public boolean ajouter(String operation, int operande) {
+		HashMap<Integer, Integer> multiplicitesOperation = multiplicites.get(operation);
+
+		if (multiplicitesOperation == null) {
+			multiplicitesOperation = new HashMap<Integer, Integer>();
+			multiplicites.put(operation, multiplicitesOperation);
+		}
+
+		Integer multiplicite = multiplicitesOperation.get(operande);
+		multiplicitesOperation.put(operande, multiplicite == null ? 1 : multiplicite + 1);
+
+		return multiplicite == null;
+	}
+
+	/**
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 * @return nombre d'occurrences de (operation, operande) dans le fichier
+	 */
+	public int get(String operation, int operande) {
+		HashMap<Integer, Integer> multiplicitesOperation = multiplicites.get(operation);
+
+		if (multiplicitesOperation == null || !multiplicitesOperation.containsKey(operande)) {
+			return 0;
+		}
+
+		return multiplicitesOperation.get(operande);
+	}
+
+	/**
+	 * Somme modulo 5000 des résultats d'un paquet, chaque résultat étant pondéré
+	 * par la multiplicité de son opérande.
+	 * @param operations paquet d'opérandes distincts envoyé au serveur
+	 * @param resultats résultats renvoyés par calculOperationsDetail (même structure)
+	 * @return somme pondérée modulo 5000
+	 */
+	public int sommePonderee(HashMap<String, ArrayList<Integer>> operations, HashMap<String, ArrayList<Integer>> resultats) {
+		long somme = 0;
+
+		for (String s : operations.keySet()) {
+			ArrayList<Integer> operandes = operations.get(s);
+			ArrayList<Integer> resultatsOperation = resultats.get(s);
+
+			for (int i = 0; i < operandes.size(); i++) {
+				somme = (somme + (long) resultatsOperation.get(i) * get(s, operandes.get(i))) % 5000;
+			}
+		}
+
+		return (int) somme;
+	}
+
+	/**
+	 * Somme pondérée modulo 5000 des résultats d'un paquet compact.
+	 * @param paquet paquet compact d'opérandes distincts envoyé au serveur
+	 * @param resultats résultats renvoyés par calculOperationsCompactDetail (même ordre)
+	 * @return somme pondérée modulo 5000
+	 */
+	public int sommePonderee(PaquetCompact paquet, int[] resultats) {
+		long somme = 0;
+		byte[] codes = paquet.getCodes();
+		int[] operandes = paquet.getOperandes();
+
+		for (int i = 0; i < operandes.length; i++) {
+			somme = (somme + (long) resultats[i] * get(PaquetCompact.nom(codes[i]), operandes[i])) % 5000;
+		}
+
+		return (int) somme;
+	}
+
+}
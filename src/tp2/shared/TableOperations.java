@@ -0,0 +1,137 @@
+package tp2.shared;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Opérations à traiter, stockées sans boxing : pour chaque opération, un
+ * segment int[] contenant ses opérandes dans l'ordre du fichier. Le réservoir
+ * découpe ces segments en tranches (voir PaquetOperations) sans les copier.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class TableOperations {
+
+	private static final int TAILLE_INITIALE = 16;  // Taille initiale d'un segment
+
+	private final HashMap<String, Segment> segments = new HashMap<String, Segment>();  // Opérandes de chaque opération
+	private int taille = 0;                                                           // Nombre total d'opérations
+
+	/**
+	 * Ajoute une opération (le segment de l'opération est agrandi si besoin).
+	 * @param operation nom de l'opération
+	 * @param operande opérande
+	 */
+	public void ajouter(String operation, int operande) {
+		Segment segment = segments.get(operation);
+
+		if (segment == null) {
+			segment = new Segment();
+			segments.put(operation, segment);
+		} else if (segment.taille == segment.operandes.length) {
+			segment.operandes = Arrays.copyOf(segment.operandes, 2 * segment.taille);
+		}
+
+		segment.operandes[segment.taille++] = operande;
+		taille++;
+	}
+
+	/**
+	 * Ajoute des opérandes lus en bloc (fichier binaire projeté en mémoire, voir FichierOperationsBinaire).
+	 * @param operation nom de l'opération
+	 * @param operandes opérandes, lus à partir de la position courante
+	 * @param nbrOperandes nombre d'opérandes à lire
+	 */
+	public void ajouter(String operation, IntBuffer operandes, int nbrOperandes) {
+		Segment segment = agrandir(operation, nbrOperandes);
+		operandes.get(segment.operandes, segment.taille, nbrOperandes);
+		segment.taille += nbrOperandes;
+		taille += nbrOperandes;
+	}
+
+	/**
+	 * Réserve la place de nbrOperandes opérandes de plus, pour éviter les agrandissements successifs.
+	 * @param operation nom de l'opération
+	 * @param nbrOperandes nombre d'opérandes qui seront ajoutés
+	 */
+	public void reserver(String operation, int nbrOperandes) {
+		agrandir(operation, nbrOperandes);
+	}
+
+	/**
+	 * Agrandit le segment d'une opération pour recevoir au moins nbrOperandes opérandes de plus.
+	 * @param operation nom de l'opération
+	 * @param nbrOperandes nombre d'opérandes à ajouter
+	 * @return segment de l'opération
+	 */
+	private Segment agrandir(String operation, int nbrOperandes) {
+		Segment segment = segments.get(operation);
+
+		if (segment == null) {
+			segment = new Segment();
+			segments.put(operation, segment);
+		}
+
+		if (segment.operandes.length - segment.taille < nbrOperandes) {
+			segment.operandes = Arrays.copyOf(segment.operandes, Math.max(2 * segment.operandes.length, segment.taille + nbrOperandes));
+		}
+
+		return segment;
+	}
+
+	/**
+	 * @return noms des opérations
+	 */
+	public Set<String> getNoms() {
+		return segments.keySet();
+	}
+
+	/**
+	 * Segment d'une opération : seuls les getTaille(operation) premiers opérandes sont utilisés.
+	 * @param operation nom de l'opération
+	 * @return segment des opérandes, null si l'opération est absente
+	 */
+	public int[] getSegment(String operation) {
+		Segment segment = segments.get(operation);
+		return segment == null ? null : segment.operandes;
+	}
+
+	/**
+	 * @param operation nom de l'opération
+	 * @return nombre d'opérandes de l'opération
+	 */
+	public int getTaille(String operation) {
+		Segment segment = segments.get(operation);
+		return segment == null ? 0 : segment.taille;
+	}
+
+	/**
+	 * @return nombre total d'opérations
+	 */
+	public int getTaille() {
+		return taille;
+	}
+
+	/**
+	 * Ne conserve que les premiers opérandes d'une opération (après un compactage du segment sur place).
+	 * @param operation nom de l'opération
+	 * @param tailleOperation nouveau nombre d'opérandes
+	 */
+	public void tronquer(String operation, int tailleOperation) {
+		Segment segment = segments.get(operation);
+		taille -= segment.taille - tailleOperation;
+		segment.taille = tailleOperation;
+	}
+
+	/**
+	 * Segment d'une opération et nombre d'opérandes utilisés.
+	 */
+	private static class Segment {
+		private int[] operandes = new int[TAILLE_INITIALE];
+		private int taille = 0;
+	}
+
+}
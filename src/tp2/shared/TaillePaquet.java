@@ -0,0 +1,98 @@
+package tp2.shared;
+
+/**
+ * Taille des paquets envoyés à un serveur, ajustée selon ses réponses :
+ * augmentation de moitié quand le paquet est accepté, division par 2 quand il est refusé.
+ *
+ * Sans modèle de coût, la taille est un nombre d'opérations. Avec un modèle de
+ * coût (voir ModeleCout), le paquet est rempli jusqu'à un budget égal à
+ * facteur * coutDisponible / nbrParts : les premiers paquets se partagent le coût
+ * total entre les serveurs et les paquets raccourcissent à mesure que le
+ * réservoir se vide, ce qui équilibre la fin du calcul même quand le coût des
+ * opérations varie de plusieurs ordres de grandeur.
+ *
+ * Quand le serveur fournit sa capacité (voir ServeurInterface.capacite), aucun
+ * paquet ne la dépasse : le serveur n'a plus à être sondé par des refus.
+ *
+ * Une instance n'est utilisée que par un seul travailleur à la fois.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class TaillePaquet {
+
+	private final ReservoirOperations reservoir; // Réservoir dans lequel les paquets sont pris
+	private final int travailleur;               // Indice du travailleur (file du réservoir)
+	private final ModeleCout modele;             // Modèle de coût (null : taille en nombre d'opérations)
+	private final int nbrParts;                  // Nombre de paquets se partageant initialement le coût disponible
+	private int nbrOperations;                   // Taille des prochains paquets, en nombre d'opérations
+	private double facteur = 1;                  // Facteur appliqué au budget de coût
+	private int capacite = Integer.MAX_VALUE;    // Nombre maximal d'opérations accepté par le serveur
+
+	/**
+	 * Constructeur de la taille des paquets d'un travailleur.
+	 * @param reservoir réservoir des opérations
+	 * @param travailleur indice du travailleur
+	 * @param nbrOperationsInitial taille initiale des paquets sans modèle de coût
+	 * @param nbrParts nombre de paquets se partageant initialement le coût disponible (avec modèle de coût)
+	 */
+	public TaillePaquet(ReservoirOperations reservoir, int travailleur, int nbrOperationsInitial, int nbrParts) {
+		this.reservoir = reservoir;
+		this.travailleur = travailleur;
+		this.modele = reservoir.getModeleCout();
+		this.nbrParts = Math.max(1, nbrParts);
+		this.nbrOperations = Math.max(1, nbrOperationsInitial);
+	}
+
+	/**
+	 * Prend le prochain paquet dans le réservoir.
+	 * @return paquet d'opérations, null si aucune opération n'est disponible
+	 */
+	public PaquetOperations prendre() {
+		if (modele == null) {
+			return reservoir.prendre(travailleur, Math.min(nbrOperations, capacite));
+		}
+
+		return reservoir.prendre(travailleur, capacite, facteur * reservoir.getCoutDisponible() / nbrParts);
+	}
+
+	/**
+	 * Enregistre la capacité annoncée par le serveur.
+	 * @param capacite nombre maximal d'opérations accepté sans refus (Integer.MAX_VALUE si inconnue)
+	 */
+	public void setCapacite(int capacite) {
+		this.capacite = Math.max(1, capacite);
+		nbrOperations = Math.min(nbrOperations, this.capacite);
+	}
+
+	/**
+	 * Le serveur a accepté le paquet : on lui donne plus de calcul la prochaine fois.
+	 * @param operations paquet accepté
+	 * @param dureeNanos durée de l'appel au serveur, pour la calibration du modèle de coût
+	 */
+	public void accepte(PaquetOperations operations, long dureeNanos) {
+		if (modele != null) {
+			modele.observer(operations, dureeNanos);
+			// Au plus tout le coût disponible
+			facteur = Math.min(facteur * 1.5, nbrParts);
+		} else if (nbrOperations == 1) {
+			// Cas particulier où nbrOperations vaut 1
+			nbrOperations = Math.min(2, capacite);
+		} else {
+			// Sans dépasser la capacité du serveur
+			nbrOperations = (int) Math.min((long) nbrOperations + nbrOperations / 2, capacite);
+		}
+	}
+
+	/**
+	 * Le serveur a refusé le paquet par manque de disponibilité : on divise sa taille par 2.
+	 */
+	public void refuse() {
+		if (modele != null) {
+			facteur = facteur / 2;
+		} else {
+			nbrOperations = Math.max(1, nbrOperations / 2);
+		}
+	}
+
+}
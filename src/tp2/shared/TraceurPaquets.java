@@ -0,0 +1,251 @@
+package tp2.shared;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace du cycle de vie des paquets (option --trace=FICHIER) : découpe,
+ * calcul ou refus par un serveur, attente puis vérification, redistribution
+ * après une perte de connexion.
+ *
+ * Les événements sont écrits dans un tampon circulaire de tableaux primitifs :
+ * un enregistrement réserve une case par un seul incrément atomique puis y
+ * copie quelques entiers, sans allocation ni verrou. Quand le tampon est
+ * plein, les plus anciens événements sont écrasés.
+ *
+ * En fin de calcul, la trace est écrite au format JSON de Chrome (chrome://tracing,
+ * ui.perfetto.dev) avec une piste par serveur : les appels de calcul et de
+ * vérification y sont des tranches, ce qui montre l'occupation de chaque serveur
+ * et les trous entre deux paquets. L'attente de vérification d'un paquet est une
+ * tranche asynchrone, de son calcul jusqu'à son quorum.
+ *
+ * @author Enzo Laurent / Victor Pongnian
+ *
+ */
+public class TraceurPaquets {
+
+	/** Taille par défaut du tampon, en nombre d'événements */
+	public static final int TAILLE_DEFAUT = 1 << 18;
+
+	private static final byte DECOUPE = 0;       // Paquet découpé dans le réservoir
+	private static final byte CALCUL = 1;        // Appel de calcul accepté (tranche)
+	private static final byte REFUS = 2;         // Appel de calcul refusé (tranche)
+	private static final byte VERIFICATION = 3;  // Appel de vérification (tranche)
+	private static final byte ATTENTE = 4;       // Début de l'attente de vérification
+	private static final byte VERIFIE = 5;       // Paquet vérifié (fin de l'attente)
+	private static final byte REDISTRIBUE = 6;   // Paquet rendu au réservoir après une perte de connexion
+	private static final byte REJETE = 7;        // Paquet rendu au réservoir après un contrôle local échoué
+
+	private static final String[] NOMS = { "decoupe", "calcul", "refus", "verification",
+			"attente verification", "verifie", "redistribue", "controle echoue" };
+
+	private final int masque;                  // Taille du tampon - 1 (puissance de 2)
+	private final long[] instants;             // Instant de chaque événement, en nanosecondes depuis l'origine
+	private final long[] durees;               // Durée des tranches, en nanosecondes
+	private final byte[] types;                // Type de chaque événement
+	private final int[] serveurs;              // Indice du serveur (-1 : répartiteur)
+	private final int[] paquets;               // Numéro du paquet
+	private final int[] nbrOperations;         // Nombre d'opérations du paquet
+	private final AtomicLong suivant = new AtomicLong();    // Nombre d'événements enregistrés
+	private final AtomicInteger numeros = new AtomicInteger(); // Numéro du prochain paquet
+	private final long origine = System.nanoTime();          // Origine des instants
+
+	/**
+	 * Constructeur du traceur.
+	 * @param taille nombre d'événements conservés, arrondi à la puissance de 2 supérieure
+	 */
+	public TraceurPaquets(int taille) {
+		int capacite = Integer.highestOneBit(Math.max(2, taille - 1)) << 1;
+		this.masque = capacite - 1;
+		this.instants = new long[capacite];
+		this.durees = new long[capacite];
+		this.types = new byte[capacite];
+		this.serveurs = new int[capacite];
+		this.paquets = new int[capacite];
+		this.nbrOperations = new int[capacite];
+	}
+
+	/**
+	 * Découpe d'un paquet dans le réservoir : le paquet reçoit son numéro.
+	 * @param serveur indice du serveur destinataire
+	 * @param paquet paquet découpé
+	 */
+	public void decoupe(int serveur, PaquetOperations paquet) {
+		paquet.setNumero(numeros.getAndIncrement());
+		enregistrer(DECOUPE, serveur, paquet.getNumero(), paquet.taille(), System.nanoTime(), 0);
+	}
+
+	/**
+	 * Réponse d'un serveur à un appel de calcul.
+	 * @param serveur indice du serveur
+	 * @param paquet numéro du paquet
+	 * @param nbrOperations nombre d'opérations du paquet
+	 * @param debut instant de l'envoi (System.nanoTime)
+	 * @param accepte true si le paquet a été calculé, false s'il a été refusé
+	 */
+	public void calcul(int serveur, int paquet, int nbrOperations, long debut, boolean accepte) {
+		enregistrer(accepte ? CALCUL : REFUS, serveur, paquet, nbrOperations, debut, System.nanoTime() - debut);
+	}
+
+	/**
+	 * Réponse d'un serveur à un appel de vérification (répartiteur non sécurisé).
+	 * @param serveur indice du serveur
+	 * @param paquet numéro du paquet
+	 * @param nbrOperations nombre d'opérations recalculées
+	 * @param debut instant du premier envoi, refus compris (System.nanoTime)
+	 */
+	public void verification(int serveur, int paquet, int nbrOperations, long debut) {
+		enregistrer(VERIFICATION, serveur, paquet, nbrOperations, debut, System.nanoTime() - debut);
+	}
+
+	/**
+	 * Paquet calculé en attente de vérification par les autres serveurs.
+	 * @param serveur indice du serveur ayant calculé le paquet
+	 * @param paquet numéro du paquet
+	 */
+	public void attente(int serveur, int paquet) {
+		enregistrer(ATTENTE, serveur, paquet, 0, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Paquet vérifié (quorum atteint, contrôle local réussi ou accepté sans vérification).
+	 * @param serveur indice du serveur ayant terminé la vérification, -1 pour le répartiteur
+	 * @param paquet numéro du paquet
+	 */
+	public void verifie(int serveur, int paquet) {
+		enregistrer(VERIFIE, serveur, paquet, 0, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Paquet rendu au réservoir après la perte de connexion avec le serveur.
+	 * @param serveur indice du serveur
+	 * @param paquet numéro du paquet
+	 * @param nbrOperations nombre d'opérations du paquet
+	 */
+	public void redistribue(int serveur, int paquet, int nbrOperations) {
+		enregistrer(REDISTRIBUE, serveur, paquet, nbrOperations, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Paquet rendu au réservoir après un contrôle local échoué.
+	 * @param serveur indice du serveur
+	 * @param paquet numéro du paquet
+	 * @param nbrOperations nombre d'opérations du paquet
+	 */
+	public void rejete(int serveur, int paquet, int nbrOperations) {
+		enregistrer(REJETE, serveur, paquet, nbrOperations, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Écriture d'un événement dans le tampon circulaire.
+	 */
+	private void enregistrer(byte type, int serveur, int paquet, int nbr, long instant, long duree) {
+		int i = (int) (suivant.getAndIncrement() & masque);
+		instants[i] = instant - origine;
+		durees[i] = duree;
+		types[i] = type;
+		serveurs[i] = serveur;
+		paquets[i] = paquet;
+		nbrOperations[i] = nbr;
+	}
+
+	/**
+	 * @return nombre d'événements enregistrés, y compris ceux écrasés
+	 */
+	public long getNbrEvenements() {
+		return suivant.get();
+	}
+
+	/**
+	 * @return nombre d'événements écrasés faute de place dans le tampon
+	 */
+	public long getNbrPerdus() {
+		return Math.max(0, suivant.get() - (masque + 1));
+	}
+
+	/**
+	 * Écriture de la trace au format JSON de Chrome, une fois le calcul terminé.
+	 * Le répartiteur a sa propre piste, après celles des serveurs.
+	 * @param chemin fichier de la trace
+	 * @param nomsServeur noms des serveurs, dans l'ordre de leurs indices
+	 * @exception IOException si le fichier ne peut pas être écrit
+	 */
+	public void ecrire(String chemin, List<String> nomsServeur) throws IOException {
+		BufferedWriter sortie = new BufferedWriter(new FileWriter(chemin));
+		try {
+			sortie.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+			sortie.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"repartiteur\"}}");
+			for (int s = 0; s <= nomsServeur.size(); s++) {
+				String nom = s < nomsServeur.size() ? nomsServeur.get(s) : "repartiteur";
+				sortie.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + s
+						+ ",\"args\":{\"name\":\"" + nom.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}}");
+			}
+
+			long fin = suivant.get();
+			long debut = Math.max(0, fin - (masque + 1));
+
+			// Paquets dont le début de l'attente de vérification est encore dans le tampon
+			BitSet enAttente = new BitSet();
+			for (long n = debut; n < fin; n++) {
+				int i = (int) (n & masque);
+				if (types[i] == ATTENTE && paquets[i] >= 0) {
+					enAttente.set(paquets[i]);
+				}
+			}
+
+			for (long n = debut; n < fin; n++) {
+				int i = (int) (n & masque);
+				int piste = serveurs[i] < 0 ? nomsServeur.size() : serveurs[i];
+				boolean finAttente = types[i] == VERIFIE && paquets[i] >= 0 && enAttente.get(paquets[i]);
+				sortie.write(",\n");
+				sortie.write(evenement(types[i], piste, paquets[i], nbrOperations[i], instants[i], durees[i], finAttente));
+			}
+
+			sortie.write("\n]}\n");
+		} finally {
+			sortie.close();
+		}
+	}
+
+	/**
+	 * @return événement au format JSON de Chrome
+	 */
+	private static String evenement(byte type, int piste, int paquet, int nbr, long instant, long duree, boolean finAttente) {
+		String commun = "\"name\":\"" + NOMS[type] + "\",\"pid\":1,\"tid\":" + piste + ",\"ts\":" + micro(instant);
+		String arguments = ",\"args\":{\"paquet\":" + paquet + (nbr > 0 ? ",\"operations\":" + nbr : "") + "}";
+
+		switch (type) {
+		case CALCUL:
+		case REFUS:
+		case VERIFICATION:
+			return "{" + commun + ",\"cat\":\"serveur\",\"ph\":\"X\",\"dur\":" + micro(duree) + arguments + "}";
+		case ATTENTE:
+			return "{\"name\":\"" + NOMS[ATTENTE] + "\",\"cat\":\"verification\",\"ph\":\"b\",\"id\":" + paquet
+					+ ",\"pid\":1,\"tid\":" + piste + ",\"ts\":" + micro(instant) + arguments + "}";
+		case VERIFIE:
+			// Marqueur, précédé de la fin de l'attente de vérification si le paquet a attendu
+			String marqueur = "{" + commun + ",\"cat\":\"verification\",\"ph\":\"i\",\"s\":\"t\"" + arguments + "}";
+			if (!finAttente)
+				return marqueur;
+			return "{\"name\":\"" + NOMS[ATTENTE] + "\",\"cat\":\"verification\",\"ph\":\"e\",\"id\":" + paquet
+					+ ",\"pid\":1,\"tid\":" + piste + ",\"ts\":" + micro(instant) + "},\n" + marqueur;
+		default:
+			return "{" + commun + ",\"cat\":\"paquet\",\"ph\":\"i\",\"s\":\"t\"" + arguments + "}";
+		}
+	}
+
+	/**
+	 * @param nanos durée en nanosecondes
+	 * @return durée en microsecondes, unité des traces Chrome
+	 */
+	private static String micro(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+	}
+
+}